@@ -0,0 +1,136 @@
+package org.example;
+
+import com.serotonin.bacnet4j.exception.BACnetException;
+import com.serotonin.bacnet4j.service.confirmed.ConfirmedCovNotificationRequest;
+import com.serotonin.bacnet4j.service.confirmed.ConfirmedRequestService;
+import com.serotonin.bacnet4j.type.constructed.PropertyValue;
+import com.serotonin.bacnet4j.type.constructed.SequenceOf;
+import com.serotonin.bacnet4j.type.constructed.StatusFlags;
+import com.serotonin.bacnet4j.type.enumerated.BinaryPV;
+import com.serotonin.bacnet4j.type.enumerated.ObjectType;
+import com.serotonin.bacnet4j.type.enumerated.PropertyIdentifier;
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+import com.serotonin.bacnet4j.type.primitive.Real;
+import com.serotonin.bacnet4j.type.primitive.UnsignedInteger;
+import com.serotonin.bacnet4j.util.sero.ByteQueue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning a COV notification off the wire into a stored point value:
+ * decoding the service, publishing it to the {@link CovRingBuffer} and
+ * draining it through {@link PointStoreCovWriter} into the
+ * {@link PointValueStore}. {@code decode} alone isolates the bacnet4j part;
+ * {@code store} starts from already decoded notifications and measures only
+ * the ring and the store, which should allocate nothing per notification.
+ * Notifications cycle over {@code points} analog and binary objects.
+ * <p>
+ * Run with {@code -prof gc} and read {@code gc.alloc.rate.norm} for the
+ * bytes allocated per notification.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 3, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "-XX:+AlwaysPreTouch"})
+@State(Scope.Thread)
+public class CovNotificationBenchmark {
+
+    @Param({"1000"})
+    public int points;
+
+    private byte[][] encoded;
+    private ConfirmedCovNotificationRequest[] decoded;
+    private PointValueStore store;
+    private PointStoreCovWriter writer;
+    private CovRingBuffer ring;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        encoded = new byte[points][];
+        decoded = new ConfirmedCovNotificationRequest[points];
+        StatusFlags normal = new StatusFlags(false, false, false, false);
+        ObjectIdentifier deviceOid = new ObjectIdentifier(ObjectType.device, 1000);
+        for (int i = 0; i < points; i++) {
+            ObjectIdentifier oid;
+            SequenceOf<PropertyValue> values;
+            if (i % 2 == 0) {
+                oid = new ObjectIdentifier(ObjectType.analogInput, i);
+                values = new SequenceOf<>(
+                        new PropertyValue(PropertyIdentifier.presentValue, new Real(20 + i % 10)),
+                        new PropertyValue(PropertyIdentifier.statusFlags, normal));
+            } else {
+                oid = new ObjectIdentifier(ObjectType.binaryInput, i);
+                values = new SequenceOf<>(
+                        new PropertyValue(PropertyIdentifier.presentValue, BinaryPV.active),
+                        new PropertyValue(PropertyIdentifier.statusFlags, normal));
+            }
+            ConfirmedCovNotificationRequest notification = new ConfirmedCovNotificationRequest(
+                    new UnsignedInteger(1), deviceOid, oid, new UnsignedInteger(600), values);
+            ByteQueue queue = new ByteQueue();
+            notification.write(queue);
+            encoded[i] = queue.popAll();
+        }
+        for (int i = 0; i < points; i++) {
+            try {
+                decoded[i] = decode(encoded[i]);
+            } catch (BACnetException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        store = new PointValueStore(points * 2);
+        writer = new PointStoreCovWriter(store);
+        ring = new CovRingBuffer(1024, CovRingBuffer.OverflowPolicy.DROP_NEWEST);
+    }
+
+    @Benchmark
+    public ConfirmedCovNotificationRequest decode() throws BACnetException {
+        return decodeNext();
+    }
+
+    @Benchmark
+    public int decodeAndStore() throws BACnetException {
+        return store(decodeNext());
+    }
+
+    @Benchmark
+    public int store() {
+        ConfirmedCovNotificationRequest n = decoded[next];
+        next = next + 1 == decoded.length ? 0 : next + 1;
+        return store(n);
+    }
+
+    private int store(ConfirmedCovNotificationRequest n) {
+        ring.publish(
+                n.getInitiatingDeviceIdentifier().getInstanceNumber(),
+                n.getMonitoredObjectIdentifier(),
+                n.getSubscriberProcessIdentifier().longValue(),
+                n.getTimeRemaining().longValue(),
+                n.getListOfValues());
+        return ring.drain(writer, 1);
+    }
+
+    private ConfirmedCovNotificationRequest decodeNext() throws BACnetException {
+        byte[] bytes = encoded[next];
+        next = next + 1 == encoded.length ? 0 : next + 1;
+        return decode(bytes);
+    }
+
+    private static ConfirmedCovNotificationRequest decode(byte[] bytes) throws BACnetException {
+        return (ConfirmedCovNotificationRequest) ConfirmedRequestService.createConfirmedRequestService(
+                ConfirmedCovNotificationRequest.TYPE_ID, new ByteQueue(bytes));
+    }
+}
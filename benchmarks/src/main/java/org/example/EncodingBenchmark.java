@@ -0,0 +1,150 @@
+package org.example;
+
+import com.serotonin.bacnet4j.exception.BACnetException;
+import com.serotonin.bacnet4j.service.acknowledgement.AcknowledgementService;
+import com.serotonin.bacnet4j.service.acknowledgement.ReadPropertyAck;
+import com.serotonin.bacnet4j.service.confirmed.ConfirmedRequestService;
+import com.serotonin.bacnet4j.service.confirmed.ReadPropertyMultipleRequest;
+import com.serotonin.bacnet4j.service.confirmed.ReadPropertyRequest;
+import com.serotonin.bacnet4j.service.confirmed.SubscribeCOVRequest;
+import com.serotonin.bacnet4j.type.constructed.PropertyReference;
+import com.serotonin.bacnet4j.type.constructed.ReadAccessSpecification;
+import com.serotonin.bacnet4j.type.constructed.SequenceOf;
+import com.serotonin.bacnet4j.type.enumerated.ObjectType;
+import com.serotonin.bacnet4j.type.enumerated.PropertyIdentifier;
+import com.serotonin.bacnet4j.type.primitive.Boolean;
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+import com.serotonin.bacnet4j.type.primitive.UnsignedInteger;
+import com.serotonin.bacnet4j.util.sero.ByteQueue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode and decode cost of the requests the client sends most:
+ * ReadProperty (and its ack), ReadPropertyMultiple with {@code refs}
+ * references spread over objects of five properties each, and SubscribeCOV.
+ * Decoding goes through the same service factory the transport uses.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 3, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "-XX:+AlwaysPreTouch"})
+@State(Scope.Thread)
+public class EncodingBenchmark {
+
+    @Param({"5", "50"})
+    public int refs;
+
+    private ReadPropertyRequest readProperty;
+    private ReadPropertyAck readPropertyAck;
+    private ReadPropertyMultipleRequest readPropertyMultiple;
+    private SubscribeCOVRequest subscribeCov;
+
+    private byte[] readPropertyBytes;
+    private byte[] readPropertyAckBytes;
+    private byte[] readPropertyMultipleBytes;
+    private byte[] subscribeCovBytes;
+
+    @Setup
+    public void setUp() {
+        ObjectIdentifier deviceOid = new ObjectIdentifier(ObjectType.device, 1234);
+        readProperty = new ReadPropertyRequest(deviceOid, PropertyIdentifier.objectList, new UnsignedInteger(17));
+        readPropertyAck = new ReadPropertyAck(deviceOid, PropertyIdentifier.objectList, new UnsignedInteger(17),
+                new ObjectIdentifier(ObjectType.analogInput, 17));
+
+        PropertyIdentifier[] props = {
+                PropertyIdentifier.objectName,
+                PropertyIdentifier.presentValue,
+                PropertyIdentifier.statusFlags,
+                PropertyIdentifier.units,
+                PropertyIdentifier.description
+        };
+        List<ReadAccessSpecification> specs = new ArrayList<>();
+        for (int i = 0; i < refs; i += props.length) {
+            SequenceOf<PropertyReference> list = new SequenceOf<>();
+            for (int p = 0; p < props.length && i + p < refs; p++) {
+                list.add(new PropertyReference(props[p]));
+            }
+            specs.add(new ReadAccessSpecification(new ObjectIdentifier(ObjectType.analogInput, i), list));
+        }
+        readPropertyMultiple = new ReadPropertyMultipleRequest(new SequenceOf<>(specs));
+
+        subscribeCov = new SubscribeCOVRequest(new UnsignedInteger(42),
+                new ObjectIdentifier(ObjectType.analogInput, 17), Boolean.TRUE, new UnsignedInteger(900));
+
+        readPropertyBytes = encode(readProperty);
+        readPropertyAckBytes = encodeAck(readPropertyAck);
+        readPropertyMultipleBytes = encode(readPropertyMultiple);
+        subscribeCovBytes = encode(subscribeCov);
+    }
+
+    @Benchmark
+    public byte[] encodeReadProperty() {
+        return encode(readProperty);
+    }
+
+    @Benchmark
+    public ConfirmedRequestService decodeReadProperty() throws BACnetException {
+        return ConfirmedRequestService.createConfirmedRequestService(
+                ReadPropertyRequest.TYPE_ID, new ByteQueue(readPropertyBytes));
+    }
+
+    @Benchmark
+    public byte[] encodeReadPropertyAck() {
+        return encodeAck(readPropertyAck);
+    }
+
+    @Benchmark
+    public AcknowledgementService decodeReadPropertyAck() throws BACnetException {
+        return AcknowledgementService.createAcknowledgementService(
+                ReadPropertyAck.TYPE_ID, new ByteQueue(readPropertyAckBytes));
+    }
+
+    @Benchmark
+    public byte[] encodeReadPropertyMultiple() {
+        return encode(readPropertyMultiple);
+    }
+
+    @Benchmark
+    public ConfirmedRequestService decodeReadPropertyMultiple() throws BACnetException {
+        return ConfirmedRequestService.createConfirmedRequestService(
+                ReadPropertyMultipleRequest.TYPE_ID, new ByteQueue(readPropertyMultipleBytes));
+    }
+
+    @Benchmark
+    public byte[] encodeSubscribeCov() {
+        return encode(subscribeCov);
+    }
+
+    @Benchmark
+    public ConfirmedRequestService decodeSubscribeCov() throws BACnetException {
+        return ConfirmedRequestService.createConfirmedRequestService(
+                SubscribeCOVRequest.TYPE_ID, new ByteQueue(subscribeCovBytes));
+    }
+
+    private static byte[] encode(ConfirmedRequestService request) {
+        ByteQueue queue = new ByteQueue();
+        request.write(queue);
+        return queue.popAll();
+    }
+
+    private static byte[] encodeAck(AcknowledgementService ack) {
+        ByteQueue queue = new ByteQueue();
+        ack.write(queue);
+        return queue.popAll();
+    }
+}
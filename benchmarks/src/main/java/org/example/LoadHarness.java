@@ -0,0 +1,215 @@
+package org.example;
+
+import com.serotonin.bacnet4j.LocalDevice;
+import com.serotonin.bacnet4j.RemoteDevice;
+import com.serotonin.bacnet4j.npdu.test.TestNetwork;
+import com.serotonin.bacnet4j.transport.DefaultTransport;
+import com.serotonin.bacnet4j.type.enumerated.ObjectType;
+import com.serotonin.bacnet4j.type.enumerated.Segmentation;
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives the client against a {@link SimulatedSite} and reports the three
+ * figures that matter on a large site: how long discovery takes, how fast
+ * object lists are enumerated, and how far COV notifications lag behind the
+ * change that caused them.
+ * <p>
+ * Run it with
+ * {@code java -Xmx16g -cp target/benchmarks.jar org.example.LoadHarness devices=1000 objects=5000}.
+ * Other arguments, all {@code name=value}: {@code delay} (ms per message),
+ * {@code loss} (0..1), {@code maxApdu}, {@code segmentation}
+ * (segmentedBoth or noSegmentation), {@code readers} (devices enumerated at
+ * once), {@code covPoints} (subscribed per device), {@code changes} (per
+ * second across the site) and {@code covSeconds}.
+ */
+public class LoadHarness {
+
+    private static final int BASE_INSTANCE = 100_000;
+    private static final int CLIENT_INSTANCE = 1_000;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) {
+                options.put(arg.substring(0, eq), arg.substring(eq + 1));
+            }
+        }
+        int deviceCount = Integer.parseInt(options.getOrDefault("devices", "100"));
+        int objectCount = Integer.parseInt(options.getOrDefault("objects", "500"));
+        int delay = Integer.parseInt(options.getOrDefault("delay", "5"));
+        double loss = Double.parseDouble(options.getOrDefault("loss", "0"));
+        int maxApdu = Integer.parseInt(options.getOrDefault("maxApdu", "1476"));
+        Segmentation segmentation = "noSegmentation".equals(options.get("segmentation"))
+                ? Segmentation.noSegmentation : Segmentation.segmentedBoth;
+        int readers = Integer.parseInt(options.getOrDefault("readers", "64"));
+        int covPoints = Integer.parseInt(options.getOrDefault("covPoints", "20"));
+        int changesPerSecond = Integer.parseInt(options.getOrDefault("changes", "500"));
+        int covSeconds = Integer.parseInt(options.getOrDefault("covSeconds", "30"));
+
+        SimulatedSite.DeviceProfile profile =
+                new SimulatedSite.DeviceProfile(objectCount, delay, loss, maxApdu, segmentation);
+        System.out.println("Site: " + deviceCount + " devices, " + profile);
+
+        try (SimulatedSite site = new SimulatedSite(deviceCount, BASE_INSTANCE, profile)) {
+            long startedAt = System.nanoTime();
+            site.start();
+            System.out.println("Site up in " + millisSince(startedAt) + " ms");
+
+            DefaultTransport transport = new DefaultTransport(new TestNetwork(site.getNetworkMap(), deviceCount + 1, 0));
+            DeviceRequestSender.leaveRetriesToSender(transport);
+            LocalDevice client = new LocalDevice(CLIENT_INSTANCE, transport);
+            client.initialize();
+            try {
+                Map<Integer, RemoteDevice> found = discover(client, site);
+                List<RemoteDevice> remotes = new ArrayList<>(found.values());
+                enumerate(client, remotes, objectCount, readers);
+                covLag(client, site, remotes, covPoints, changesPerSecond, covSeconds);
+
+                System.out.println("\n--- Requests ---");
+                RequestMetrics metrics = DeviceRequestSender.forLocal(client).getMetrics();
+                System.out.println(metrics.snapshotTotal());
+                metrics.snapshotServices().values().forEach(s -> System.out.println("  " + s));
+                List<RequestMetrics.Snapshot> slowest = metrics.snapshotDevices();
+                for (int i = 0; i < Math.min(5, slowest.size()); i++) {
+                    System.out.println("  " + slowest.get(i));
+                }
+            } finally {
+                client.terminate();
+            }
+        }
+    }
+
+    private static Map<Integer, RemoteDevice> discover(LocalDevice client, SimulatedSite site)
+            throws InterruptedException {
+        System.out.println("\n--- Discovery ---");
+        WhoIsSweeper sweeper = new WhoIsSweeper(client, null);
+        long start = System.nanoTime();
+        Map<Integer, RemoteDevice> found = sweeper.sweep(
+                site.getBaseInstance(), site.getBaseInstance() + site.getDeviceCount() - 1, d -> { });
+        System.out.println("Found " + found.size() + "/" + site.getDeviceCount() + " devices in "
+                + millisSince(start) + " ms with " + sweeper.getWhoIsSent() + " Who-Is ("
+                + sweeper.getRangesSplit() + " ranges split)");
+        return found;
+    }
+
+    private static void enumerate(LocalDevice client, List<RemoteDevice> remotes, int objectCount, int readers)
+            throws InterruptedException {
+        System.out.println("\n--- Enumeration ---");
+        Semaphore permits = new Semaphore(readers);
+        LongAdder objects = new LongAdder();
+        LongAdder complete = new LongAdder();
+        LongAdder failed = new LongAdder();
+        LatencyHistogram perDevice = new LatencyHistogram();
+
+        long start = System.nanoTime();
+        try (ExecutorService executor = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("harness-read-", 0).factory())) {
+            for (RemoteDevice remote : remotes) {
+                permits.acquire();
+                executor.execute(() -> {
+                    long t = System.nanoTime();
+                    try {
+                        int n = ObjectListReader.readAll(client, remote).size();
+                        objects.add(n);
+                        // The list includes the device object itself
+                        if (n == objectCount + 1) {
+                            complete.increment();
+                        }
+                    } catch (Exception e) {
+                        failed.increment();
+                    } finally {
+                        perDevice.record(System.nanoTime() - t);
+                        permits.release();
+                    }
+                });
+            }
+        }
+        long elapsed = millisSince(start);
+
+        System.out.println("Read " + objects.sum() + " object ids from " + remotes.size() + " devices in "
+                + elapsed + " ms (" + (elapsed == 0 ? 0 : objects.sum() * 1000 / elapsed) + " objects/s)");
+        System.out.println("Complete lists: " + complete.sum() + ", failed devices: " + failed.sum());
+        System.out.println("Per device: p50=" + toMillis(perDevice.percentileNanos(50))
+                + "ms p95=" + toMillis(perDevice.percentileNanos(95))
+                + "ms max=" + toMillis(perDevice.maxNanos()) + "ms");
+    }
+
+    private static void covLag(
+            LocalDevice client,
+            SimulatedSite site,
+            List<RemoteDevice> remotes,
+            int covPoints,
+            int changesPerSecond,
+            int covSeconds
+    ) throws InterruptedException {
+        System.out.println("\n--- COV ---");
+        LatencyHistogram lag = new LatencyHistogram();
+        LongAdder unmatched = new LongAdder();
+        CovEventHandler measure = (event, endOfBatch) -> {
+            long changedAt = site.takeChange(event.getDeviceInstance(),
+                    event.getMonitoredObject().getInstanceNumber());
+            if (changedAt < 0) {
+                unmatched.increment();
+            } else {
+                lag.record(event.getReceivedAtNanos() - changedAt);
+            }
+        };
+
+        int points = Math.min(covPoints, site.getProfile().objectCount());
+        try (CovIngestionPipeline pipeline = new CovIngestionPipeline(
+                client, 1 << 16, CovRingBuffer.OverflowPolicy.DROP_NEWEST, 2, measure);
+             CovSubscriptionManager subscriptions = new CovSubscriptionManager(client)) {
+            pipeline.start();
+            subscriptions.start();
+
+            long start = System.nanoTime();
+            for (RemoteDevice remote : remotes) {
+                List<ObjectIdentifier> oids = new ArrayList<>(points);
+                for (int o = 0; o < points; o++) {
+                    oids.add(new ObjectIdentifier(ObjectType.analogValue, o));
+                }
+                subscriptions.subscribe(remote, oids);
+            }
+            int wanted = remotes.size() * points;
+            while (subscriptions.getActiveCount() < wanted && millisSince(start) < 60_000) {
+                Thread.sleep(100);
+            }
+            System.out.println("Subscribed " + subscriptions.getActiveCount() + "/" + wanted
+                    + " points on " + remotes.size() + " devices in " + millisSince(start) + " ms");
+
+            long changesBefore = site.getChanges();
+            site.startChanges(changesPerSecond, points);
+            Thread.sleep(TimeUnit.SECONDS.toMillis(covSeconds));
+            long changes = site.getChanges() - changesBefore;
+            // Give notifications in flight a moment to land
+            Thread.sleep(1000);
+
+            System.out.println("Changes: " + changes + " (" + changesPerSecond + "/s over the site), "
+                    + "notifications matched: " + lag.getCount() + ", other: " + unmatched.sum()
+                    + ", dropped: " + pipeline.getDropped());
+            System.out.println("Notification lag: p50=" + toMillis(lag.percentileNanos(50))
+                    + "ms p95=" + toMillis(lag.percentileNanos(95))
+                    + "ms p99=" + toMillis(lag.percentileNanos(99))
+                    + "ms max=" + toMillis(lag.maxNanos()) + "ms");
+        }
+    }
+
+    private static long millisSince(long startNanos) {
+        return toMillis(System.nanoTime() - startNanos);
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
@@ -0,0 +1,88 @@
+package org.example;
+
+import com.serotonin.bacnet4j.LocalDevice;
+import com.serotonin.bacnet4j.RemoteDevice;
+import com.serotonin.bacnet4j.npdu.test.TestNetwork;
+import com.serotonin.bacnet4j.npdu.test.TestNetworkMap;
+import com.serotonin.bacnet4j.obj.AnalogValueObject;
+import com.serotonin.bacnet4j.transport.DefaultTransport;
+import com.serotonin.bacnet4j.type.enumerated.EngineeringUnits;
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end {@link ObjectListReader#readAll} against a device with
+ * {@code objects} analog values on an in-process bacnet4j test network, so
+ * the figure covers encoding, the transport state machine, the batch engine
+ * and decoding, without a real socket. {@code sendDelay} adds a fixed
+ * per-message delay in the network to model a slow link.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(value = 3, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "-XX:+AlwaysPreTouch"})
+@State(Scope.Benchmark)
+public class ObjectListReadBenchmark {
+
+    private static final int SERVER_INSTANCE = 1001;
+    private static final int CLIENT_INSTANCE = 2001;
+
+    @Param({"100", "1000"})
+    public int objects;
+
+    @Param({"0"})
+    public int sendDelay;
+
+    private LocalDevice server;
+    private LocalDevice client;
+    private RemoteDevice remote;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        TestNetworkMap map = new TestNetworkMap();
+        server = new LocalDevice(SERVER_INSTANCE, new DefaultTransport(new TestNetwork(map, 1, sendDelay)));
+        DefaultTransport clientTransport = new DefaultTransport(new TestNetwork(map, 2, sendDelay));
+        DeviceRequestSender.leaveRetriesToSender(clientTransport);
+        client = new LocalDevice(CLIENT_INSTANCE, clientTransport);
+        server.initialize();
+        client.initialize();
+
+        for (int i = 0; i < objects; i++) {
+            new AnalogValueObject(server, i, "AV-" + i, i, EngineeringUnits.degreesCelsius, false);
+        }
+
+        remote = client.getRemoteDeviceBlocking(SERVER_INSTANCE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        client.terminate();
+        server.terminate();
+    }
+
+    @Benchmark
+    public List<ObjectIdentifier> readAll() throws Exception {
+        List<ObjectIdentifier> oids = ObjectListReader.readAll(client, remote);
+        // The device object itself is in the list as well
+        if (oids.size() != objects + 1) {
+            throw new IllegalStateException("Read " + oids.size() + " objects, expected " + (objects + 1));
+        }
+        return oids;
+    }
+}
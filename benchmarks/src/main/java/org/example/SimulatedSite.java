@@ -0,0 +1,212 @@
+package org.example;
+
+import com.serotonin.bacnet4j.LocalDevice;
+import com.serotonin.bacnet4j.exception.BACnetException;
+import com.serotonin.bacnet4j.npdu.test.TestNetwork;
+import com.serotonin.bacnet4j.npdu.test.TestNetworkMap;
+import com.serotonin.bacnet4j.obj.AnalogValueObject;
+import com.serotonin.bacnet4j.transport.DefaultTransport;
+import com.serotonin.bacnet4j.type.constructed.Address;
+import com.serotonin.bacnet4j.type.enumerated.EngineeringUnits;
+import com.serotonin.bacnet4j.type.enumerated.PropertyIdentifier;
+import com.serotonin.bacnet4j.type.enumerated.Segmentation;
+import com.serotonin.bacnet4j.type.primitive.OctetString;
+import com.serotonin.bacnet4j.type.primitive.Real;
+import com.serotonin.bacnet4j.type.primitive.UnsignedInteger;
+import com.serotonin.bacnet4j.util.sero.ByteQueue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A building's worth of simulated BACnet devices in one JVM, on bacnet4j's
+ * in-memory test network.
+ * <p>
+ * Every device is a real {@link LocalDevice} with its own transport and
+ * {@code objectCount} analog values that report COV. Its network delays
+ * every message it sends by {@code responseDelayMillis} and drops
+ * {@code lossRate} of them, and its device object advertises the given
+ * MaxAPDU and segmentation support in I-Am and to readers.
+ * {@link #startChanges} keeps changing random present values, and
+ * {@link #takeChange} tells a consumer when the change it was just notified
+ * of was made.
+ * <p>
+ * Each device costs a few threads and roughly 1-2 KB of heap per object, so
+ * size -Xmx to devices × objects before trying a full site.
+ */
+public final class SimulatedSite implements AutoCloseable {
+
+    /** How every simulated device behaves. */
+    public record DeviceProfile(
+            int objectCount,
+            int responseDelayMillis,
+            double lossRate,
+            int maxApdu,
+            Segmentation segmentation
+    ) {
+    }
+
+    private final TestNetworkMap networkMap = new TestNetworkMap();
+    private final int deviceCount;
+    private final int baseInstance;
+    private final DeviceProfile profile;
+
+    private final List<LocalDevice> devices = new ArrayList<>();
+    private final List<AnalogValueObject[]> objects = new ArrayList<>();
+    private final Map<Long, Long> changedAt = new ConcurrentHashMap<>();
+    private final LongAdder changes = new LongAdder();
+    private ScheduledExecutorService changer;
+
+    /**
+     * @param baseInstance device {@code i} is instance {@code baseInstance + i}
+     *                     at network address {@code i + 1}
+     */
+    public SimulatedSite(int deviceCount, int baseInstance, DeviceProfile profile) {
+        this.deviceCount = deviceCount;
+        this.baseInstance = baseInstance;
+        this.profile = profile;
+    }
+
+    public void start() throws Exception {
+        for (int i = 0; i < deviceCount; i++) {
+            TestNetwork network = new LossyTestNetwork(networkMap, i + 1, profile.responseDelayMillis(),
+                    profile.lossRate());
+            LocalDevice device = new LocalDevice(baseInstance + i, new DefaultTransport(network));
+            device.getDeviceObject().writePropertyInternal(PropertyIdentifier.maxApduLengthAccepted,
+                    new UnsignedInteger(profile.maxApdu()));
+            device.getDeviceObject().writePropertyInternal(PropertyIdentifier.segmentationSupported,
+                    profile.segmentation());
+            device.initialize();
+
+            AnalogValueObject[] points = new AnalogValueObject[profile.objectCount()];
+            for (int o = 0; o < points.length; o++) {
+                points[o] = new AnalogValueObject(device, o, "AV-" + o, 20, EngineeringUnits.degreesCelsius, false);
+                points[o].supportCovReporting(0.1f);
+            }
+            devices.add(device);
+            objects.add(points);
+
+            if ((i + 1) % 100 == 0) {
+                System.out.println("Started " + (i + 1) + "/" + deviceCount + " simulated devices");
+            }
+        }
+    }
+
+    /** The network to attach the client under test to; addresses above {@link #getDeviceCount()} are free. */
+    public TestNetworkMap getNetworkMap() {
+        return networkMap;
+    }
+
+    public int getDeviceCount() {
+        return deviceCount;
+    }
+
+    public int getBaseInstance() {
+        return baseInstance;
+    }
+
+    public DeviceProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Changes the present value of a random object on a random device
+     * {@code perSecond} times a second, by more than the COV increment.
+     * Only the first {@code pointsPerDevice} objects of each device change,
+     * so a client subscribed to those sees every change.
+     */
+    public synchronized void startChanges(int perSecond, int pointsPerDevice) {
+        if (changer != null || perSecond <= 0) {
+            return;
+        }
+        changer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "site-changes");
+            t.setDaemon(true);
+            return t;
+        });
+        long tickMillis = 10;
+        double perTick = perSecond * tickMillis / 1000.0;
+        changer.scheduleAtFixedRate(new Runnable() {
+            double owed;
+
+            @Override
+            public void run() {
+                owed += perTick;
+                for (; owed >= 1; owed--) {
+                    changeRandomPoint(pointsPerDevice);
+                }
+            }
+        }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * When the last unconsumed change to the point was made, as
+     * {@link System#nanoTime()}, or -1 if there is none (e.g. the initial
+     * notification after subscribing). Each change is handed out once.
+     */
+    public long takeChange(int deviceInstance, int objectInstance) {
+        Long at = changedAt.remove(key(deviceInstance, objectInstance));
+        return at == null ? -1 : at;
+    }
+
+    public long getChanges() {
+        return changes.sum();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (changer != null) {
+            changer.shutdownNow();
+            changer = null;
+        }
+        for (LocalDevice device : devices) {
+            device.terminate();
+        }
+        devices.clear();
+        objects.clear();
+    }
+
+    private void changeRandomPoint(int pointsPerDevice) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int d = random.nextInt(objects.size());
+        AnalogValueObject[] points = objects.get(d);
+        if (points.length == 0) {
+            return;
+        }
+        int o = random.nextInt(Math.min(pointsPerDevice, points.length));
+        changedAt.put(key(baseInstance + d, o), System.nanoTime());
+        points[o].writePropertyInternal(PropertyIdentifier.presentValue, new Real(random.nextFloat(0, 100)));
+        changes.increment();
+    }
+
+    private static long key(int deviceInstance, int objectInstance) {
+        return (long) deviceInstance << 32 | objectInstance;
+    }
+
+    /** Drops a fraction of outgoing messages, as a lossy MS/TP trunk or WAN link would. */
+    private static final class LossyTestNetwork extends TestNetwork {
+
+        private final double lossRate;
+
+        LossyTestNetwork(TestNetworkMap map, int address, int sendDelay, double lossRate) {
+            super(map, address, sendDelay);
+            this.lossRate = lossRate;
+        }
+
+        @Override
+        public void sendNPDU(Address recipient, OctetString router, ByteQueue npdu, boolean broadcast,
+                boolean expectsReply) throws BACnetException {
+            if (lossRate > 0 && ThreadLocalRandom.current().nextDouble() < lossRate) {
+                return;
+            }
+            super.sendNPDU(recipient, router, npdu, broadcast, expectsReply);
+        }
+    }
+}
@@ -5,24 +5,75 @@ import com.serotonin.bacnet4j.RemoteDevice;
 import com.serotonin.bacnet4j.npdu.ip.IpNetwork;
 import com.serotonin.bacnet4j.npdu.ip.IpNetworkBuilder;
 import com.serotonin.bacnet4j.transport.DefaultTransport;
+import com.serotonin.bacnet4j.type.enumerated.PropertyIdentifier;
+import com.serotonin.bacnet4j.type.primitive.Null;
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+import com.serotonin.bacnet4j.type.primitive.Real;
+import com.serotonin.bacnet4j.type.primitive.UnsignedInteger;
 import com.serotonin.bacnet4j.util.RemoteDeviceDiscoverer;
 
 import java.net.InetAddress;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 //TIP To <b>Run</b> code, press <shortcut actionId="Run"/> or
 // click the <icon src="AllIcons.Actions.Execute"/> icon in the gutter.
-public class ACController {
+public class ACController implements AutoCloseable {
     // Source - https://stackoverflow.com/a
 // Posted by SimpleJack, modified by community. See post 'Timeline' for change history
 // Retrieved 2025-12-11, License - CC BY-SA 4.0
 
+    // Commands a supervisory loop typically writes at, below operators and life safety
+    public static final int DEFAULT_PRIORITY = 12;
+    // Updates to the same point within this window are merged into one write
+    private static final long COALESCE_WINDOW_MILLIS = 200;
+
+    private final WriteCoalescer writes;
+
+    public ACController(LocalDevice localDevice) {
+        this.writes = new WriteCoalescer(localDevice, COALESCE_WINDOW_MILLIS);
+    }
+
+    /**
+     * Command a setpoint (analog value or output) to {@code value}
+     */
+    public CompletableFuture<Void> setSetpoint(RemoteDevice device, ObjectIdentifier setpoint, float value) {
+        return setSetpoint(device, setpoint, value, DEFAULT_PRIORITY);
+    }
+
+    public CompletableFuture<Void> setSetpoint(RemoteDevice device, ObjectIdentifier setpoint, float value,
+                                               int priority) {
+        return writes.write(device, setpoint, PropertyIdentifier.presentValue, new Real(value), priority);
+    }
+
+    /**
+     * Command a multi-state point (fan speed, operating mode) to {@code state}, counting from 1
+     */
+    public CompletableFuture<Void> setState(RemoteDevice device, ObjectIdentifier point, int state, int priority) {
+        return writes.write(device, point, PropertyIdentifier.presentValue, new UnsignedInteger(state), priority);
+    }
+
+    /**
+     * Give up our command at {@code priority} so the next lower one (or the relinquish default) applies
+     */
+    public CompletableFuture<Void> release(RemoteDevice device, ObjectIdentifier point, int priority) {
+        return writes.write(device, point, PropertyIdentifier.presentValue, Null.instance, priority);
+    }
+
+    @Override
+    public void close() {
+        writes.close();
+    }
+
     public static void main(String[] args) throws Exception {
         // Grab your current local address
        BacnetPublicConnector connector = new BacnetPublicConnector();
        connector.start();
        //connector.connectToGateway("38.10.108.156");
+       //try (ACController controller = new ACController(connector.getLocalDevice())) {
+       //    controller.setSetpoint(device, new ObjectIdentifier(ObjectType.analogValue, 1), 22.5f).join();
+       //}
     }
 
 }
@@ -2,16 +2,10 @@ package org.example;
 
 import com.serotonin.bacnet4j.LocalDevice;
 import com.serotonin.bacnet4j.RemoteDevice;
-import com.serotonin.bacnet4j.event.DeviceEventAdapter;
 import com.serotonin.bacnet4j.exception.BACnetException;
 import com.serotonin.bacnet4j.service.confirmed.SubscribeCOVRequest;
-import com.serotonin.bacnet4j.type.Encodable;
-import com.serotonin.bacnet4j.type.constructed.PropertyValue;
-import com.serotonin.bacnet4j.type.constructed.SequenceOf;
 import com.serotonin.bacnet4j.type.enumerated.ObjectType;
-import com.serotonin.bacnet4j.type.enumerated.PropertyIdentifier;
 import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
-import com.serotonin.bacnet4j.type.primitive.Real;
 import com.serotonin.bacnet4j.type.primitive.UnsignedInteger;
 import com.serotonin.bacnet4j.type.primitive.Boolean;
 
@@ -21,73 +15,33 @@ import java.util.concurrent.Executors;
 public class BacnetCOVExample {
 
     private LocalDevice local;
+    private CovIngestionPipeline covPipeline;
     private final ExecutorService worker = Executors.newSingleThreadExecutor();
+    // Latest presentValue of every subscribed point
+    private final PointValueStore pointValues = new PointValueStore(1 << 16);
+    private final PointStoreCovWriter pointValueWriter = new PointStoreCovWriter(pointValues);
+    private final PointStoreCovPrinter pointValuePrinter = new PointStoreCovPrinter(pointValues);
+    // One console line per notification, from the decoded point value
+    private volatile boolean printCovNotifications = false;
 
 
 
     public void setupCOVListener() {
-        DeviceEventAdapter listener = new DeviceEventAdapter() {
-            @Override
-            public void covNotificationReceived(
-                    UnsignedInteger subscriberProcessIdentifier,
-                    ObjectIdentifier initiatingDeviceIdentifier,  // This is the device ObjectIdentifier, not RemoteDevice
-                    ObjectIdentifier monitoredObjectIdentifier,
-                    UnsignedInteger timeRemaining,
-                    SequenceOf<PropertyValue> listOfValues) {
-
-                System.out.println("\n🔔 COV NOTIFICATION RECEIVED!");
-                System.out.println("From Device: " + initiatingDeviceIdentifier);
-                System.out.println("Object: " + monitoredObjectIdentifier);
-                System.out.println("Subscription ID: " + subscriberProcessIdentifier);
-                System.out.println("Time Remaining: " + timeRemaining + " seconds");
-                System.out.println("Changed Properties:");
-
-                // Parse the changed values
-                for (PropertyValue pv : listOfValues) {
-                    PropertyIdentifier propId = pv.getPropertyIdentifier();
-                    Encodable value = pv.getValue();
-
-                    System.out.println("  " + propId + " = " + value);
-
-                    // Handle specific property types
-                    if (propId.equals(PropertyIdentifier.presentValue)) {
-                        if (value instanceof Real) {
-                            float floatVal = ((Real) value).floatValue();
-                            System.out.println("    → Float value: " + floatVal);
-                        } else if (value instanceof com.serotonin.bacnet4j.type.enumerated.BinaryPV) {
-                            com.serotonin.bacnet4j.type.enumerated.BinaryPV binaryVal =
-                                    (com.serotonin.bacnet4j.type.enumerated.BinaryPV) value;
-                            System.out.println("    → Binary value: " + binaryVal);
-                            System.out.println("    → Is Active: " + binaryVal.equals(
-                                    com.serotonin.bacnet4j.type.enumerated.BinaryPV.active));
-                        } else if (value instanceof UnsignedInteger) {
-                            int intVal = ((UnsignedInteger) value).intValue();
-                            System.out.println("    → Integer value: " + intVal);
-                        }
+        // The bacnet4j callback only enqueues; storing and printing run on the consumer.
+        // A single consumer keeps the console output in arrival order.
+        covPipeline = new CovIngestionPipeline(
+                local,
+                65536,
+                CovRingBuffer.OverflowPolicy.DROP_OLDEST,
+                1,
+                (event, endOfBatch) -> {
+                    pointValueWriter.onEvent(event, endOfBatch);
+                    if (printCovNotifications) {
+                        pointValuePrinter.onEvent(event, endOfBatch);
                     }
-
-                    if (propId.equals(PropertyIdentifier.statusFlags)) {
-                        System.out.println("    → Status: " + value);
-                    }
-                }
-
-                System.out.println("========================\n");
-
-                // If you need to get the RemoteDevice object
-                try {
-                    RemoteDevice device = local.getRemoteDevice(
-                            initiatingDeviceIdentifier.getInstanceNumber()
-                    ).get();
-                    if (device != null) {
-                        System.out.println("Device Name: " + device.getName());
-                    }
-                } catch (Exception e) {
-                    // Device might not be in cache
                 }
-            }
-        };
-
-        local.getEventHandler().addListener(listener);
+        );
+        covPipeline.start();
     }
 
     public void subscribeToObjects(RemoteDevice device) {
@@ -109,7 +63,7 @@ public class BacnetCOVExample {
                         new UnsignedInteger(0)  // lifetime: 0 = infinite
                 );
 
-                local.send(device, covRequest).get();
+                DeviceRequestSender.forLocal(local).send(device, covRequest);
                 System.out.println("✓ Subscribed to " + oid);
 
             } catch (BACnetException e) {
@@ -119,6 +73,18 @@ public class BacnetCOVExample {
     }
 
 
+    public void setPrintCovNotifications(boolean printCovNotifications) {
+        this.printCovNotifications = printCovNotifications;
+    }
+
+    public PointValueStore getPointValues() {
+        return pointValues;
+    }
+
+    public CovIngestionPipeline getCovPipeline() {
+        return covPipeline;
+    }
+
     public void setLocalDevice(LocalDevice local){
         this.local = local;
     }
@@ -3,7 +3,6 @@ package org.example;
 
 import com.serotonin.bacnet4j.LocalDevice;
 import com.serotonin.bacnet4j.RemoteDevice;
-import com.serotonin.bacnet4j.event.DeviceEventAdapter;
 import com.serotonin.bacnet4j.exception.BACnetException;
 import com.serotonin.bacnet4j.npdu.ip.IpNetwork;
 import com.serotonin.bacnet4j.npdu.ip.IpNetworkBuilder;
@@ -20,20 +19,49 @@ import com.serotonin.bacnet4j.type.enumerated.PropertyIdentifier;
 import com.serotonin.bacnet4j.type.primitive.Boolean;
 import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
 import com.serotonin.bacnet4j.type.primitive.OctetString;
-import com.serotonin.bacnet4j.service.unconfirmed.WhoIsRequest;
 import com.serotonin.bacnet4j.type.primitive.Real;
 import com.serotonin.bacnet4j.type.primitive.UnsignedInteger;
 
 import java.net.InetAddress;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
 
 public class BacnetDeviceDiscovery {
 
     private LocalDevice local;
-    private final ExecutorService worker =
-            Executors.newSingleThreadExecutor();
+    private CovIngestionPipeline covPipeline;
+    private DeviceRequestSender sender;
+    private CovSubscriptionManager covSubscriptions;
+    private CovReconciler covReconciler;
+    private SiteSnapshotReader snapshotReader;
+    private TrendLogHarvester trendLogs;
+    private PollingScheduler pollingScheduler;
+    private HedgingSender hedgingSender;
+    // Resend reads that are slower than the device's p95
+    private boolean hedgedReads = false;
+    // Analog points change constantly; unconfirmed COV saves an ack per change
+    private boolean unconfirmedAnalogCov = false;
+    // One console line per notification, from the decoded point value; for small sites
+    private volatile boolean printCovNotifications = false;
+    // At most 64 devices worked on at once, 8 per BACnet network
+    private final DeviceOrchestrator orchestrator =
+            new DeviceOrchestrator(64, 8);
+    private int pipelineWindow = 8;
+    // realistic for large systems
+    private List<SparseProbeEngine.ProbeRange> probeRanges =
+            SparseProbeEngine.defaultRanges(10000);
+    private final ObjectListCache objectListCache =
+            new ObjectListCache(Path.of("object-cache"));
+    // Latest presentValue of every point seen via COV or a read
+    private final PointValueStore pointValues = new PointValueStore(1 << 20);
+    private final PointStoreCovWriter pointValueWriter = new PointStoreCovWriter(pointValues);
+    private final PointStoreCovPrinter pointValuePrinter = new PointStoreCovPrinter(pointValues);
+
     public void start() throws Exception {
         IpNetworkBuilder builder = new IpNetworkBuilder()
                 .withLocalBindAddress("192.168.1.191")  // listen on all NICs
@@ -43,61 +71,60 @@ public class BacnetDeviceDiscovery {
 
         IpNetwork network = builder.build();
         DefaultTransport transport = new DefaultTransport(network);
-        transport.setTimeout(15000);
-
-        transport.setRetries(3);
+        // Per-device timeouts and retries are handled by DeviceRequestSender
+        DeviceRequestSender.leaveRetriesToSender(transport);
         transport.setSegTimeout(5000);
         transport.setSegWindow(10);
 
         local = new LocalDevice(234234, transport);
-
+        sender = DeviceRequestSender.forLocal(local);
+        covSubscriptions = new CovSubscriptionManager(local);
+        covReconciler = new CovReconciler(local, pointValues);
+        pollingScheduler = new PollingScheduler(local, pointValues);
+        hedgingSender = new HedgingSender(local);
+        snapshotReader = new SiteSnapshotReader(local);
+        snapshotReader.setSegmentationProfiles(objectListCache.getSegmentationProfiles());
+        trendLogs = new TrendLogHarvester(local, (device, log, firstSequence, records) ->
+                System.out.println("Trend " + device.getInstanceNumber() + " " + log + ": "
+                        + records.size() + " records from #" + firstSequence),
+                Path.of("object-cache", "trend-logs.txt"));
+        covReconciler.setSubscriptionManager(covSubscriptions);
+        covReconciler.setRepairListener((device, oid, reason, value) ->
+                System.out.println("⚠ Missed COV on device " + device.getInstanceNumber()
+                        + " " + oid + " (" + reason + "), now " + value));
 
         local.initialize();
+        covSubscriptions.start();
 
         System.out.println("Local BACnet device initialized on port 47808");
 
+        objectListCache.getSegmentationProfiles().setDefaultSegTimeoutMillis(transport.getSegTimeout());
+        objectListCache.load();
+        trendLogs.load();
+
     }
 
 
     private void enumerateByType(RemoteDevice d) {
+        try {
+            long start = System.currentTimeMillis();
 
-        ObjectType[] types = {
-                ObjectType.analogInput,
-                ObjectType.analogOutput,
-                ObjectType.analogValue,
-                ObjectType.binaryInput,
-                ObjectType.binaryOutput,
-                ObjectType.binaryValue,
-                ObjectType.multiStateInput,
-                ObjectType.multiStateOutput,
-                ObjectType.multiStateValue
-        };
-
-        int maxInstance = 10000; // realistic for large systems
-
-        for (ObjectType type : types) {
-            for (int i = 0; i < maxInstance; i++) {
-                try {
-                    ObjectIdentifier oid =
-                            new ObjectIdentifier(type, i);
-
-                    ReadPropertyRequest req =
-                            new ReadPropertyRequest(
-                                    oid,
-                                    PropertyIdentifier.objectName
-                            );
-
-                    ReadPropertyAck ack =
-                            local.send(d, req).get();
-
-                    System.out.println("FOUND: " + oid);
-
-                    Thread.sleep(50); // RATE LIMIT
+            List<ObjectIdentifier> found =
+                    new SparseProbeEngine(local).probe(d, probeRanges);
 
-                } catch (BACnetException e) {
-                    // object does not exist → ignore
-                } catch (InterruptedException ignored) {}
+            for (ObjectIdentifier oid : found) {
+                System.out.println("FOUND: " + oid);
             }
+            System.out.println(
+                    "Probe complete for device " + d.getInstanceNumber() + ": "
+                            + found.size() + " objects in "
+                            + (System.currentTimeMillis() - start) + "ms"
+            );
+
+        } catch (BACnetException e) {
+            System.err.println(
+                    "Probe FAILED for device " + d.getInstanceNumber() + ": " + e.getMessage()
+            );
         }
     }
 
@@ -118,7 +145,7 @@ public class BacnetDeviceDiscovery {
                     deviceOid,
                     PropertyIdentifier.objectName
             );
-            ReadPropertyAck ack = local.send(d, req).get();
+            ReadPropertyAck ack = sender.send(d, req);
             System.out.println("✓ SUCCESS: " + ack.getValue());
         } catch (Exception e) {
             System.out.println("✗ FAILED: " + e.getMessage());
@@ -134,7 +161,7 @@ public class BacnetDeviceDiscovery {
                     PropertyIdentifier.objectList,
                     UnsignedInteger.ZERO
             );
-            ReadPropertyAck ack = local.send(d, req).get();
+            ReadPropertyAck ack = sender.send(d, req);
             int size = ((UnsignedInteger) ack.getValue()).intValue();
             System.out.println("✓ SUCCESS: " + size + " objects");
         } catch (Exception e) {
@@ -151,7 +178,7 @@ public class BacnetDeviceDiscovery {
                     PropertyIdentifier.objectList,
                     new UnsignedInteger(1)
             );
-            ReadPropertyAck ack = local.send(d, req).get();
+            ReadPropertyAck ack = sender.send(d, req);
             ObjectIdentifier oid = (ObjectIdentifier) ack.getValue();
             System.out.println("✓ SUCCESS: " + oid);
         } catch (Exception e) {
@@ -160,35 +187,40 @@ public class BacnetDeviceDiscovery {
             return;
         }
 
-        // Test 4: Response timing
-        System.out.print("Test 4: Measuring response time for 10 requests... ");
-        long start = System.currentTimeMillis();
-        int successes = 0;
-        for (int i = 1; i <= 10; i++) {
-            try {
-                ReadPropertyRequest req = new ReadPropertyRequest(
-                        deviceOid,
-                        PropertyIdentifier.objectList,
-                        new UnsignedInteger(i)
-                );
-                local.send(d, req).get();
-                successes++;
-            } catch (Exception e) {
-                // Count failures
-            }
-        }
-        long elapsed = System.currentTimeMillis() - start;
-        System.out.println("✓ " + successes + "/10 succeeded in " + elapsed + "ms");
-        System.out.println("   Average: " + (elapsed / 10) + "ms per request");
+        // Health: every request sent to this device so far, not just the three above
+        RequestMetrics metrics = sender.getMetrics();
+        RequestMetrics.Snapshot health = metrics.snapshot(DeviceKey.of(d));
+        System.out.println("Health: " + health);
+        System.out.println("Rate:   " + sender.controllerFor(d));
+        System.out.println("RTO:    " + sender.rtoFor(d));
 
-        if (elapsed / 10 > 1000) {
-            System.out.println("⚠ Device is VERY slow to respond (>1s per request)");
+        long fleetP95 = medianP95(metrics.snapshotDevices());
+        if (health.p95Millis() > 1000) {
+            System.out.println("⚠ Device is VERY slow to respond (p95 " + health.p95Millis() + "ms)");
             System.out.println("   Reading full object list will take a long time.");
+        } else if (fleetP95 > 0 && health.p95Millis() > 3 * fleetP95) {
+            System.out.println("⚠ Device p95 is " + health.p95Millis() + "ms against "
+                    + fleetP95 + "ms for a typical device");
+        }
+        if (health.requests() > 0 && health.failures() * 10 > health.requests()) {
+            System.out.println("⚠ " + health.failures() + " of " + health.requests() + " requests failed");
+        }
+        if (health.segmentationAborts() > 0) {
+            System.out.println("⚠ " + health.segmentationAborts()
+                    + " requests aborted for size or segmentation");
         }
 
         System.out.println("=== END DIAGNOSTICS ===\n");
     }
 
+    private static long medianP95(List<RequestMetrics.Snapshot> devices) {
+        if (devices.isEmpty()) {
+            return 0;
+        }
+        // snapshotDevices() is sorted by p95, slowest first
+        return devices.get(devices.size() / 2).p95Millis();
+    }
+
 
 
 
@@ -208,56 +240,31 @@ public class BacnetDeviceDiscovery {
                     d.getInstanceNumber()
             );
 
-            ExecutorService batchExecutor = Executors.newFixedThreadPool(3);
-            List<Future<ObjectIdentifier>> futures = new ArrayList<>();
-
             int estimatedSize = 200; // Adjust this based on your device
 
             System.out.println("Attempting parallel batch read for ~" + estimatedSize + " objects...");
 
-            for (int i = 1; i <= estimatedSize; i++) {
-                final int index = i;
-
-                Future<ObjectIdentifier> future = batchExecutor.submit(() -> {
-                    try {
-                        ReadPropertyRequest itemReq = new ReadPropertyRequest(
-                                deviceOid,
-                                PropertyIdentifier.objectList,
-                                new UnsignedInteger(index)
-                        );
-
-                        ReadPropertyAck itemAck = local.send(d, itemReq).get();
-                        return (ObjectIdentifier) itemAck.getValue();
-
-                    } catch (Exception e) {
-                        return null;
-                    }
-                });
-
-                futures.add(future);
-
-                if (i % 10 == 0) {
-                    Thread.sleep(50);
-                }
-            }
-
-            // Collect results
-            int success = 0;
-            for (int i = 0; i < futures.size(); i++) {
-                try {
-                    Future<ObjectIdentifier> oid = futures.get(i);
-                    if (oid != null) {
-                        System.out.println("  [" + (i + 1) + "] " + oid);
-                        success++;
+            // Concurrency and pacing come from the device's rate controller
+            int[] success = {0};
+            new RequestPipeline(local, d, RequestPipeline.MAX_WINDOW).run(
+                    estimatedSize,
+                    i -> new ReadPropertyRequest(
+                            deviceOid,
+                            PropertyIdentifier.objectList,
+                            new UnsignedInteger(i + 1)
+                    ),
+                    (i, ack, error) -> {
+                        // Timeout or failed - skip
+                        if (error == null) {
+                            System.out.println("  [" + (i + 1) + "] "
+                                    + ((ReadPropertyAck) ack).getValue());
+                            success[0]++;
+                        }
                     }
-                } catch (Exception e) {
-                    // Timeout or failed - skip
-                }
-            }
-
-            batchExecutor.shutdownNow();
+            );
 
-            System.out.println("Batch read complete: " + success + " objects found");
+            System.out.println("  " + sender.controllerFor(d));
+            System.out.println("Batch read complete: " + success[0] + " objects found");
 
         } catch (Exception e) {
             System.err.println("Batch read failed: " + e.getMessage());
@@ -291,50 +298,72 @@ public class BacnetDeviceDiscovery {
                     );
 
             ReadPropertyAck sizeAck =
-                    local.send(d, sizeReq).get();
+                    sender.send(d, sizeReq);
 
             int size =
                     ((UnsignedInteger) sizeAck.getValue()).intValue();
 
             System.out.println("Total objects: " + size);
 
-            int success = 0;
-            int failed = 0;
-
-            // -------- read elements SLOWLY --------
-            for (int i = 1; i <= size; i++) {
+            int[] success = {0};
+            int[] failed = {0};
 
-                try {
-                    ReadPropertyRequest itemReq =
-                            new ReadPropertyRequest(
-                                    deviceOid,
-                                    PropertyIdentifier.objectList,
-                                    new UnsignedInteger(i)
+            // -------- read elements, pipelined --------
+            new RequestPipeline(local, d, pipelineWindow).run(
+                    size,
+                    i -> new ReadPropertyRequest(
+                            deviceOid,
+                            PropertyIdentifier.objectList,
+                            new UnsignedInteger(i + 1)
+                    ),
+                    (i, ack, error) -> {
+                        if (error == null) {
+                            ObjectIdentifier oid =
+                                    (ObjectIdentifier) ((ReadPropertyAck) ack).getValue();
+                            System.out.println("  [" + (i + 1) + "] " + oid);
+                            success[0]++;
+                        } else {
+                            failed[0]++;
+                            System.err.println(
+                                    "  [" + (i + 1) + "] timeout / unsupported"
                             );
+                        }
+                    }
+            );
 
-                    ReadPropertyAck itemAck =
-                            local.send(d, itemReq).get();
+            System.out.println(
+                    "Object-list complete: success="
+                            + success[0] + ", failed=" + failed[0]
+            );
 
-                    ObjectIdentifier oid =
-                            (ObjectIdentifier) itemAck.getValue();
+        } catch (Exception e) {
+            System.err.println(
+                    "Object-list FAILED for device "
+                            + d.getInstanceNumber()
+            );
+            e.printStackTrace();
+        }
+    }
 
-                    System.out.println("  [" + i + "] " + oid);
-                    success++;
 
-                } catch (BACnetException e) {
-                    failed++;
-                    System.err.println(
-                            "  [" + i + "] timeout / unsupported"
-                    );
-                }
 
-                // 🔥 RATE LIMIT (CRITICAL)
-                Thread.sleep(75);
-            }
+    /**
+     * Object list with names and units, served from the on-disk cache while the
+     * device's databaseRevision is unchanged
+     */
+    private void readObjectListCached(RemoteDevice d) {
+        try {
+            long start = System.currentTimeMillis();
+            List<ObjectMetadata> objects = objectListCache.getOrRead(local, d);
+            trendLogs.addLogs(d, objects.stream().map(ObjectMetadata::oid).toList());
 
+            for (ObjectMetadata object : objects) {
+                System.out.println("  " + object.oid() + " \"" + object.name() + "\"");
+            }
             System.out.println(
-                    "Object-list complete: success="
-                            + success + ", failed=" + failed
+                    "Object-list for device " + d.getInstanceNumber() + ": "
+                            + objects.size() + " objects in "
+                            + (System.currentTimeMillis() - start) + "ms"
             );
 
         } catch (Exception e) {
@@ -355,11 +384,24 @@ public class BacnetDeviceDiscovery {
                     propertyId
             );
 
-            ReadPropertyAck response = local.send(device, request).get();
+            ReadPropertyAck response = hedgedReads
+                    ? hedgingSender.send(device, request)
+                    : sender.send(device, request);
 
             // Get the value
             Encodable value = response.getValue();
 
+            // Only point values go in the store, keyed like COV updates under presentValue.
+            if (propertyId.equals(PropertyIdentifier.presentValue)) {
+                int slot = pointValues.slotFor(
+                        device.getInstanceNumber(), ObjectMetadata.pack(objectId), propertyId.intValue());
+                pointValues.writeEncodable(slot, value, PointValueStore.KEEP_FLAGS, System.currentTimeMillis());
+            } else if (propertyId.equals(PropertyIdentifier.statusFlags) && value instanceof StatusFlags flags) {
+                int slot = pointValues.slotFor(device.getInstanceNumber(), ObjectMetadata.pack(objectId),
+                        PropertyIdentifier.presentValue.intValue());
+                pointValues.writeFlags(slot, PointValueStore.toFlags(flags), System.currentTimeMillis());
+            }
+
             System.out.println("Property " + propertyId + " = " + value);
 
             // Cast to specific type if needed
@@ -392,138 +434,258 @@ public class BacnetDeviceDiscovery {
         System.out.println("Target: " + remoteIp + ":" + remotePort);
         System.out.println("Searching for devices...\n");
 
-        CountDownLatch latch = new CountDownLatch(1);
+        // Create address for the remote IP
+        byte[] ipBytes = InetAddress.getByName(remoteIp).getAddress();
+        OctetString mac = IpNetworkUtils.toOctetString(ipBytes, remotePort);
+        Address addr = new Address(mac);
 
-        // Add listener to capture I-Am responses
-        DeviceEventAdapter listener = new DeviceEventAdapter() {
-            @Override
-            public void iAmReceived(RemoteDevice d) {
-                System.out.println("┌─────────────────────────────────────────────");
-                System.out.println("│ DEVICE FOUND!");
-                System.out.println("├─────────────────────────────────────────────");
-                System.out.println("│ Device Instance: " + d.getInstanceNumber());
-                System.out.println("│ Address: " + d.getAddress());
-                System.out.println("│ Max APDU: " + d.getMaxAPDULengthAccepted());
-                System.out.println("│ Segmentation: " + d.getSegmentationSupported());
-                System.out.println("│ Vendor ID: " + d.getVendorIdentifier());
-
-                try {
-                    // Try to get more info
-                    //d.getExtendedDeviceInformation(local);
-                    System.out.println("│ Model Name: " + d.getModelName());
-                    System.out.println("│ Object Name: " + d.getName());
-                    //System.out.println("│ Description: " + d.getDescription());
-                    System.out.println("│ Vendor Name: " + d.getVendorName());
-                } catch (Exception e) {
-                    System.out.println("│ (Extended info not available)");
-                }
+        // Devices stream in as their I-Am arrives; each one is handed to the
+        // orchestrator right away. Completes after 3 s without a new device.
+        DeviceDiscoveryPublisher publisher = new DeviceDiscoveryPublisher(local, addr);
+        publisher.setQuietMillis(3000);
+        CompletableFuture<Integer> done = new CompletableFuture<>();
 
-                System.out.println("└─────────────────────────────────────────────\n");
+        System.out.println("Sending WHO-IS broadcast to " + remoteIp + ":" + remotePort);
+        publisher.subscribe(new Flow.Subscriber<>() {
+            private Flow.Subscription subscription;
+            private int found;
 
-                // ✅ NEVER BLOCK HERE
-                latch.countDown();
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(RemoteDevice d) {
+                found++;
+                printDevice(d);
 
                 // ✅ THIS is where readObjectListSafe is used
-                //worker.submit(() -> enumerateByType(d));
-                worker.submit(() -> {
+                //orchestrator.submit(d, (device, progress) -> enumerateByType(device));
+                orchestrator.submit(d, (device, progress) -> {
                             ObjectIdentifier analogInput = new ObjectIdentifier(ObjectType.analogInput, 6409);
-                            readProperty(d, analogInput, PropertyIdentifier.presentValue);
-                            subscribeToObjects(d);
-                            //diagnoseDevice(d);
-                            //readObjectListSafeAnthropic(d);
-                            //readObjectListSafe(d);
+                            progress.step("read presentValue");
+                            readProperty(device, analogInput, PropertyIdentifier.presentValue);
+                            progress.step("subscribe");
+                            subscribeToObjects(device);
+                            //diagnoseDevice(device);
+                            //readObjectListSafeAnthropic(device);
+                            //readObjectListSafe(device);
+                            //readObjectListCached(device);
                         }
                 );
+                subscription.request(1);
             }
-        };
 
-        local.getEventHandler().addListener(listener);
+            @Override
+            public void onError(Throwable throwable) {
+                done.completeExceptionally(throwable);
+            }
 
-        try {
-            // Create address for the remote IP
-            byte[] ipBytes = InetAddress.getByName(remoteIp).getAddress();
-            OctetString mac = IpNetworkUtils.toOctetString(ipBytes, remotePort);
-            Address addr = new Address(mac);
-
-            // Send WHO-IS to discover ALL devices at this address
-            // (no range specified = all devices)
-            WhoIsRequest whoIs = new WhoIsRequest();
-
-            System.out.println("Sending WHO-IS broadcast to " + remoteIp + ":" + remotePort);
-            local.send(addr, whoIs);
-
-            // Wait for responses
-            System.out.println("Listening for I-Am responses for 10 seconds...\n");
-            latch.await(10, TimeUnit.SECONDS);
-
-            // Check if any devices were found
-            /*if (local.getRemoteDevices().isEmpty()) {
-                System.out.println("❌ No devices responded.");
-                System.out.println("\nPossible reasons:");
-                System.out.println("1. Firewall blocking UDP port " + remotePort);
-                System.out.println("2. Device is offline or unreachable");
-                System.out.println("3. Device doesn't support WHO-IS requests");
-                System.out.println("4. Device requires BBMD registration");
-                System.out.println("5. Incorrect IP address");
-            } else {
-                System.out.println("✓ Discovery complete. Found " +
-                        local.getRemoteDevices().size() + " device(s)");
-            }*/
+            @Override
+            public void onComplete() {
+                done.complete(found);
+            }
+        });
+
+        int found = done.get();
+        if (found == 0) {
+            System.out.println("❌ No devices responded.");
+            System.out.println("\nPossible reasons:");
+            System.out.println("1. Firewall blocking UDP port " + remotePort);
+            System.out.println("2. Device is offline or unreachable");
+            System.out.println("3. Device doesn't support WHO-IS requests");
+            System.out.println("4. Device requires BBMD registration");
+            System.out.println("5. Incorrect IP address");
+        } else {
+            System.out.println("✓ Discovery complete. Found " + found + " device(s)");
+        }
+    }
 
-        } finally {
-            local.getEventHandler().removeListener(listener);
+    private void printDevice(RemoteDevice d) {
+        System.out.println("┌─────────────────────────────────────────────");
+        System.out.println("│ DEVICE FOUND!");
+        System.out.println("├─────────────────────────────────────────────");
+        System.out.println("│ Device Instance: " + d.getInstanceNumber());
+        System.out.println("│ Address: " + d.getAddress());
+        System.out.println("│ Max APDU: " + d.getMaxAPDULengthAccepted());
+        System.out.println("│ Segmentation: " + d.getSegmentationSupported());
+        System.out.println("│ Vendor ID: " + d.getVendorIdentifier());
+
+        try {
+            // Try to get more info
+            //d.getExtendedDeviceInformation(local);
+            System.out.println("│ Model Name: " + d.getModelName());
+            System.out.println("│ Object Name: " + d.getName());
+            //System.out.println("│ Description: " + d.getDescription());
+            System.out.println("│ Vendor Name: " + d.getVendorName());
+        } catch (Exception e) {
+            System.out.println("│ (Extended info not available)");
         }
+
+        System.out.println("└─────────────────────────────────────────────\n");
     }
 
     /**
-     * Try to discover a device by testing common device ID ranges
+     * Find every device at an address by sweeping the whole device instance
+     * range with ranged WHO-IS requests
      */
     public void bruteForceDeviceId(String remoteIp, int remotePort) throws Exception {
         System.out.println("\n=== Brute Force Device ID Search ===");
-        System.out.println("Testing common device ID ranges...\n");
-
-        // Common ranges to test
-        int[][] ranges = {
-                {1, 100},           // Very common for small installations
-                {100, 1000},        // Common commercial range
-                {1000, 10000},      // Larger installations
-                {100000, 100100},   // Some vendors use high numbers
-                {400000, 400100}    // Another common high range
-        };
+        System.out.println("Sweeping device instances 0 to " + WhoIsSweeper.MAX_INSTANCE + "...\n");
 
-        DeviceEventAdapter listener = new DeviceEventAdapter() {
-            @Override
-            public void iAmReceived(RemoteDevice d) {
-                System.out.println("✓ FOUND: Device Instance " + d.getInstanceNumber() +
-                        " at " + d.getAddress());
-            }
-        };
+        byte[] ipBytes = InetAddress.getByName(remoteIp).getAddress();
+        OctetString mac = IpNetworkUtils.toOctetString(ipBytes, remotePort);
+        Address addr = new Address(mac);
 
-        local.getEventHandler().addListener(listener);
+        WhoIsSweeper sweeper = new WhoIsSweeper(local, addr);
+        long start = System.currentTimeMillis();
+        Map<Integer, RemoteDevice> found = sweeper.sweep(d ->
+                System.out.println("✓ FOUND: Device Instance " + d.getInstanceNumber() +
+                        " at " + d.getAddress()));
 
-        try {
-            byte[] ipBytes = InetAddress.getByName(remoteIp).getAddress();
-            OctetString mac = IpNetworkUtils.toOctetString(ipBytes, remotePort);
-            Address addr = new Address(mac);
+        System.out.println("\nSearch complete: " + found.size() + " device(s) in "
+                + (System.currentTimeMillis() - start) + " ms, "
+                + sweeper.getWhoIsSent() + " WHO-IS sent, "
+                + sweeper.getRangesSplit() + " ranges split");
+    }
 
-            for (int[] range : ranges) {
-                System.out.println("Testing range " + range[0] + " to " + range[1] + "...");
+    /**
+     * Number of confirmed requests kept in flight per device while enumerating
+     */
+    public void setPipelineWindow(int pipelineWindow) {
+        this.pipelineWindow = pipelineWindow;
+    }
 
-                WhoIsRequest whoIs = new WhoIsRequest(range[0], range[1]);
-                local.send(addr, whoIs);
+    /**
+     * Print the current per-device send window and rate
+     */
+    public void printRateControllers() {
+        for (DeviceRateController controller : sender.getControllers()) {
+            System.out.println(controller);
+        }
+    }
 
-                Thread.sleep(2000); // Wait for responses
-            }
+    /**
+     * Print request latency and failures per service and per device, slowest device first
+     */
+    public void printRequestMetrics() {
+        RequestMetrics metrics = sender.getMetrics();
+        System.out.println(metrics.snapshotTotal());
+        for (RequestMetrics.Snapshot service : metrics.snapshotServices().values()) {
+            System.out.println("  " + service);
+        }
+        for (RequestMetrics.Snapshot device : metrics.snapshotDevices()) {
+            System.out.println("  " + device);
+        }
+    }
 
-            System.out.println("\nSearch complete.");
+    /**
+     * Print where each discovered device's workflow currently is
+     */
+    public void printDeviceProgress() {
+        for (DeviceOrchestrator.DeviceProgress progress : orchestrator.getProgress().values()) {
+            System.out.println(progress);
+        }
+    }
 
-        } finally {
-            local.getEventHandler().removeListener(listener);
+    /**
+     * Read names, units, present values and flags of every object on the
+     * devices, {@code parallelism} devices at a time, into columnar snapshots
+     */
+    public Map<Integer, DeviceSnapshot> snapshotDevices(Collection<RemoteDevice> devices, int parallelism)
+            throws InterruptedException {
+        long start = System.currentTimeMillis();
+        Map<Integer, DeviceSnapshot> snapshots = snapshotReader.readSite(devices, parallelism);
+
+        long objects = 0;
+        long bytes = snapshotReader.getStrings().estimatedBytes();
+        for (DeviceSnapshot snapshot : snapshots.values()) {
+            System.out.println("  " + snapshot);
+            objects += snapshot.size();
+            bytes += snapshot.estimatedBytes();
         }
+        System.out.println(
+                "Snapshot: " + snapshots.size() + "/" + devices.size() + " devices, "
+                        + objects + " objects in " + (System.currentTimeMillis() - start) + "ms, ~"
+                        + bytes / (1024 * 1024) + " MB"
+        );
+        System.out.println(snapshotReader);
+        return snapshots;
+    }
+
+    /**
+     * Pull the records added to every known trend log since the last harvest.
+     * Logs are found while reading object lists.
+     */
+    public void harvestTrendLogs() {
+        long start = System.currentTimeMillis();
+        long records = trendLogs.harvestAll(16);
+        System.out.println("Trend harvest: " + records + " records in "
+                + (System.currentTimeMillis() - start) + "ms");
+        System.out.println(trendLogs);
+    }
+
+    /**
+     * Object types and instance ranges searched on devices without a readable object-list
+     */
+    public void setProbeRanges(List<SparseProbeEngine.ProbeRange> probeRanges) {
+        this.probeRanges = probeRanges;
+    }
+
+    /**
+     * Poll a property of a point that can't be subscribed to. Results land in
+     * {@link #getPointValues()}.
+     */
+    public void pollProperty(RemoteDevice device, ObjectIdentifier objectId,
+                             PropertyIdentifier propertyId, long periodMillis) {
+        pollingScheduler.addPoint(device, objectId, propertyId, periodMillis);
+    }
+
+    /**
+     * Hedge single-property reads: a read not answered by the device's p95
+     * latency is sent once more, within a small per-device budget
+     */
+    public void setHedgedReads(boolean hedgedReads) {
+        this.hedgedReads = hedgedReads;
+    }
+
+    /**
+     * Subscribe analog objects with unconfirmed notifications. Missed updates
+     * are caught by periodic reconciliation reads.
+     */
+    public void setUnconfirmedAnalogCov(boolean unconfirmedAnalogCov) {
+        this.unconfirmedAnalogCov = unconfirmedAnalogCov;
+    }
+
+    public void setPrintCovNotifications(boolean printCovNotifications) {
+        this.printCovNotifications = printCovNotifications;
+    }
+
+    public PointValueStore getPointValues() {
+        return pointValues;
     }
 
     public void shutdown() {
-        worker.shutdownNow();
+        if (pollingScheduler != null) {
+            pollingScheduler.close();
+            System.out.println(pollingScheduler);
+        }
+        if (covReconciler != null) {
+            covReconciler.close();
+            System.out.println(covReconciler);
+        }
+        if (covSubscriptions != null) {
+            covSubscriptions.close();
+            System.out.println(covSubscriptions);
+        }
+        if (covPipeline != null) {
+            covPipeline.close();
+            System.out.println(covPipeline);
+        }
+        orchestrator.shutdown();
+        objectListCache.getSegmentationProfiles().flush();
         if (local != null) {
             local.terminate();
         }
@@ -563,55 +725,22 @@ public class BacnetDeviceDiscovery {
 
 
     public void setupCOVListener() {
-        DeviceEventAdapter listener = new DeviceEventAdapter() {
-            @Override
-            public void covNotificationReceived(
-                    UnsignedInteger subscriberProcessIdentifier,
-                    ObjectIdentifier initiatingDeviceIdentifier,  // This is the device ObjectIdentifier, not RemoteDevice
-                    ObjectIdentifier monitoredObjectIdentifier,
-                    UnsignedInteger timeRemaining,
-                    SequenceOf<PropertyValue> listOfValues) {
-
-                System.out.println("\n🔔 COV NOTIFICATION RECEIVED!");
-                System.out.println("From Device: " + initiatingDeviceIdentifier);
-                System.out.println("Object: " + monitoredObjectIdentifier);
-                System.out.println("Subscription ID: " + subscriberProcessIdentifier);
-                System.out.println("Time Remaining: " + timeRemaining + " seconds");
-                System.out.println("Changed Properties:");
-
-                // Parse the changed values
-                for (PropertyValue pv : listOfValues) {
-                    PropertyIdentifier propId = pv.getPropertyIdentifier();
-                    Encodable value = pv.getValue();
-
-                    System.out.println("  " + propId + " = " + value);
-
-                    // Handle specific property types
-                    if (propId.equals(PropertyIdentifier.presentValue)) {
-                        if (value instanceof Real) {
-                            float floatVal = ((Real) value).floatValue();
-                            System.out.println("    → Float value: " + floatVal);
-                        } else if (value instanceof com.serotonin.bacnet4j.type.enumerated.BinaryPV) {
-                            com.serotonin.bacnet4j.type.enumerated.BinaryPV binaryVal =
-                                    (com.serotonin.bacnet4j.type.enumerated.BinaryPV) value;
-                            System.out.println("    → Binary value: " + binaryVal);
-                            System.out.println("    → Is Active: " + binaryVal.equals(
-                                    com.serotonin.bacnet4j.type.enumerated.BinaryPV.active));
-                        } else if (value instanceof UnsignedInteger) {
-                            int intVal = ((UnsignedInteger) value).intValue();
-                            System.out.println("    → Integer value: " + intVal);
-                        }
-                    }
-
-                    if (propId.equals(PropertyIdentifier.statusFlags)) {
-                        System.out.println("    → Status: " + value);
+        // The bacnet4j callback only enqueues; storing and printing run on the consumer.
+        // A single consumer keeps the console output in arrival order.
+        covPipeline = new CovIngestionPipeline(
+                local,
+                65536,
+                CovRingBuffer.OverflowPolicy.DROP_OLDEST,
+                1,
+                (event, endOfBatch) -> {
+                    covSubscriptions.onEvent(event, endOfBatch);
+                    pointValueWriter.onEvent(event, endOfBatch);
+                    if (printCovNotifications) {
+                        pointValuePrinter.onEvent(event, endOfBatch);
                     }
                 }
-                System.out.println("========================\n");
-            }
-        };
-
-        local.getEventHandler().addListener(listener);
+        );
+        covPipeline.start();
     }
 
     public void subscribeToObjects(RemoteDevice device) {
@@ -627,22 +756,26 @@ public class BacnetDeviceDiscovery {
                 new ObjectIdentifier(ObjectType.analogValue, 1)*/
         };
 
-        int subscriptionId = 1;
-        for (ObjectIdentifier oid : objectsToMonitor) {
-            try {
-                SubscribeCOVRequest covRequest = new SubscribeCOVRequest(
-                        new UnsignedInteger(subscriptionId++),
-                        oid,
-                        Boolean.valueOf(true),      // confirmed notifications
-                        new UnsignedInteger(0)  // lifetime: 0 = infinite
-                );
-                System.out.println("✓ Subscribing to " + oid);
-                local.send(device, covRequest).get();
-                System.out.println("✓ Subscribed to " + oid);
+        // Subscribed concurrently with a finite lifetime; the manager renews them
+        System.out.println("✓ Subscribing to " + objectsToMonitor.length + " objects on device "
+                + device.getInstanceNumber());
+        if (!unconfirmedAnalogCov) {
+            covSubscriptions.subscribe(device, Arrays.asList(objectsToMonitor));
+            return;
+        }
 
-            } catch (BACnetException e) {
-                System.err.println("✗ Failed to subscribe to " + oid + ": " + e.getMessage());
+        List<ObjectIdentifier> analog = new ArrayList<>();
+        List<ObjectIdentifier> other = new ArrayList<>();
+        for (ObjectIdentifier oid : objectsToMonitor) {
+            ObjectType type = oid.getObjectType();
+            if (type.equals(ObjectType.analogInput) || type.equals(ObjectType.analogOutput)
+                    || type.equals(ObjectType.analogValue)) {
+                analog.add(oid);
+            } else {
+                other.add(oid);
             }
         }
+        covSubscriptions.subscribe(device, other, analog);
+        covReconciler.track(device, analog);
     }
 }
\ No newline at end of file
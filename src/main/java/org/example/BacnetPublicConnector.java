@@ -2,6 +2,11 @@ package org.example;
 
 import com.serotonin.bacnet4j.LocalDevice;
 import com.serotonin.bacnet4j.RemoteDevice;
+import com.serotonin.bacnet4j.ResponseConsumer;
+import com.serotonin.bacnet4j.apdu.AckAPDU;
+import com.serotonin.bacnet4j.event.DeviceEventAdapter;
+import com.serotonin.bacnet4j.exception.BACnetException;
+import com.serotonin.bacnet4j.service.acknowledgement.AcknowledgementService;
 import com.serotonin.bacnet4j.npdu.ip.IpNetwork;
 import com.serotonin.bacnet4j.npdu.ip.IpNetworkBuilder;
 import com.serotonin.bacnet4j.npdu.ip.IpNetworkUtils;
@@ -15,10 +20,33 @@ import com.serotonin.bacnet4j.type.enumerated.ObjectType;
 import com.serotonin.bacnet4j.service.unconfirmed.WhoIsRequest;
 
 import java.net.InetAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 public class BacnetPublicConnector {
 
+    private static final long MIN_HEDGE_DELAY_MILLIS = 200;
+    private static final long MAX_HEDGE_DELAY_MILLIS = 3000;
+    private static final long CONNECT_TIMEOUT_MILLIS = 15000;
+    // How long an I-Am may still arrive after the direct read has failed
+    private static final long IAM_DEADLINE_MILLIS = 5000;
+
+    private static final ScheduledExecutorService HEDGE_TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "gateway-connect-hedge");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final ExecutorService CONNECT_EXECUTOR = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("gateway-connect-", 0).factory());
+
     private LocalDevice local;
+    // Smoothed time from WHO-IS to the matching I-Am
+    private volatile double iAmLatencyMillis = 300;
 
 
     public void start() throws Exception {
@@ -30,78 +58,180 @@ public class BacnetPublicConnector {
                 .withReuseAddress(true);
 
         IpNetwork network = builder.build();
-        local = new LocalDevice(234234, new DefaultTransport(network));
+        DefaultTransport transport = new DefaultTransport(network);
+        DeviceRequestSender.leaveRetriesToSender(transport);
+        local = new LocalDevice(234234, transport);
         local.initialize();
 
         System.out.println("Local BACnet device initialized on port 47808");
     }
 
     public RemoteDevice connectToGateway(String publicIp, int remotePort, int deviceInstanceNumber) throws Exception {
-
-        // Create remote address for the public IP
-        byte[] ipBytes = InetAddress.getByName(publicIp).getAddress();
-        OctetString mac = IpNetworkUtils.toOctetString(ipBytes, remotePort);
-        Address addr = new Address(mac);
-
         System.out.println("Attempting to connect to: " + publicIp + ":" + remotePort);
-        System.out.println("Looking for device instance: " + deviceInstanceNumber);
-
-        // Create WhoIsRequest for the specific device
-        WhoIsRequest whoIs = new WhoIsRequest(deviceInstanceNumber, deviceInstanceNumber);
-
-        // Send WHO-IS directly to the remote address
-        local.send(addr, whoIs);
-
-        System.out.println("WHO-IS sent, waiting for I-Am response...");
+        return await(connectToGatewayAsync(publicIp, remotePort, deviceInstanceNumber));
+    }
 
-        // Wait for device to respond with I-Am
-        Thread.sleep(3000);
+    /**
+     * Connect to a gateway through the local device of its shard, so many
+     * gateways can be connected and used in parallel
+     */
+    public RemoteDevice connectToGateway(GatewayConnectionManager.Gateway gateway, int deviceInstanceNumber)
+            throws Exception {
+        System.out.println("Attempting to connect to: " + gateway);
+        return await(connectToGatewayAsync(gateway, deviceInstanceNumber));
+    }
 
-        // Try to get the remote device from cache (it should be there if I-Am was received)
-        RemoteDevice discovered = local.getCachedRemoteDevice(deviceInstanceNumber);
+    /**
+     * Completes as soon as the device's I-Am arrives. If it hasn't after a
+     * short delay (a few times the I-Am latency seen so far), a direct
+     * objectName read is raced against it and whichever answers first wins.
+     * Only an I-Am from the gateway's address counts. If the direct read
+     * fails, the connect fails with its error once the I-Am deadline has
+     * passed as well.
+     */
+    public CompletableFuture<RemoteDevice> connectToGatewayAsync(String publicIp, int remotePort,
+                                                                 int deviceInstanceNumber) {
+        try {
+            // Create remote address for the public IP
+            byte[] ipBytes = InetAddress.getByName(publicIp).getAddress();
+            OctetString mac = IpNetworkUtils.toOctetString(ipBytes, remotePort);
+            return connect(local, new Address(mac), deviceInstanceNumber);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 
-        if (discovered != null) {
-            System.out.println("Device discovered via WHO-IS/I-Am exchange!");
+    public CompletableFuture<RemoteDevice> connectToGatewayAsync(GatewayConnectionManager.Gateway gateway,
+                                                                 int deviceInstanceNumber) {
+        return connect(gateway.getLocalDevice(), gateway.getAddress(), deviceInstanceNumber);
+    }
 
-            // Get extended information
-            //discovered.getExtendedDeviceInformation(local);
+    private CompletableFuture<RemoteDevice> connect(LocalDevice local, Address addr, int deviceInstanceNumber) {
+        CompletableFuture<RemoteDevice> result = new CompletableFuture<>();
 
+        // Already known from an earlier I-Am, unless that came from a different address
+        RemoteDevice cached = local.getCachedRemoteDevice(deviceInstanceNumber);
+        if (cached != null && addr.equals(cached.getAddress())) {
+            result.complete(cached);
+            return result;
+        }
 
-            System.out.println("Device: " + discovered);
-            System.out.println("Model Name: " + discovered.getModelName());
-            System.out.println("Vendor: " + discovered.getVendorName());
+        long start = System.nanoTime();
+        long iAmDeadline = start + TimeUnit.MILLISECONDS.toNanos(IAM_DEADLINE_MILLIS);
+        DeviceEventAdapter listener = new DeviceEventAdapter() {
+            @Override
+            public void iAmReceived(RemoteDevice d) {
+                // Instance numbers are only unique per site; the same one may answer from another gateway
+                if (d.getInstanceNumber() == deviceInstanceNumber && addr.equals(d.getAddress())
+                        && result.complete(d)) {
+                    recordIAmLatency(System.nanoTime() - start);
+                    System.out.println("Device " + deviceInstanceNumber + " discovered via WHO-IS/I-Am exchange!");
+                }
+            }
+        };
+        local.getEventHandler().addListener(listener);
+
+        // Send WHO-IS for the specific device directly to the remote address
+        local.send(addr, new WhoIsRequest(deviceInstanceNumber, deviceInstanceNumber));
+
+        ScheduledFuture<?> hedge = HEDGE_TIMER.schedule(
+                () -> CONNECT_EXECUTOR.execute(() -> readDirect(local, addr, deviceInstanceNumber, iAmDeadline, result)),
+                hedgeDelayMillis(),
+                TimeUnit.MILLISECONDS
+        );
+
+        // Whichever side loses is dropped: the listener goes, a pending hedge
+        // never starts, and a late direct-read response is ignored.
+        result.orTimeout(CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        result.whenComplete((d, e) -> {
+            local.getEventHandler().removeListener(listener);
+            hedge.cancel(false);
+        });
+        return result;
+    }
 
-            return discovered;
-        } else {
-            // If WHO-IS didn't work, try direct communication
-            System.out.println("WHO-IS/I-Am failed, attempting direct communication...");
+    private void readDirect(LocalDevice local, Address addr, int deviceInstanceNumber, long iAmDeadline,
+                            CompletableFuture<RemoteDevice> result) {
+        if (result.isDone()) {
+            return;
+        }
+        System.out.println("No I-Am from " + deviceInstanceNumber + " yet, attempting direct communication...");
 
-            // Create remote device manually
-            RemoteDevice remote = new RemoteDevice(local, deviceInstanceNumber, addr);
+        // Create remote device manually
+        RemoteDevice remote = new RemoteDevice(local, deviceInstanceNumber, addr);
 
-            try {
-                // Try to read device object name to verify connection
-                ReadPropertyRequest request = new ReadPropertyRequest(
-                        new ObjectIdentifier(ObjectType.device, deviceInstanceNumber),
-                        PropertyIdentifier.objectName
-                );
+        // Try to read device object name to verify connection
+        ReadPropertyRequest request = new ReadPropertyRequest(
+                new ObjectIdentifier(ObjectType.device, deviceInstanceNumber),
+                PropertyIdentifier.objectName
+        );
 
-                local.send(remote, request).get();
+        // Sent once, as HedgingSender does for its hedge: retransmits would keep
+        // hitting the gateway after an I-Am has already completed the connect.
+        try {
+            DeviceRequestSender.forLocal(local).sendOnceAsync(remote, request, new ResponseConsumer() {
+                @Override
+                public void success(AcknowledgementService ack) {
+                    if (result.complete(remote)) {
+                        System.out.println("Direct communication with " + deviceInstanceNumber + " successful!");
+                    }
+                }
+
+                @Override
+                public void fail(AckAPDU ack) {
+                    System.err.println("Direct read of " + deviceInstanceNumber + " rejected: " + ack);
+                    failAfter(iAmDeadline, result, DeviceRequestSender.toException(ack));
+                }
+
+                @Override
+                public void ex(BACnetException e) {
+                    System.err.println("Direct read of " + deviceInstanceNumber + " failed: " + e.getMessage());
+                    failAfter(iAmDeadline, result, e);
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-                System.out.println("Direct communication successful!");
+    /** Fails the connect with the direct read's error, once an I-Am is no longer expected. */
+    private static void failAfter(long iAmDeadline, CompletableFuture<RemoteDevice> result, BACnetException e) {
+        long remaining = iAmDeadline - System.nanoTime();
+        if (remaining <= 0) {
+            result.completeExceptionally(e);
+        } else {
+            HEDGE_TIMER.schedule(() -> result.completeExceptionally(e), remaining, TimeUnit.NANOSECONDS);
+        }
+    }
 
-                // Get extended information
+    private RemoteDevice await(CompletableFuture<RemoteDevice> future) throws Exception {
+        try {
+            RemoteDevice device = future.get();
+            System.out.println("Device: " + device);
+            System.out.println("Model Name: " + device.getModelName());
+            System.out.println("Vendor: " + device.getVendorName());
+            return device;
+        } catch (ExecutionException e) {
+            System.err.println("Failed to establish connection: " + e.getCause());
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
 
-                System.out.println("Device: " + remote);
-                System.out.println("Model Name: " + remote.getModelName());
+    private void recordIAmLatency(long nanos) {
+        double millis = nanos / 1e6;
+        iAmLatencyMillis = iAmLatencyMillis * 0.8 + millis * 0.2;
+    }
 
-                return remote;
+    /** A few typical I-Am round trips, so the hedge only fires when the I-Am is really late. */
+    private long hedgeDelayMillis() {
+        return Math.max(MIN_HEDGE_DELAY_MILLIS, Math.min(MAX_HEDGE_DELAY_MILLIS, (long) (iAmLatencyMillis * 3)));
+    }
 
-            } catch (Exception e) {
-                System.err.println("Failed to establish connection: " + e.getMessage());
-                throw e;
-            }
-        }
+    public LocalDevice getLocalDevice() {
+        return local;
     }
 
     public void shutdown() {
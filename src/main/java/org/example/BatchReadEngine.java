@@ -0,0 +1,359 @@
+package org.example;
+
+import com.serotonin.bacnet4j.LocalDevice;
+import com.serotonin.bacnet4j.RemoteDevice;
+import com.serotonin.bacnet4j.apdu.Abort;
+import com.serotonin.bacnet4j.exception.AbortAPDUException;
+import com.serotonin.bacnet4j.exception.BACnetErrorException;
+import com.serotonin.bacnet4j.exception.BACnetException;
+import com.serotonin.bacnet4j.exception.BACnetTimeoutException;
+import com.serotonin.bacnet4j.exception.ErrorAPDUException;
+import com.serotonin.bacnet4j.exception.RejectAPDUException;
+import com.serotonin.bacnet4j.service.acknowledgement.AcknowledgementService;
+import com.serotonin.bacnet4j.service.acknowledgement.ReadPropertyAck;
+import com.serotonin.bacnet4j.service.acknowledgement.ReadPropertyMultipleAck;
+import com.serotonin.bacnet4j.service.confirmed.ConfirmedRequestService;
+import com.serotonin.bacnet4j.service.confirmed.ReadPropertyMultipleRequest;
+import com.serotonin.bacnet4j.service.confirmed.ReadPropertyRequest;
+import com.serotonin.bacnet4j.type.Encodable;
+import com.serotonin.bacnet4j.type.constructed.ObjectPropertyReference;
+import com.serotonin.bacnet4j.type.constructed.PropertyReference;
+import com.serotonin.bacnet4j.type.constructed.ReadAccessResult;
+import com.serotonin.bacnet4j.type.constructed.ReadAccessSpecification;
+import com.serotonin.bacnet4j.type.constructed.SequenceOf;
+import com.serotonin.bacnet4j.type.enumerated.AbortReason;
+import com.serotonin.bacnet4j.type.enumerated.ErrorClass;
+import com.serotonin.bacnet4j.type.enumerated.ErrorCode;
+import com.serotonin.bacnet4j.type.enumerated.RejectReason;
+import com.serotonin.bacnet4j.type.enumerated.Segmentation;
+import com.serotonin.bacnet4j.type.error.ErrorClassAndCode;
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads many properties from one device by packing the references into
+ * ReadPropertyMultiple requests sized to the device's max APDU and
+ * segmentation support.
+ * <p>
+ * The response budget is tracked per device: it is halved whenever the device
+ * aborts or rejects a request as too large and grows back while reads succeed.
+ * Devices that don't implement ReadPropertyMultiple are read one reference at
+ * a time with ReadProperty; a device that keeps aborting even single-reference
+ * requests for other reasons is read that way for a few minutes, then RPM is
+ * tried again.
+ * <p>
+ * There is one engine per {@link LocalDevice}, so what is learned about a
+ * device is shared by every reader; use {@link #forLocal}.
+ * <p>
+ * Results come back in request order. A reference that could not be read is
+ * returned as an {@link ErrorClassAndCode}, the same way bacnet4j reports
+ * per-reference errors in an RPM ack.
+ */
+public final class BatchReadEngine {
+
+    /** Encoded size of one object-list element in an RPM ack (property, index, object id and tags). */
+    public static final int OBJECT_LIST_RESULT_BYTES = 12;
+
+    /** Conservative estimate for a result whose value size is unknown up front. */
+    public static final int DEFAULT_RESULT_BYTES = 24;
+
+    private static final int APDU_OVERHEAD_BYTES = 16;
+    private static final int REQUEST_REFERENCE_BYTES = 5;
+    private static final int SEGMENTED_RESPONSE_FACTOR = 8;
+    /** Aborts in a row, not about size, before RPM is given a rest. */
+    private static final int MAX_ABORT_STREAK = 3;
+    private static final long RPM_SUSPEND_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    private static final Map<LocalDevice, BatchReadEngine> ENGINES =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final DeviceRequestSender sender;
+    private final Map<DeviceKey, DeviceBudget> budgets = new ConcurrentHashMap<>();
+    private volatile HedgingSender hedgingSender;
+
+    private BatchReadEngine(LocalDevice localDevice) {
+        this.sender = DeviceRequestSender.forLocal(localDevice);
+    }
+
+    public static BatchReadEngine forLocal(LocalDevice localDevice) {
+        return ENGINES.computeIfAbsent(localDevice, BatchReadEngine::new);
+    }
+
+    public List<Encodable> read(RemoteDevice remoteDevice, List<ObjectPropertyReference> refs)
+            throws BACnetException {
+        return read(remoteDevice, refs, DEFAULT_RESULT_BYTES);
+    }
+
+    /**
+     * Reads all {@code refs} and returns one value (or {@link ErrorClassAndCode})
+     * per reference, in the same order.
+     *
+     * @param resultBytes estimated encoded size of one result in the ack
+     */
+    public List<Encodable> read(
+            RemoteDevice remoteDevice,
+            List<ObjectPropertyReference> refs,
+            int resultBytes
+    ) throws BACnetException {
+
+        Encodable[] results = new Encodable[refs.size()];
+        DeviceBudget budget = budgetFor(remoteDevice);
+
+        int from = 0;
+        while (from < refs.size()) {
+            if (budget.readPropertyOnly(System.nanoTime())) {
+                readSingle(remoteDevice, refs, from, results);
+                from++;
+                continue;
+            }
+
+            int batch = Math.min(budget.batchSize(resultBytes), refs.size() - from);
+            List<ObjectPropertyReference> chunk = refs.subList(from, from + batch);
+
+            ReadPropertyMultipleRequest request = toRequest(chunk);
+            try {
+                ReadPropertyMultipleAck ack =
+                        sendRead(remoteDevice, request, batch * resultBytes + APDU_OVERHEAD_BYTES);
+                copyResults(ack, results, from, batch);
+                budget.grow(resultBytes);
+                from += batch;
+
+            } catch (AbortAPDUException e) {
+                retried(remoteDevice, request);
+                if (isSizeAbort(e.getApdu())) {
+                    if (batch > 1) {
+                        budget.shrink(batch, resultBytes);
+                    } else {
+                        // This one value is too big for an RPM response; others may not be.
+                        readSingle(remoteDevice, refs, from, results);
+                        from++;
+                    }
+                } else {
+                    // Busy, preempted or a TSM problem: says nothing about size, so retry as is.
+                    budget.onAbort(System.nanoTime());
+                }
+
+            } catch (RejectAPDUException e) {
+                RejectReason reason = e.getApdu().getRejectReason();
+                if (RejectReason.unrecognizedService.equals(reason) || batch == 1) {
+                    budget.rpmUnsupported = true;
+                    retried(remoteDevice, request);
+                } else {
+                    budget.shrink(batch, resultBytes);
+                    retried(remoteDevice, request);
+                }
+
+            } catch (ErrorAPDUException e) {
+                // An Error PDU for an RPM means none of the references could be read.
+                fill(results, from, batch, e.getError());
+                from += batch;
+
+            } catch (BACnetTimeoutException e) {
+                if (batch == 1) {
+                    fill(results, from, 1, timeoutError());
+                    from++;
+                } else {
+                    // A lost segment or an oversized response looks like a timeout too.
+                    budget.shrink(batch, resultBytes);
+                    retried(remoteDevice, request);
+                }
+            }
+        }
+
+        return Arrays.asList(results);
+    }
+
+    /** The number of references the next batch for this device would carry. */
+    public int currentBatchSize(RemoteDevice remoteDevice, int resultBytes) {
+        return budgetFor(remoteDevice).batchSize(resultBytes);
+    }
+
+    /** Send reads through {@code hedgingSender} to cut tail latency on slow devices; null turns it off. */
+    public void setHedgingSender(HedgingSender hedgingSender) {
+        this.hedgingSender = hedgingSender;
+    }
+
+    public static boolean isError(Encodable value) {
+        return value == null || value instanceof ErrorClassAndCode;
+    }
+
+    // --------------------------------------------------------------------
+
+    private void readSingle(
+            RemoteDevice remoteDevice,
+            List<ObjectPropertyReference> refs,
+            int index,
+            Encodable[] results
+    ) throws BACnetException {
+
+        ObjectPropertyReference ref = refs.get(index);
+        ReadPropertyRequest request = ref.getPropertyArrayIndex() == null
+                ? new ReadPropertyRequest(ref.getObjectIdentifier(), ref.getPropertyIdentifier())
+                : new ReadPropertyRequest(ref.getObjectIdentifier(), ref.getPropertyIdentifier(),
+                        ref.getPropertyArrayIndex());
+
+        try {
+            ReadPropertyAck ack = sendRead(remoteDevice, request, 0);
+            results[index] = ack.getValue();
+        } catch (ErrorAPDUException e) {
+            results[index] = e.getError();
+        } catch (BACnetErrorException e) {
+            results[index] = e.getBacnetError();
+        } catch (BACnetTimeoutException e) {
+            results[index] = timeoutError();
+        }
+    }
+
+    /**
+     * A response expected to be segmented is sent with a timeout long enough
+     * for its segments, and not hedged: a second copy would double the
+     * transfer, and the hedge delay is learned from short reads.
+     */
+    private <T extends AcknowledgementService> T sendRead(
+            RemoteDevice remoteDevice,
+            ConfirmedRequestService request,
+            int responseBytes
+    ) throws BACnetException {
+        long minTimeout = responseBytes > 0 ? sender.segmentedTimeoutMillis(remoteDevice, responseBytes) : 0;
+        HedgingSender hedging = hedgingSender;
+        return hedging != null && minTimeout == 0
+                ? hedging.send(remoteDevice, request)
+                : sender.send(remoteDevice, request, minTimeout);
+    }
+
+    /** The same references are about to go out again, smaller or as ReadProperty. */
+    private void retried(RemoteDevice remoteDevice, ConfirmedRequestService request) {
+        sender.getMetrics().recordRetry(DeviceKey.of(remoteDevice), request);
+    }
+
+    private static ReadPropertyMultipleRequest toRequest(List<ObjectPropertyReference> chunk) {
+        SequenceOf<ReadAccessSpecification> specs = new SequenceOf<>();
+
+        ObjectIdentifier current = null;
+        List<PropertyReference> props = new ArrayList<>();
+        for (ObjectPropertyReference ref : chunk) {
+            if (current != null && !current.equals(ref.getObjectIdentifier())) {
+                specs.add(new ReadAccessSpecification(current, new SequenceOf<>(props)));
+                props = new ArrayList<>();
+            }
+            current = ref.getObjectIdentifier();
+            props.add(new PropertyReference(ref.getPropertyIdentifier(), ref.getPropertyArrayIndex()));
+        }
+        specs.add(new ReadAccessSpecification(current, new SequenceOf<>(props)));
+
+        return new ReadPropertyMultipleRequest(specs);
+    }
+
+    private static void copyResults(
+            ReadPropertyMultipleAck ack,
+            Encodable[] results,
+            int from,
+            int count
+    ) {
+        // RPM acks list results in request order, so they map back by position.
+        int i = from;
+        for (ReadAccessResult access : ack.getListOfReadAccessResults()) {
+            for (ReadAccessResult.Result result : access.getListOfResults()) {
+                if (i < from + count) {
+                    results[i++] = result.getReadResult().getDatum();
+                }
+            }
+        }
+        if (i < from + count) {
+            fill(results, i, from + count - i,
+                    new ErrorClassAndCode(ErrorClass.services, ErrorCode.other));
+        }
+    }
+
+    private static void fill(Encodable[] results, int from, int count, Encodable value) {
+        Arrays.fill(results, from, from + count, value);
+    }
+
+    private static ErrorClassAndCode timeoutError() {
+        return new ErrorClassAndCode(ErrorClass.communication, ErrorCode.timeout);
+    }
+
+    private static boolean isSizeAbort(Abort abort) {
+        int reason = abort.getAbortReason();
+        return reason == AbortReason.segmentationNotSupported.intValue()
+                || reason == AbortReason.bufferOverflow.intValue()
+                || reason == AbortReason.apduTooLong.intValue()
+                || reason == AbortReason.windowSizeOutOfRange.intValue()
+                || reason == AbortReason.outOfResources.intValue();
+    }
+
+    private DeviceBudget budgetFor(RemoteDevice remoteDevice) {
+        return budgets.computeIfAbsent(
+                DeviceKey.of(remoteDevice),
+                k -> DeviceBudget.of(remoteDevice)
+        );
+    }
+
+    // --------------------------------------------------------------------
+
+    /**
+     * Response-size budget for one device, in bytes. Working in bytes lets
+     * object-list reads and larger property reads share what was learned.
+     */
+    static final class DeviceBudget {
+
+        private final int ceiling;
+        private final int requestCeiling;
+        private int bytes;
+        private int abortStreak;
+        private long rpmSuspendedUntil;
+        volatile boolean rpmUnsupported;
+
+        static DeviceBudget of(RemoteDevice remoteDevice) {
+            Segmentation seg = remoteDevice.getSegmentationSupported();
+            return new DeviceBudget(
+                    remoteDevice.getMaxAPDULengthAccepted(),
+                    Segmentation.segmentedBoth.equals(seg) || Segmentation.segmentedTransmit.equals(seg),
+                    Segmentation.segmentedBoth.equals(seg) || Segmentation.segmentedReceive.equals(seg)
+            );
+        }
+
+        DeviceBudget(int maxApdu, boolean segmentedResponses, boolean segmentedRequests) {
+            int apduPayload = Math.max(50, maxApdu) - APDU_OVERHEAD_BYTES;
+            this.ceiling = segmentedResponses ? apduPayload * SEGMENTED_RESPONSE_FACTOR : apduPayload;
+            this.requestCeiling = segmentedRequests
+                    ? Integer.MAX_VALUE
+                    : apduPayload / REQUEST_REFERENCE_BYTES;
+            // Start inside a single APDU even when the device can segment.
+            this.bytes = apduPayload;
+        }
+
+        synchronized int batchSize(int resultBytes) {
+            return Math.max(1, Math.min(requestCeiling, bytes / resultBytes));
+        }
+
+        synchronized void grow(int resultBytes) {
+            bytes = Math.min(ceiling, bytes + Math.max(resultBytes, bytes / 4));
+            abortStreak = 0;
+        }
+
+        synchronized void shrink(int failedBatch, int resultBytes) {
+            bytes = Math.max(resultBytes, failedBatch * resultBytes / 2);
+        }
+
+        /** An abort that wasn't about size; a few in a row rest RPM for a while. */
+        synchronized void onAbort(long nowNanos) {
+            if (++abortStreak >= MAX_ABORT_STREAK) {
+                abortStreak = 0;
+                rpmSuspendedUntil = nowNanos + RPM_SUSPEND_NANOS;
+            }
+        }
+
+        synchronized boolean readPropertyOnly(long nowNanos) {
+            return rpmUnsupported || (rpmSuspendedUntil != 0 && nowNanos - rpmSuspendedUntil < 0);
+        }
+    }
+}
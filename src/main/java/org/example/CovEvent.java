@@ -0,0 +1,69 @@
+package org.example;
+
+import com.serotonin.bacnet4j.type.constructed.PropertyValue;
+import com.serotonin.bacnet4j.type.constructed.SequenceOf;
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+
+/**
+ * One COV notification as captured on the transport thread: the identifiers,
+ * the still-undecoded value list and the arrival time.
+ * <p>
+ * Instances are pre-allocated slots owned by a {@link CovRingBuffer} and are
+ * reused, so handlers must copy anything they want to keep past
+ * {@link CovEventHandler#onEvent}.
+ */
+public final class CovEvent {
+
+    int deviceInstance;
+    ObjectIdentifier monitoredObject;
+    long subscriberProcessId;
+    long timeRemaining;
+    long receivedAtNanos;
+    SequenceOf<PropertyValue> values;
+
+    void set(
+            int deviceInstance,
+            ObjectIdentifier monitoredObject,
+            long subscriberProcessId,
+            long timeRemaining,
+            SequenceOf<PropertyValue> values,
+            long receivedAtNanos
+    ) {
+        this.deviceInstance = deviceInstance;
+        this.monitoredObject = monitoredObject;
+        this.subscriberProcessId = subscriberProcessId;
+        this.timeRemaining = timeRemaining;
+        this.values = values;
+        this.receivedAtNanos = receivedAtNanos;
+    }
+
+    void clear() {
+        monitoredObject = null;
+        values = null;
+    }
+
+    public int getDeviceInstance() {
+        return deviceInstance;
+    }
+
+    public ObjectIdentifier getMonitoredObject() {
+        return monitoredObject;
+    }
+
+    public long getSubscriberProcessId() {
+        return subscriberProcessId;
+    }
+
+    public long getTimeRemaining() {
+        return timeRemaining;
+    }
+
+    /** {@link System#nanoTime()} when the notification reached the listener. */
+    public long getReceivedAtNanos() {
+        return receivedAtNanos;
+    }
+
+    public SequenceOf<PropertyValue> getValues() {
+        return values;
+    }
+}
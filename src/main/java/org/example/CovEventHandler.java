@@ -0,0 +1,16 @@
+package org.example;
+
+/**
+ * Decoding, enrichment or sink stage for COV notifications. Runs on a
+ * {@link CovIngestionPipeline} consumer thread, never on the bacnet4j
+ * transport thread.
+ */
+@FunctionalInterface
+public interface CovEventHandler {
+
+    /**
+     * @param endOfBatch true for the last event of the batch just drained, a
+     *                   good point to flush buffered output
+     */
+    void onEvent(CovEvent event, boolean endOfBatch) throws Exception;
+}
@@ -0,0 +1,154 @@
+package org.example;
+
+import com.serotonin.bacnet4j.LocalDevice;
+import com.serotonin.bacnet4j.event.DeviceEventAdapter;
+import com.serotonin.bacnet4j.type.constructed.PropertyValue;
+import com.serotonin.bacnet4j.type.constructed.SequenceOf;
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+import com.serotonin.bacnet4j.type.primitive.UnsignedInteger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Takes COV notifications off the bacnet4j transport thread.
+ * <p>
+ * The registered listener only copies the notification's identifiers and
+ * value-list reference into a {@link CovRingBuffer} slot, so the transport
+ * thread can ack a confirmed notification right away. Consumer threads drain
+ * the ring in batches and run the {@link CovEventHandler} (decoding,
+ * enrichment, sinks) there.
+ * <p>
+ * With more than one consumer, two notifications for the same point can be
+ * handled out of order; handlers that keep state should compare
+ * {@link CovEvent#getReceivedAtNanos()}.
+ */
+public final class CovIngestionPipeline implements AutoCloseable {
+
+    private static final int MAX_BATCH = 256;
+    private static final long MAX_IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final LocalDevice localDevice;
+    private final CovRingBuffer ring;
+    private final CovEventHandler handler;
+    private final int consumerCount;
+
+    private final List<Thread> consumers = new ArrayList<>();
+    private final LongAdder handled = new LongAdder();
+    private volatile boolean running;
+
+    private final DeviceEventAdapter listener = new DeviceEventAdapter() {
+        @Override
+        public void covNotificationReceived(
+                UnsignedInteger subscriberProcessIdentifier,
+                ObjectIdentifier initiatingDeviceIdentifier,
+                ObjectIdentifier monitoredObjectIdentifier,
+                UnsignedInteger timeRemaining,
+                SequenceOf<PropertyValue> listOfValues) {
+
+            ring.publish(
+                    initiatingDeviceIdentifier.getInstanceNumber(),
+                    monitoredObjectIdentifier,
+                    subscriberProcessIdentifier.longValue(),
+                    timeRemaining.longValue(),
+                    listOfValues
+            );
+        }
+    };
+
+    public CovIngestionPipeline(
+            LocalDevice localDevice,
+            int capacity,
+            CovRingBuffer.OverflowPolicy overflowPolicy,
+            int consumerCount,
+            CovEventHandler handler
+    ) {
+        this.localDevice = localDevice;
+        this.ring = new CovRingBuffer(capacity, overflowPolicy);
+        this.consumerCount = consumerCount;
+        this.handler = handler;
+    }
+
+    public void start() {
+        running = true;
+        for (int i = 0; i < consumerCount; i++) {
+            Thread t = new Thread(this::consume, "cov-consumer-" + i);
+            t.setDaemon(true);
+            t.start();
+            consumers.add(t);
+        }
+        localDevice.getEventHandler().addListener(listener);
+    }
+
+    private void consume() {
+        long park = 0;
+        while (running) {
+            int n = ring.drain(handler, MAX_BATCH);
+            if (n > 0) {
+                handled.add(n);
+                park = 0;
+            } else {
+                // Back off gradually so an idle pipeline costs nothing and a busy one stays hot.
+                park = park == 0 ? 1_000 : Math.min(MAX_IDLE_PARK_NANOS, park * 2);
+                LockSupport.parkNanos(park);
+            }
+        }
+        // Let queued notifications through before exiting.
+        int n;
+        while ((n = ring.drain(handler, MAX_BATCH)) > 0) {
+            handled.add(n);
+        }
+    }
+
+    /**
+     * Unregisters the listener, lets the consumers finish what is queued and
+     * stops them.
+     */
+    @Override
+    public void close() {
+        localDevice.getEventHandler().removeListener(listener);
+        running = false;
+        for (Thread t : consumers) {
+            try {
+                t.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        consumers.clear();
+    }
+
+    public long getPublished() {
+        return ring.getPublished();
+    }
+
+    public long getDropped() {
+        return ring.getDropped();
+    }
+
+    public long getHandled() {
+        return handled.sum();
+    }
+
+    public long getHandlerErrors() {
+        return ring.getHandlerErrors();
+    }
+
+    public long getQueueDepth() {
+        return ring.depth();
+    }
+
+    @Override
+    public String toString() {
+        return "COV pipeline: published=" + getPublished()
+                + " handled=" + getHandled()
+                + " dropped=" + getDropped()
+                + " depth=" + getQueueDepth() + "/" + ring.capacity()
+                + " errors=" + getHandlerErrors()
+                + " policy=" + ring.getPolicy();
+    }
+}
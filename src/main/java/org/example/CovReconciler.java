@@ -0,0 +1,298 @@
+package org.example;
+
+import com.serotonin.bacnet4j.LocalDevice;
+import com.serotonin.bacnet4j.RemoteDevice;
+import com.serotonin.bacnet4j.exception.BACnetException;
+import com.serotonin.bacnet4j.type.Encodable;
+import com.serotonin.bacnet4j.type.constructed.ObjectPropertyReference;
+import com.serotonin.bacnet4j.type.constructed.StatusFlags;
+import com.serotonin.bacnet4j.type.enumerated.ObjectType;
+import com.serotonin.bacnet4j.type.enumerated.PropertyIdentifier;
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounds the staleness of COV-fed points, mainly those subscribed with
+ * unconfirmed notifications, where a lost packet is never retried.
+ * <p>
+ * Every device with tracked points gets a check on its own phase within the
+ * interval. A check reads presentValue and statusFlags with
+ * ReadPropertyMultiple, but only for points that haven't been updated in
+ * {@code maxSilence}; noisy points that keep notifying cost nothing. The read
+ * values are compared with the {@link PointValueStore}: a mismatch is flagged
+ * to the {@link RepairListener} and the store is repaired either way. Analog
+ * points may legitimately drift by less than their covIncrement without
+ * notifying, so that is read once per point along with the first check and
+ * used as its tolerance. The subscriptions of mismatching points are renewed,
+ * since a lost subscription looks exactly like that.
+ */
+public final class CovReconciler implements AutoCloseable {
+
+    public enum Reason { VALUE, STATUS_FLAGS }
+
+    @FunctionalInterface
+    public interface RepairListener {
+        void onRepair(RemoteDevice device, ObjectIdentifier oid, Reason reason, Encodable value);
+    }
+
+    private static final int PRESENT_VALUE = PropertyIdentifier.presentValue.intValue();
+
+    private final BatchReadEngine engine;
+    private final PointValueStore store;
+    private final HashedTimerWheel wheel =
+            new HashedTimerWheel(1, TimeUnit.SECONDS, 512, "cov-reconcile-wheel");
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("cov-reconcile-", 0).factory());
+
+    private final Map<DeviceKey, TrackedDevice> devices = new ConcurrentHashMap<>();
+
+    private final LongAdder checks = new LongAdder();
+    private final LongAdder pointsRead = new LongAdder();
+    private final LongAdder repaired = new LongAdder();
+    private final LongAdder readErrors = new LongAdder();
+
+    private volatile long intervalMillis = TimeUnit.SECONDS.toMillis(60);
+    private volatile long maxSilenceMillis = TimeUnit.MINUTES.toMillis(5);
+    private volatile double analogTolerance = 1.0;
+    private volatile RepairListener repairListener = (device, oid, reason, value) -> { };
+    private volatile CovSubscriptionManager subscriptions;
+    private volatile boolean running = true;
+
+    private static final class TrackedDevice {
+        final Set<ObjectIdentifier> objects = ConcurrentHashMap.newKeySet();
+        // covIncrement of analog points once read; NaN if the device didn't give one
+        final Map<ObjectIdentifier, Double> covIncrements = new ConcurrentHashMap<>();
+        final AtomicBoolean checking = new AtomicBoolean();
+        volatile RemoteDevice device;
+        volatile HashedTimerWheel.Timeout next;
+
+        TrackedDevice(RemoteDevice device) {
+            this.device = device;
+        }
+    }
+
+    public CovReconciler(LocalDevice localDevice, PointValueStore store) {
+        this.engine = BatchReadEngine.forLocal(localDevice);
+        this.store = store;
+    }
+
+    /** Adds points to the device's checks; the first check runs at a random point in the interval. */
+    public void track(RemoteDevice device, Collection<ObjectIdentifier> objects) {
+        boolean[] added = {false};
+        TrackedDevice td = devices.computeIfAbsent(DeviceKey.of(device), key -> {
+            added[0] = true;
+            return new TrackedDevice(device);
+        });
+        td.device = device;
+        td.objects.addAll(objects);
+        if (added[0]) {
+            schedule(td, ThreadLocalRandom.current().nextLong(Math.max(1, intervalMillis)));
+        }
+    }
+
+    public void untrack(RemoteDevice device) {
+        TrackedDevice td = devices.remove(DeviceKey.of(device));
+        if (td != null && td.next != null) {
+            td.next.cancel();
+        }
+    }
+
+    /** How often each device is checked. Applies from each device's next check. */
+    public void setIntervalMillis(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+
+    /** Points updated more recently than this are trusted and not read. */
+    public void setMaxSilenceMillis(long maxSilenceMillis) {
+        this.maxSilenceMillis = maxSilenceMillis;
+    }
+
+    /** Largest analog difference not counted as a mismatch for points whose covIncrement can't be read. */
+    public void setAnalogTolerance(double analogTolerance) {
+        this.analogTolerance = analogTolerance;
+    }
+
+    public void setRepairListener(RepairListener repairListener) {
+        this.repairListener = repairListener;
+    }
+
+    /** Renew the subscriptions of mismatching points through this manager. */
+    public void setSubscriptionManager(CovSubscriptionManager subscriptions) {
+        this.subscriptions = subscriptions;
+    }
+
+    public long getChecks() {
+        return checks.sum();
+    }
+
+    public long getPointsRead() {
+        return pointsRead.sum();
+    }
+
+    public long getRepaired() {
+        return repaired.sum();
+    }
+
+    public long getReadErrors() {
+        return readErrors.sum();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        wheel.close();
+        executor.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return "COV reconciler: devices=" + devices.size()
+                + " checks=" + getChecks()
+                + " pointsRead=" + getPointsRead()
+                + " repaired=" + getRepaired()
+                + " readErrors=" + getReadErrors();
+    }
+
+    // --------------------------------------------------------------------
+
+    private void schedule(TrackedDevice td, long delayMillis) {
+        if (running) {
+            td.next = wheel.schedule(() -> dispatch(td), delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void dispatch(TrackedDevice td) {
+        if (!td.checking.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    check(td);
+                } catch (BACnetException e) {
+                    readErrors.increment();
+                } finally {
+                    td.checking.set(false);
+                }
+                if (devices.get(DeviceKey.of(td.device)) == td) {
+                    schedule(td, intervalMillis);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+            td.checking.set(false);
+        }
+    }
+
+    private void check(TrackedDevice td) throws BACnetException {
+        checks.increment();
+        RemoteDevice device = td.device;
+        int instance = device.getInstanceNumber();
+        long silentSince = System.currentTimeMillis() - maxSilenceMillis;
+
+        PointValueStore.Snapshot snapshot = new PointValueStore.Snapshot();
+        List<ObjectIdentifier> stale = new ArrayList<>();
+        for (ObjectIdentifier oid : td.objects) {
+            int slot = store.slotOf(instance, ObjectMetadata.pack(oid), PRESENT_VALUE);
+            if (slot < 0 || !store.read(slot, snapshot) || snapshot.timestamp < silentSince) {
+                stale.add(oid);
+            }
+        }
+        if (stale.isEmpty()) {
+            return;
+        }
+
+        List<ObjectPropertyReference> refs = new ArrayList<>(stale.size() * 2);
+        // Index of each point's covIncrement in refs, or -1 when not read this time
+        int[] incrementRefs = new int[stale.size()];
+        for (int i = 0; i < stale.size(); i++) {
+            ObjectIdentifier oid = stale.get(i);
+            refs.add(new ObjectPropertyReference(oid, PropertyIdentifier.presentValue));
+            refs.add(new ObjectPropertyReference(oid, PropertyIdentifier.statusFlags));
+            incrementRefs[i] = -1;
+            if (isAnalog(oid) && !td.covIncrements.containsKey(oid)) {
+                incrementRefs[i] = refs.size();
+                refs.add(new ObjectPropertyReference(oid, PropertyIdentifier.covIncrement));
+            }
+        }
+
+        // Stamped with the send time, so a COV that arrives during the read wins.
+        long readAt = System.currentTimeMillis();
+        List<Encodable> values = engine.read(device, refs);
+        pointsRead.add(stale.size());
+
+        List<ObjectIdentifier> mismatched = new ArrayList<>();
+        int ref = 0;
+        for (int i = 0; i < stale.size(); i++) {
+            ObjectIdentifier oid = stale.get(i);
+            Encodable value = values.get(ref++);
+            Encodable flagsValue = values.get(ref++);
+            if (incrementRefs[i] >= 0) {
+                // An error or a non-numeric value leaves NaN: the configured tolerance applies
+                td.covIncrements.put(oid, PointValueStore.numericValue(values.get(ref++)));
+            }
+            if (BatchReadEngine.isError(value)) {
+                readErrors.increment();
+                continue;
+            }
+
+            int flags = flagsValue instanceof StatusFlags sf
+                    ? PointValueStore.toFlags(sf)
+                    : PointValueStore.KEEP_FLAGS;
+            int slot = store.slotFor(instance, ObjectMetadata.pack(oid), PRESENT_VALUE);
+
+            if (store.read(slot, snapshot)) {
+                Reason reason = compare(snapshot, value, flags, td.covIncrements.getOrDefault(oid, Double.NaN));
+                if (reason != null) {
+                    mismatched.add(oid);
+                    repaired.increment();
+                    repairListener.onRepair(device, oid, reason, value);
+                }
+            }
+            store.writeEncodable(slot, value, flags, readAt);
+        }
+
+        CovSubscriptionManager manager = subscriptions;
+        if (!mismatched.isEmpty() && manager != null) {
+            manager.resubscribe(device, mismatched);
+        }
+    }
+
+    private Reason compare(PointValueStore.Snapshot stored, Encodable value, int flags, double covIncrement) {
+        double read = PointValueStore.numericValue(value);
+        if (!Double.isNaN(read)) {
+            double tolerance = 0;
+            if (value instanceof com.serotonin.bacnet4j.type.primitive.Real
+                    || value instanceof com.serotonin.bacnet4j.type.primitive.Double) {
+                tolerance = Double.isNaN(covIncrement) ? analogTolerance : covIncrement;
+            }
+            if (Math.abs(read - stored.doubleValue) > tolerance) {
+                return Reason.VALUE;
+            }
+        }
+        if (flags != PointValueStore.KEEP_FLAGS && flags != stored.statusFlags) {
+            return Reason.STATUS_FLAGS;
+        }
+        return null;
+    }
+
+    private static boolean isAnalog(ObjectIdentifier oid) {
+        ObjectType type = oid.getObjectType();
+        return type.equals(ObjectType.analogInput)
+                || type.equals(ObjectType.analogOutput)
+                || type.equals(ObjectType.analogValue);
+    }
+}
@@ -0,0 +1,186 @@
+package org.example;
+
+import com.serotonin.bacnet4j.type.constructed.PropertyValue;
+import com.serotonin.bacnet4j.type.constructed.SequenceOf;
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free multi-producer/multi-consumer ring of pre-allocated
+ * {@link CovEvent} slots (Vyukov's sequence-per-slot scheme).
+ * <p>
+ * Producers claim a slot by CAS on the tail, fill it and publish it by
+ * advancing the slot's sequence. Consumers claim a run of published slots by
+ * one CAS on the head, handle them in place and hand them back. Nothing is
+ * allocated per event.
+ */
+public final class CovRingBuffer {
+
+    public enum OverflowPolicy {
+        /** Discard the incoming notification. The transport thread never waits. */
+        DROP_NEWEST,
+        /**
+         * Discard the oldest queued notification to make room. The transport
+         * thread only waits while a consumer is still handling the batch that
+         * holds the slot it needs.
+         */
+        DROP_OLDEST,
+        /** Wait for a consumer to free a slot. Delays acks for confirmed notifications. */
+        BLOCK
+    }
+
+    private final CovEvent[] events;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final OverflowPolicy policy;
+
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder handlerErrors = new LongAdder();
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    public CovRingBuffer(int capacity, OverflowPolicy policy) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.events = new CovEvent[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            events[i] = new CovEvent();
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        this.policy = policy;
+    }
+
+    /**
+     * Copies one notification into a free slot.
+     *
+     * @return false if it was dropped because the ring is full
+     */
+    public boolean publish(
+            int deviceInstance,
+            ObjectIdentifier monitoredObject,
+            long subscriberProcessId,
+            long timeRemaining,
+            SequenceOf<PropertyValue> values
+    ) {
+        long receivedAt = System.nanoTime();
+
+        while (true) {
+            long pos = tail.get();
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    events[index].set(deviceInstance, monitoredObject, subscriberProcessId,
+                            timeRemaining, values, receivedAt);
+                    sequences.set(index, pos + 1);
+                    published.increment();
+                    return true;
+                }
+            } else if (diff < 0) {
+                // The slot still holds an event from one lap ago: either nobody has taken it yet
+                // (full), or a consumer has taken it and is still handling its batch.
+                boolean full = pos - head.get() >= events.length;
+                switch (policy) {
+                    case DROP_NEWEST -> {
+                        dropped.increment();
+                        return false;
+                    }
+                    case DROP_OLDEST -> {
+                        if (!full) {
+                            // Dropping queued events wouldn't free this slot; wait for the consumer.
+                            LockSupport.parkNanos(1_000);
+                        } else if (drain(null, 1) == 1) {
+                            dropped.increment();
+                        } else {
+                            Thread.onSpinWait();
+                        }
+                    }
+                    case BLOCK -> LockSupport.parkNanos(1_000);
+                }
+            }
+            // diff > 0: another producer took this slot, retry with the new tail.
+        }
+    }
+
+    /**
+     * Claims up to {@code maxBatch} published events and passes them to
+     * {@code handler} in order. A null handler just discards them.
+     *
+     * @return the number of events taken
+     */
+    public int drain(CovEventHandler handler, int maxBatch) {
+        while (true) {
+            long pos = head.get();
+
+            int n = 0;
+            while (n < maxBatch && sequences.get((int) ((pos + n) & mask)) == pos + n + 1) {
+                n++;
+            }
+            if (n == 0) {
+                return 0;
+            }
+            if (!head.compareAndSet(pos, pos + n)) {
+                continue;
+            }
+
+            try {
+                if (handler != null) {
+                    for (int i = 0; i < n; i++) {
+                        CovEvent event = events[(int) ((pos + i) & mask)];
+                        try {
+                            handler.onEvent(event, i == n - 1);
+                        } catch (Exception e) {
+                            handlerErrors.increment();
+                            if (handlerErrors.sum() <= 10) {
+                                System.err.println("COV handler failed: " + e);
+                            }
+                        }
+                    }
+                }
+            } finally {
+                for (int i = 0; i < n; i++) {
+                    int index = (int) ((pos + i) & mask);
+                    events[index].clear();
+                    sequences.set(index, pos + i + events.length);
+                }
+            }
+            return n;
+        }
+    }
+
+    public int capacity() {
+        return events.length;
+    }
+
+    /** Events claimed by producers and not yet taken by a consumer. */
+    public long depth() {
+        return Math.max(0, tail.get() - head.get());
+    }
+
+    public long getPublished() {
+        return published.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getHandlerErrors() {
+        return handlerErrors.sum();
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+}
@@ -0,0 +1,610 @@
+package org.example;
+
+import com.serotonin.bacnet4j.LocalDevice;
+import com.serotonin.bacnet4j.RemoteDevice;
+import com.serotonin.bacnet4j.event.DeviceEventAdapter;
+import com.serotonin.bacnet4j.exception.BACnetException;
+import com.serotonin.bacnet4j.exception.RejectAPDUException;
+import com.serotonin.bacnet4j.service.acknowledgement.ReadPropertyAck;
+import com.serotonin.bacnet4j.service.confirmed.ConfirmedRequestService;
+import com.serotonin.bacnet4j.service.confirmed.ReadPropertyRequest;
+import com.serotonin.bacnet4j.service.confirmed.SubscribeCOVPropertyMultipleRequest;
+import com.serotonin.bacnet4j.service.confirmed.SubscribeCOVPropertyMultipleRequest.CovSubscriptionSpecification;
+import com.serotonin.bacnet4j.service.confirmed.SubscribeCOVPropertyMultipleRequest.CovSubscriptionSpecification.CovReference;
+import com.serotonin.bacnet4j.service.confirmed.SubscribeCOVRequest;
+import com.serotonin.bacnet4j.type.constructed.PropertyReference;
+import com.serotonin.bacnet4j.type.constructed.SequenceOf;
+import com.serotonin.bacnet4j.type.constructed.ServicesSupported;
+import com.serotonin.bacnet4j.type.enumerated.ObjectType;
+import com.serotonin.bacnet4j.type.enumerated.PropertyIdentifier;
+import com.serotonin.bacnet4j.type.enumerated.RejectReason;
+import com.serotonin.bacnet4j.type.primitive.Boolean;
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+import com.serotonin.bacnet4j.type.primitive.UnsignedInteger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps COV subscriptions alive with finite lifetimes.
+ * <p>
+ * Subscriptions are grouped per device under one subscriber process ID, and
+ * each device has a single renewal timeout in a {@link HashedTimerWheel}, so
+ * 100k subscriptions cost a few hundred bytes each and one timer thread.
+ * A renewal re-sends every subscription of the device through a
+ * {@link RequestPipeline} on a virtual thread, using SubscribeCOVPropertyMultiple
+ * when enabled and the device advertises it, and schedules the next renewal
+ * at three quarters of the lifetime.
+ * <p>
+ * A subscription the device refused is retried on its own, with a delay that
+ * doubles from {@code RETRY_MILLIS} on each failure, on the same timer as the
+ * renewal. After {@code MAX_ATTEMPTS} failures in a row it is left out of
+ * renewals until the object is subscribed again or the device restarts.
+ * <p>
+ * The manager also resubscribes a device when it has restarted, or when a
+ * notification's timeRemaining doesn't match the lifetime it was given.
+ * I-Ams also answer every other client's Who-Is, so an I-Am only triggers a
+ * read of the device's {@code lastRestartTime}, at most once a minute, and
+ * the device is resubscribed only if that moved since it was subscribed.
+ * Devices without the property are left to their renewals and the
+ * timeRemaining check. Feed it the COV events via {@link #onEvent} and
+ * register it with {@link #start}.
+ */
+public final class CovSubscriptionManager implements CovEventHandler, AutoCloseable {
+
+    private static final double RENEW_AT = 0.75;
+    private static final long RETRY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long RESTART_CHECK_EVERY_MILLIS = TimeUnit.SECONDS.toMillis(60);
+    private static final int MAX_LOGGED_FAILURES = 20;
+
+    // Encoded size of one object's entry in a SubscribeCOVPropertyMultiple request
+    private static final int SPEC_BYTES = 12;
+    private static final int REQUEST_OVERHEAD_BYTES = 24;
+
+    private final LocalDevice localDevice;
+    private final HashedTimerWheel wheel =
+            new HashedTimerWheel(1, TimeUnit.SECONDS, 512, "cov-renewal-wheel");
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("cov-subscribe-", 0).factory());
+
+    private final Map<DeviceKey, DeviceSubscriptions> devices = new ConcurrentHashMap<>();
+    // Notifications carry the instance but not the address; the process ID tells sites apart
+    private final Map<Integer, DeviceSubscriptions> byProcessId = new ConcurrentHashMap<>();
+    private final AtomicInteger nextProcessId = new AtomicInteger(1);
+
+    private final LongAdder subscribed = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder resubscribes = new LongAdder();
+    private final LongAdder abandoned = new LongAdder();
+
+    private volatile int lifetimeSeconds = 900;
+    private volatile int window = 16;
+    private volatile boolean usePropertyMultiple;
+    private volatile boolean running = true;
+
+    private final DeviceEventAdapter listener = new DeviceEventAdapter() {
+        @Override
+        public void iAmReceived(RemoteDevice device) {
+            DeviceSubscriptions ds = devices.get(DeviceKey.of(device));
+            if (ds == null) {
+                return;
+            }
+            ds.device = device;
+            long now = System.currentTimeMillis();
+            if (now - ds.subscribedAtMillis > RESTART_CHECK_EVERY_MILLIS
+                    && now - ds.restartCheckedAtMillis > RESTART_CHECK_EVERY_MILLIS
+                    && ds.checkingRestart.compareAndSet(false, true)) {
+                ds.restartCheckedAtMillis = now;
+                execute(() -> {
+                    try {
+                        if (restarted(ds)) {
+                            System.out.println("Device " + ds.device.getInstanceNumber()
+                                    + " restarted; resubscribing");
+                            resubscribe(ds);
+                        }
+                    } finally {
+                        ds.checkingRestart.set(false);
+                    }
+                });
+            }
+        }
+    };
+
+    private static final class Subscription {
+        final ObjectIdentifier oid;
+        final boolean confirmed;
+        volatile boolean active;
+        // Re-sent on the next pass even if the renewal isn't due
+        volatile boolean resendNow;
+        // Failures in a row; MAX_ATTEMPTS means given up
+        volatile int failedAttempts;
+        volatile long retryAtMillis;
+
+        Subscription(ObjectIdentifier oid, boolean confirmed) {
+            this.oid = oid;
+            this.confirmed = confirmed;
+        }
+    }
+
+    private static final class DeviceSubscriptions {
+        final int processId;
+        final Map<ObjectIdentifier, Subscription> subscriptions = new ConcurrentHashMap<>();
+        final AtomicBoolean renewing = new AtomicBoolean();
+        final AtomicBoolean renewAgain = new AtomicBoolean();
+        final AtomicBoolean checkingRestart = new AtomicBoolean();
+        volatile RemoteDevice device;
+        // Text of the device's lastRestartTime when last read, or null if unknown
+        volatile String lastRestart;
+        volatile long restartCheckedAtMillis;
+        volatile boolean multipleUnsupported;
+        volatile long subscribedAtMillis;
+        volatile long subscribedAtNanos;
+        volatile long grantedSeconds;
+        // When every subscription is next re-sent; 0 means on the next pass
+        volatile long renewDueMillis;
+        volatile HashedTimerWheel.Timeout renewal;
+
+        DeviceSubscriptions(RemoteDevice device, int processId) {
+            this.device = device;
+            this.processId = processId;
+        }
+    }
+
+    public CovSubscriptionManager(LocalDevice localDevice) {
+        this.localDevice = localDevice;
+    }
+
+    /** Starts listening for I-Am announcements. */
+    public void start() {
+        localDevice.getEventHandler().addListener(listener);
+    }
+
+    /** Confirmed subscriptions for {@code objects}, added to any the device already has. */
+    public void subscribe(RemoteDevice device, Collection<ObjectIdentifier> objects) {
+        subscribe(device, objects, true);
+    }
+
+    /**
+     * Adds subscriptions for {@code objects} and subscribes them right away.
+     * An object that is already subscribed keeps its subscription but takes
+     * the new {@code confirmed} setting at the next renewal.
+     */
+    public void subscribe(RemoteDevice device, Collection<ObjectIdentifier> objects, boolean confirmed) {
+        subscribe(device, confirmed ? objects : List.of(), confirmed ? List.of() : objects);
+    }
+
+    /** Adds confirmed and unconfirmed subscriptions together and sends them in one pass. */
+    public void subscribe(RemoteDevice device, Collection<ObjectIdentifier> confirmed,
+                          Collection<ObjectIdentifier> unconfirmed) {
+        boolean[] added = {false};
+        DeviceSubscriptions ds = devices.computeIfAbsent(DeviceKey.of(device), key -> {
+            DeviceSubscriptions created = new DeviceSubscriptions(device, nextProcessId.getAndIncrement());
+            byProcessId.put(created.processId, created);
+            added[0] = true;
+            return created;
+        });
+        for (ObjectIdentifier oid : confirmed) {
+            ds.subscriptions.put(oid, new Subscription(oid, true));
+        }
+        for (ObjectIdentifier oid : unconfirmed) {
+            ds.subscriptions.put(oid, new Subscription(oid, false));
+        }
+        if (added[0]) {
+            // What a later restart is compared against
+            execute(() -> ds.lastRestart = readLastRestart(ds.device));
+        }
+        resubscribe(ds);
+    }
+
+    /** Stops renewing the device's subscriptions and cancels them on the device. */
+    public void unsubscribe(RemoteDevice device) {
+        DeviceSubscriptions ds = devices.remove(DeviceKey.of(device));
+        if (ds == null) {
+            return;
+        }
+        byProcessId.remove(ds.processId);
+        cancelRenewal(ds);
+        List<Subscription> subs = new ArrayList<>(ds.subscriptions.values());
+        execute(() -> {
+            try {
+                // A SubscribeCOV without confirmed flag and lifetime is a cancellation.
+                new RequestPipeline(localDevice, ds.device, window).run(
+                        subs.size(),
+                        i -> new SubscribeCOVRequest(
+                                new UnsignedInteger(ds.processId), subs.get(i).oid, null, null),
+                        (i, ack, error) -> { }
+                );
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    /** Renews all of the device's subscriptions now, e.g. after missed notifications. */
+    public void resubscribe(RemoteDevice device) {
+        DeviceSubscriptions ds = devices.get(DeviceKey.of(device));
+        if (ds != null) {
+            resubscribe(ds);
+        }
+    }
+
+    /** Re-sends only these subscriptions of the device now, leaving the others to their renewal. */
+    public void resubscribe(RemoteDevice device, Collection<ObjectIdentifier> objects) {
+        DeviceSubscriptions ds = devices.get(DeviceKey.of(device));
+        if (ds == null) {
+            return;
+        }
+        boolean any = false;
+        for (ObjectIdentifier oid : objects) {
+            Subscription sub = ds.subscriptions.get(oid);
+            if (sub != null) {
+                sub.failedAttempts = 0;
+                sub.resendNow = true;
+                any = true;
+            }
+        }
+        if (any) {
+            resubscribes.increment();
+            dispatch(ds);
+        }
+    }
+
+    /** Tracks which subscriptions are delivering and whether the device still has them. */
+    @Override
+    public void onEvent(CovEvent event, boolean endOfBatch) {
+        DeviceSubscriptions ds = byProcessId.get((int) event.getSubscriberProcessId());
+        if (ds == null || ds.device.getInstanceNumber() != event.getDeviceInstance()) {
+            return;
+        }
+        Subscription sub = ds.subscriptions.get(event.getMonitoredObject());
+        if (sub != null) {
+            sub.active = true;
+        }
+
+        long reported = event.getTimeRemaining();
+        long granted = ds.grantedSeconds;
+        if (reported == 0 || granted == 0 || ds.renewing.get()) {
+            return;
+        }
+
+        long elapsed = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - ds.subscribedAtNanos);
+        long expected = granted - elapsed;
+        long tolerance = Math.max(30, granted / 10);
+
+        if (reported + tolerance < expected) {
+            // The device shortened the lifetime: renew before its copy runs out.
+            ds.grantedSeconds = elapsed + reported;
+            ds.renewDueMillis = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis((long) (reported * RENEW_AT));
+            scheduleRenewal(ds, nextDelay(ds));
+        } else if (reported > expected + tolerance) {
+            // Lifetime restarted without us renewing: the device lost and rebuilt its table.
+            resubscribe(ds);
+        }
+    }
+
+    /** Lifetime requested for new subscriptions and renewals. Many devices cap this. */
+    public void setLifetimeSeconds(int lifetimeSeconds) {
+        if (lifetimeSeconds < 60) {
+            throw new IllegalArgumentException("lifetime must be at least 60 s: " + lifetimeSeconds);
+        }
+        this.lifetimeSeconds = lifetimeSeconds;
+    }
+
+    /** Subscribe requests kept in flight per device. */
+    public void setWindow(int window) {
+        this.window = window;
+    }
+
+    /**
+     * Use SubscribeCOVPropertyMultiple on devices that advertise it. The local
+     * device must then handle COV-multiple notifications for the values to
+     * reach the COV pipeline.
+     */
+    public void setUsePropertyMultiple(boolean usePropertyMultiple) {
+        this.usePropertyMultiple = usePropertyMultiple;
+    }
+
+    public int getSubscriptionCount() {
+        int count = 0;
+        for (DeviceSubscriptions ds : devices.values()) {
+            count += ds.subscriptions.size();
+        }
+        return count;
+    }
+
+    public int getActiveCount() {
+        int count = 0;
+        for (DeviceSubscriptions ds : devices.values()) {
+            for (Subscription sub : ds.subscriptions.values()) {
+                if (sub.active) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        localDevice.getEventHandler().removeListener(listener);
+        wheel.close();
+        executor.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return "COV subscriptions: devices=" + devices.size()
+                + " subscriptions=" + getSubscriptionCount()
+                + " active=" + getActiveCount()
+                + " subscribed=" + subscribed.sum()
+                + " failures=" + failures.sum()
+                + " resubscribes=" + resubscribes.sum()
+                + " abandoned=" + abandoned.sum()
+                + " timers=" + wheel.getPendingCount();
+    }
+
+    // --------------------------------------------------------------------
+
+    private void resubscribe(DeviceSubscriptions ds) {
+        resubscribes.increment();
+        cancelRenewal(ds);
+        for (Subscription sub : ds.subscriptions.values()) {
+            sub.failedAttempts = 0;
+        }
+        ds.renewDueMillis = 0;
+        dispatch(ds);
+    }
+
+    /**
+     * Whether the device's lastRestartTime has moved since it was last read.
+     * False when it can't be read now or couldn't before.
+     */
+    private boolean restarted(DeviceSubscriptions ds) {
+        String previous = ds.lastRestart;
+        String current = readLastRestart(ds.device);
+        if (current == null) {
+            return false;
+        }
+        ds.lastRestart = current;
+        return previous != null && !previous.equals(current);
+    }
+
+    private String readLastRestart(RemoteDevice device) {
+        ReadPropertyRequest request = new ReadPropertyRequest(
+                new ObjectIdentifier(ObjectType.device, device.getInstanceNumber()),
+                PropertyIdentifier.lastRestartTime);
+        try {
+            ReadPropertyAck ack = DeviceRequestSender.forLocal(localDevice).send(device, request);
+            return ack.getValue().toString();
+        } catch (BACnetException e) {
+            return null;
+        }
+    }
+
+    private void dispatch(DeviceSubscriptions ds) {
+        if (!running) {
+            return;
+        }
+        if (!ds.renewing.compareAndSet(false, true)) {
+            // Objects may have been added after the running renewal took its copy.
+            ds.renewAgain.set(true);
+            return;
+        }
+        execute(() -> {
+            long delay = RETRY_MILLIS;
+            try {
+                delay = renew(ds);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                ds.renewing.set(false);
+            }
+            if (ds.renewAgain.getAndSet(false)) {
+                ds.renewDueMillis = 0;
+                delay = 0;
+            }
+            if (devices.get(DeviceKey.of(ds.device)) == ds) {
+                scheduleRenewal(ds, delay);
+            }
+        });
+    }
+
+    /**
+     * Re-sends every subscription of the device when its renewal is due, or
+     * else only the failed ones whose retry is due and those asked for by
+     * {@link #resubscribe(RemoteDevice, Collection)}; returns the delay to the
+     * next pass.
+     */
+    private long renew(DeviceSubscriptions ds) throws InterruptedException {
+        int lifetime = lifetimeSeconds;
+        long startedAtNanos = System.nanoTime();
+        long now = System.currentTimeMillis();
+        boolean full = now >= ds.renewDueMillis;
+
+        List<Subscription> subs = new ArrayList<>();
+        for (Subscription sub : ds.subscriptions.values()) {
+            if (sub.failedAttempts < MAX_ATTEMPTS
+                    && (full || sub.resendNow || (sub.failedAttempts > 0 && sub.retryAtMillis <= now))) {
+                sub.resendNow = false;
+                subs.add(sub);
+            }
+        }
+
+        if (!subs.isEmpty()) {
+            boolean sent = false;
+            if (usePropertyMultiple && !ds.multipleUnsupported && supportsPropertyMultiple(ds.device)) {
+                sent = renewMultiple(ds, subs, lifetime);
+            }
+            if (!sent) {
+                renewSingle(ds, subs, lifetime);
+            }
+            reportAbandoned(ds, subs);
+        }
+
+        if (full) {
+            ds.subscribedAtNanos = startedAtNanos;
+            ds.subscribedAtMillis = System.currentTimeMillis();
+            ds.grantedSeconds = lifetime;
+            ds.renewDueMillis = now + TimeUnit.SECONDS.toMillis((long) (lifetime * RENEW_AT));
+        }
+        return nextDelay(ds);
+    }
+
+    /** Time until the device's renewal or the earliest retry of a failed subscription. */
+    private static long nextDelay(DeviceSubscriptions ds) {
+        long next = ds.renewDueMillis;
+        for (Subscription sub : ds.subscriptions.values()) {
+            if (sub.failedAttempts > 0 && sub.failedAttempts < MAX_ATTEMPTS) {
+                next = Math.min(next, sub.retryAtMillis);
+            }
+        }
+        return Math.max(0, next - System.currentTimeMillis());
+    }
+
+    private void reportAbandoned(DeviceSubscriptions ds, List<Subscription> sent) {
+        int count = 0;
+        for (Subscription sub : sent) {
+            if (sub.failedAttempts == MAX_ATTEMPTS) {
+                count++;
+            }
+        }
+        if (count > 0) {
+            abandoned.add(count);
+            System.err.println("✗ Gave up on " + count + " COV subscription(s) on device "
+                    + ds.device.getInstanceNumber() + " after " + MAX_ATTEMPTS + " attempts");
+        }
+    }
+
+    private void renewSingle(DeviceSubscriptions ds, List<Subscription> subs, int lifetime)
+            throws InterruptedException {
+
+        new RequestPipeline(localDevice, ds.device, window).run(
+                subs.size(),
+                i -> new SubscribeCOVRequest(
+                        new UnsignedInteger(ds.processId),
+                        subs.get(i).oid,
+                        Boolean.valueOf(subs.get(i).confirmed),
+                        new UnsignedInteger(lifetime)),
+                (i, ack, error) -> record(ds, subs.get(i), error)
+        );
+    }
+
+    /** @return false if the device turned out not to support the service */
+    private boolean renewMultiple(DeviceSubscriptions ds, List<Subscription> subs, int lifetime)
+            throws InterruptedException {
+
+        int perRequest = Math.max(1, (ds.device.getMaxAPDULengthAccepted() - REQUEST_OVERHEAD_BYTES) / SPEC_BYTES);
+
+        List<List<Subscription>> chunks = new ArrayList<>();
+        for (boolean confirmed : new boolean[] {true, false}) {
+            List<Subscription> chunk = new ArrayList<>();
+            for (Subscription sub : subs) {
+                if (sub.confirmed == confirmed) {
+                    chunk.add(sub);
+                    if (chunk.size() == perRequest) {
+                        chunks.add(chunk);
+                        chunk = new ArrayList<>();
+                    }
+                }
+            }
+            if (!chunk.isEmpty()) {
+                chunks.add(chunk);
+            }
+        }
+
+        new RequestPipeline(localDevice, ds.device, window).run(
+                chunks.size(),
+                i -> multipleRequest(ds.processId, chunks.get(i), lifetime),
+                (i, ack, error) -> {
+                    if (error instanceof RejectAPDUException reject
+                            && RejectReason.unrecognizedService.equals(reject.getApdu().getRejectReason())) {
+                        ds.multipleUnsupported = true;
+                        return;
+                    }
+                    for (Subscription sub : chunks.get(i)) {
+                        record(ds, sub, error);
+                    }
+                }
+        );
+        return !ds.multipleUnsupported;
+    }
+
+    private static ConfirmedRequestService multipleRequest(
+            int processId, List<Subscription> chunk, int lifetime) {
+
+        SequenceOf<CovSubscriptionSpecification> specs = new SequenceOf<>();
+        for (Subscription sub : chunk) {
+            specs.add(new CovSubscriptionSpecification(
+                    sub.oid,
+                    new SequenceOf<>(new CovReference(
+                            new PropertyReference(PropertyIdentifier.presentValue),
+                            null,
+                            Boolean.valueOf(false)))
+            ));
+        }
+        return new SubscribeCOVPropertyMultipleRequest(
+                new UnsignedInteger(processId),
+                Boolean.valueOf(chunk.get(0).confirmed),
+                new UnsignedInteger(lifetime),
+                null,
+                specs
+        );
+    }
+
+    private void record(DeviceSubscriptions ds, Subscription sub, BACnetException error) {
+        sub.active = error == null;
+        if (error == null) {
+            sub.failedAttempts = 0;
+            subscribed.increment();
+            return;
+        }
+        int attempts = sub.failedAttempts + 1;
+        sub.failedAttempts = attempts;
+        sub.retryAtMillis = System.currentTimeMillis() + (RETRY_MILLIS << (attempts - 1));
+        failures.increment();
+        if (failures.sum() <= MAX_LOGGED_FAILURES) {
+            System.err.println("✗ Failed to subscribe to " + sub.oid
+                    + " on device " + ds.device.getInstanceNumber() + ": " + error.getMessage());
+        }
+    }
+
+    private void scheduleRenewal(DeviceSubscriptions ds, long delayMillis) {
+        if (!running) {
+            return;
+        }
+        cancelRenewal(ds);
+        ds.renewal = wheel.schedule(() -> dispatch(ds), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static void cancelRenewal(DeviceSubscriptions ds) {
+        HashedTimerWheel.Timeout renewal = ds.renewal;
+        if (renewal != null) {
+            renewal.cancel();
+        }
+    }
+
+    private void execute(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+        }
+    }
+
+    private static boolean supportsPropertyMultiple(RemoteDevice device) {
+        ServicesSupported services = device.getServicesSupported();
+        return services != null && services.isSubscribeCovPropertyMultiple();
+    }
+}
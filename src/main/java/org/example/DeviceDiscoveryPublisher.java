@@ -0,0 +1,233 @@
+package org.example;
+
+import com.serotonin.bacnet4j.LocalDevice;
+import com.serotonin.bacnet4j.RemoteDevice;
+import com.serotonin.bacnet4j.event.DeviceEventAdapter;
+import com.serotonin.bacnet4j.service.unconfirmed.WhoIsRequest;
+import com.serotonin.bacnet4j.type.constructed.Address;
+
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams discovered devices as a {@link Flow.Publisher}.
+ * <p>
+ * Each subscription sends its own Who-Is (or runs a {@link WhoIsSweeper}
+ * over the whole instance space) and emits every device once, by instance,
+ * as soon as its first I-Am arrives. Devices are queued until the subscriber
+ * requests them, so a slow consumer never blocks the bacnet4j thread, and
+ * signals are delivered on a virtual thread, one at a time. The stream
+ * completes once no new device has turned up for the quiet period (and the
+ * sweep, if any, is done), or at the latest after the maximum duration.
+ */
+public final class DeviceDiscoveryPublisher implements Flow.Publisher<RemoteDevice> {
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "discovery-quiet-timer");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final ExecutorService DELIVERY = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("discovery-", 0).factory());
+
+    private final LocalDevice localDevice;
+    private final Address target;
+    private volatile long quietMillis = 3000;
+    private volatile long maxMillis = TimeUnit.SECONDS.toMillis(60);
+    private volatile boolean sweep;
+
+    /**
+     * @param target unicast or directed-broadcast address, or null for a
+     *               global broadcast
+     */
+    public DeviceDiscoveryPublisher(LocalDevice localDevice, Address target) {
+        this.localDevice = localDevice;
+        this.target = target;
+    }
+
+    /** Complete once no new device has been seen for this long. */
+    public void setQuietMillis(long quietMillis) {
+        this.quietMillis = quietMillis;
+    }
+
+    /** Complete after this long whatever is still arriving. */
+    public void setMaxMillis(long maxMillis) {
+        this.maxMillis = maxMillis;
+    }
+
+    /** Sweep the whole instance space with ranged Who-Is instead of one unranged Who-Is. */
+    public void setSweep(boolean sweep) {
+        this.sweep = sweep;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super RemoteDevice> subscriber) {
+        DiscoverySubscription subscription = new DiscoverySubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        subscription.start();
+    }
+
+    private final class DiscoverySubscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super RemoteDevice> subscriber;
+        private final Set<Integer> seen = ConcurrentHashMap.newKeySet();
+        private final Queue<RemoteDevice> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final long startedAt = System.currentTimeMillis();
+
+        private volatile long lastNewAt = startedAt;
+        private volatile boolean probing = true;
+        private volatile boolean done;
+        private volatile boolean cancelled;
+        private volatile Throwable error;
+        private boolean terminated;
+        private ScheduledFuture<?> quietCheck;
+
+        private final DeviceEventAdapter listener = new DeviceEventAdapter() {
+            @Override
+            public void iAmReceived(RemoteDevice d) {
+                onDevice(d);
+            }
+        };
+
+        DiscoverySubscription(Flow.Subscriber<? super RemoteDevice> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        void start() {
+            if (cancelled) {
+                return;
+            }
+            localDevice.getEventHandler().addListener(listener);
+            long checkEvery = Math.max(10, quietMillis / 4);
+            quietCheck = TIMER.scheduleWithFixedDelay(this::checkQuiet, checkEvery, checkEvery, TimeUnit.MILLISECONDS);
+
+            if (sweep) {
+                DELIVERY.execute(() -> {
+                    try {
+                        new WhoIsSweeper(localDevice, target).sweep(this::onDevice);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (RuntimeException e) {
+                        fail(e);
+                    } finally {
+                        lastNewAt = Math.max(lastNewAt, System.currentTimeMillis());
+                        probing = false;
+                    }
+                });
+            } else {
+                try {
+                    WhoIsRequest whoIs = new WhoIsRequest();
+                    if (target == null) {
+                        localDevice.sendGlobalBroadcast(whoIs);
+                    } else {
+                        localDevice.send(target, whoIs);
+                    }
+                } catch (RuntimeException e) {
+                    fail(e);
+                }
+                probing = false;
+            }
+        }
+
+        private void onDevice(RemoteDevice d) {
+            if (done || cancelled || !seen.add(d.getInstanceNumber())) {
+                return;
+            }
+            lastNewAt = System.currentTimeMillis();
+            queue.add(d);
+            signal();
+        }
+
+        private void checkQuiet() {
+            long now = System.currentTimeMillis();
+            if (!probing && now - lastNewAt >= quietMillis || now - startedAt >= maxMillis) {
+                finish();
+                signal();
+            }
+        }
+
+        private void fail(Throwable e) {
+            error = e;
+            finish();
+            signal();
+        }
+
+        private void finish() {
+            done = true;
+            localDevice.getEventHandler().removeListener(listener);
+            if (quietCheck != null) {
+                quietCheck.cancel(false);
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("non-positive request: " + n));
+                return;
+            }
+            requested.accumulateAndGet(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            finish();
+            queue.clear();
+        }
+
+        private void signal() {
+            if (wip.getAndIncrement() == 0) {
+                DELIVERY.execute(this::drain);
+            }
+        }
+
+        /** Runs on one delivery thread at a time, so signals to the subscriber are serialised. */
+        private void drain() {
+            int missed = 1;
+            while (true) {
+                while (!cancelled && !terminated && requested.get() > 0) {
+                    RemoteDevice d = queue.poll();
+                    if (d == null) {
+                        break;
+                    }
+                    requested.decrementAndGet();
+                    try {
+                        subscriber.onNext(d);
+                    } catch (Throwable t) {
+                        cancel();
+                        terminated = true;
+                        subscriber.onError(t);
+                    }
+                }
+
+                if (!cancelled && !terminated && done && (error != null || queue.isEmpty())) {
+                    terminated = true;
+                    if (error != null) {
+                        subscriber.onError(error);
+                    } else {
+                        subscriber.onComplete();
+                    }
+                }
+
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.example;
+
+import com.serotonin.bacnet4j.RemoteDevice;
+import com.serotonin.bacnet4j.type.constructed.Address;
+import com.serotonin.bacnet4j.type.primitive.OctetString;
+import com.serotonin.bacnet4j.type.primitive.UnsignedInteger;
+
+/**
+ * One remote device across sites. Instance numbers are only unique per
+ * site, so state kept per device is keyed by the device's address as well.
+ */
+public record DeviceKey(Address address, int instance) {
+
+    public static DeviceKey of(RemoteDevice remoteDevice) {
+        return new DeviceKey(remoteDevice.getAddress(), remoteDevice.getInstanceNumber());
+    }
+
+    /** Network number and MAC in hex, e.g. {@code 0-c0a80a14bac0}; safe in a file name. */
+    public String addressText() {
+        if (address == null) {
+            return "unknown";
+        }
+        UnsignedInteger network = address.getNetworkNumber();
+        StringBuilder sb = new StringBuilder().append(network == null ? 0 : network.intValue()).append('-');
+        OctetString mac = address.getMacAddress();
+        if (mac != null && mac.getBytes() != null) {
+            for (byte b : mac.getBytes()) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+        }
+        return sb.toString();
+    }
+
+    /** The key for {@code instance} at an address written by {@link #addressText}. */
+    public static DeviceKey parse(int instance, String addressText) {
+        if (addressText.equals("unknown")) {
+            return new DeviceKey(null, instance);
+        }
+        int dash = addressText.indexOf('-');
+        String hex = addressText.substring(dash + 1);
+        if (dash < 0 || hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("Not an address: " + addressText);
+        }
+        byte[] mac = new byte[hex.length() / 2];
+        for (int i = 0; i < mac.length; i++) {
+            mac[i] = (byte) Integer.parseInt(hex, i * 2, i * 2 + 2, 16);
+        }
+        int network = Integer.parseInt(addressText.substring(0, dash));
+        return new DeviceKey(new Address(network, new OctetString(mac)), instance);
+    }
+
+    @Override
+    public String toString() {
+        return instance + "@" + addressText();
+    }
+}
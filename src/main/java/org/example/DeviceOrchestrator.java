@@ -0,0 +1,219 @@
+package org.example;
+
+import com.serotonin.bacnet4j.RemoteDevice;
+import com.serotonin.bacnet4j.type.constructed.Address;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs each device's follow-up work (reads, enumeration, subscriptions) on its
+ * own virtual thread, so a dead or slow controller only holds up itself.
+ * <p>
+ * Two semaphores bound the load: one for the whole site and one per BACnet
+ * network number, so a single routed MS/TP trunk can't be flooded while the
+ * IP side is idle. All device threads belong to this orchestrator;
+ * {@link #shutdown} interrupts every one of them and waits for them to finish
+ * before returning.
+ */
+public final class DeviceOrchestrator implements AutoCloseable {
+
+    public enum Stage { QUEUED, RUNNING, DONE, FAILED, CANCELLED }
+
+    @FunctionalInterface
+    public interface DeviceWorkflow {
+        void run(RemoteDevice device, DeviceProgress progress) throws Exception;
+    }
+
+    /** Where one device's workflow currently is. Updated by the device thread, read by anyone. */
+    public static final class DeviceProgress {
+
+        private final int deviceInstance;
+        private final long queuedAt = System.currentTimeMillis();
+        private volatile Stage stage = Stage.QUEUED;
+        private volatile String step = "";
+        private volatile long startedAt;
+        private volatile long finishedAt;
+        private volatile Throwable failure;
+
+        DeviceProgress(int deviceInstance) {
+            this.deviceInstance = deviceInstance;
+        }
+
+        /** Called by workflows to report the step they are on. */
+        public void step(String step) {
+            this.step = step;
+        }
+
+        public int getDeviceInstance() {
+            return deviceInstance;
+        }
+
+        public Stage getStage() {
+            return stage;
+        }
+
+        public String getStep() {
+            return step;
+        }
+
+        public Throwable getFailure() {
+            return failure;
+        }
+
+        /** Time spent so far (or in total, once finished) since the slot was granted. */
+        public long getElapsedMillis() {
+            if (startedAt == 0) {
+                return 0;
+            }
+            return (finishedAt != 0 ? finishedAt : System.currentTimeMillis()) - startedAt;
+        }
+
+        public long getWaitedMillis() {
+            return (startedAt != 0 ? startedAt : System.currentTimeMillis()) - queuedAt;
+        }
+
+        boolean isActive() {
+            return stage == Stage.QUEUED || stage == Stage.RUNNING;
+        }
+
+        @Override
+        public String toString() {
+            return "device " + deviceInstance + ": " + stage
+                    + (step.isEmpty() ? "" : " (" + step + ")")
+                    + " waited=" + getWaitedMillis() + "ms ran=" + getElapsedMillis() + "ms"
+                    + (failure != null ? " error=" + failure.getMessage() : "");
+        }
+    }
+
+    private final ExecutorService threads =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("bacnet-device-", 0).factory());
+
+    private final Semaphore globalSlots;
+    private final int perNetworkLimit;
+    private final Map<Integer, Semaphore> networkSlots = new ConcurrentHashMap<>();
+    private final Map<Integer, DeviceProgress> progress = new ConcurrentHashMap<>();
+
+    public DeviceOrchestrator(int maxConcurrentDevices, int maxConcurrentPerNetwork) {
+        this.globalSlots = new Semaphore(maxConcurrentDevices, true);
+        this.perNetworkLimit = maxConcurrentPerNetwork;
+    }
+
+    /**
+     * Starts the workflow for {@code device} unless one is already queued or
+     * running for the same instance (repeated I-Ams are common).
+     *
+     * @return false if the device was already active or the orchestrator is shut down
+     */
+    public boolean submit(RemoteDevice device, DeviceWorkflow workflow) {
+        DeviceProgress p = new DeviceProgress(device.getInstanceNumber());
+
+        DeviceProgress existing = progress.putIfAbsent(device.getInstanceNumber(), p);
+        if (existing != null) {
+            if (existing.isActive() || !progress.replace(device.getInstanceNumber(), existing, p)) {
+                return false;
+            }
+        }
+
+        try {
+            threads.submit(() -> runDevice(device, workflow, p));
+            return true;
+        } catch (RejectedExecutionException e) {
+            p.stage = Stage.CANCELLED;
+            return false;
+        }
+    }
+
+    private void runDevice(RemoteDevice device, DeviceWorkflow workflow, DeviceProgress p) {
+        Semaphore network = networkSlots.computeIfAbsent(
+                networkOf(device),
+                k -> new Semaphore(perNetworkLimit, true)
+        );
+
+        boolean global = false;
+        boolean local = false;
+        try {
+            globalSlots.acquire();
+            global = true;
+            network.acquire();
+            local = true;
+
+            p.startedAt = System.currentTimeMillis();
+            p.stage = Stage.RUNNING;
+
+            workflow.run(device, p);
+
+            p.stage = Stage.DONE;
+
+        } catch (InterruptedException e) {
+            p.stage = Stage.CANCELLED;
+        } catch (Exception e) {
+            p.failure = e;
+            p.stage = Thread.currentThread().isInterrupted() ? Stage.CANCELLED : Stage.FAILED;
+            if (p.stage == Stage.FAILED) {
+                System.err.println("Device " + device.getInstanceNumber()
+                        + " failed during '" + p.step + "': " + e.getMessage());
+            }
+        } finally {
+            p.finishedAt = System.currentTimeMillis();
+            if (local) {
+                network.release();
+            }
+            if (global) {
+                globalSlots.release();
+            }
+        }
+    }
+
+    private static int networkOf(RemoteDevice device) {
+        Address address = device.getAddress();
+        if (address == null || address.getNetworkNumber() == null) {
+            return 0;
+        }
+        return address.getNetworkNumber().intValue();
+    }
+
+    public Map<Integer, DeviceProgress> getProgress() {
+        return Collections.unmodifiableMap(progress);
+    }
+
+    public int getActiveCount() {
+        int active = 0;
+        for (DeviceProgress p : progress.values()) {
+            if (p.isActive()) {
+                active++;
+            }
+        }
+        return active;
+    }
+
+    /**
+     * Cancels every device workflow and waits for all device threads to exit.
+     */
+    public void shutdown() {
+        threads.shutdownNow();
+        try {
+            if (!threads.awaitTermination(30, TimeUnit.SECONDS)) {
+                System.err.println("Device workflows still running after shutdown: " + getActiveCount());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (DeviceProgress p : progress.values()) {
+            if (p.isActive()) {
+                p.stage = Stage.CANCELLED;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        shutdown();
+    }
+}
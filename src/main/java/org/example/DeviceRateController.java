@@ -0,0 +1,158 @@
+package org.example;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * AIMD congestion control for one remote device.
+ * <p>
+ * Two limits are enforced before a confirmed request may be sent: the number
+ * of requests already outstanding ({@link #getWindow() window}) and the spacing
+ * between sends ({@link #getRatePerSecond() rate}). Both grow additively while
+ * responses arrive on time and are cut multiplicatively on timeouts, aborts and
+ * busy errors, so slow controllers are backed off and fast ones are opened up.
+ * <p>
+ * A congestion signal only cuts once per round trip: failures of requests that
+ * were sent before the last cut were caused by the old limits and are ignored.
+ */
+public final class DeviceRateController {
+
+    public static final double MIN_WINDOW = 1;
+    public static final double MAX_WINDOW = 64;
+    public static final double MIN_RATE = 1;
+    public static final double MAX_RATE = 1000;
+
+    private static final double INITIAL_WINDOW = 2;
+    private static final double INITIAL_RATE = 20;
+    private static final double RATE_STEP = 1;
+    private static final double DECREASE_FACTOR = 0.5;
+
+    private final int deviceInstance;
+    private final long lateAfterNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitReleased = lock.newCondition();
+
+    private double window = INITIAL_WINDOW;
+    private double ratePerSecond = INITIAL_RATE;
+    private int inFlight;
+    private long nextSendAt;
+    private long lastCutAt;
+
+    private long onTime;
+    private long late;
+    private long congested;
+
+    public DeviceRateController(int deviceInstance, long lateAfterMillis) {
+        this.deviceInstance = deviceInstance;
+        this.lateAfterNanos = TimeUnit.MILLISECONDS.toNanos(lateAfterMillis);
+        this.nextSendAt = System.nanoTime();
+        this.lastCutAt = nextSendAt;
+    }
+
+    /**
+     * Blocks until both the window and the rate allow another request.
+     *
+     * @return the send timestamp, to be passed back to one of the
+     * {@code on*} methods when the request completes
+     */
+    public long acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                if (inFlight >= (int) window) {
+                    permitReleased.await();
+                } else if (now < nextSendAt) {
+                    permitReleased.awaitNanos(nextSendAt - now);
+                } else {
+                    inFlight++;
+                    nextSendAt = now + (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+                    return now;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** The device answered (with data or with an ordinary error). */
+    public void onResponse(long sentAt) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (System.nanoTime() - sentAt <= lateAfterNanos) {
+                onTime++;
+                window = Math.min(MAX_WINDOW, window + 1 / window);
+                ratePerSecond = Math.min(MAX_RATE, ratePerSecond + RATE_STEP);
+            } else {
+                late++;
+            }
+            permitReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Timeout, abort or busy error: the device is overloaded. */
+    public void onCongestion(long sentAt) {
+        lock.lock();
+        try {
+            inFlight--;
+            congested++;
+            if (sentAt > lastCutAt) {
+                lastCutAt = System.nanoTime();
+                window = Math.max(MIN_WINDOW, window * DECREASE_FACTOR);
+                ratePerSecond = Math.max(MIN_RATE, ratePerSecond * DECREASE_FACTOR);
+            }
+            permitReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getDeviceInstance() {
+        return deviceInstance;
+    }
+
+    public double getWindow() {
+        lock.lock();
+        try {
+            return window;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public double getRatePerSecond() {
+        lock.lock();
+        try {
+            return ratePerSecond;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return String.format(
+                    "device %d: window=%.1f rate=%.0f/s inFlight=%d onTime=%d late=%d congested=%d",
+                    deviceInstance, window, ratePerSecond, inFlight, onTime, late, congested
+            );
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,452 @@
+package org.example;
+
+import com.serotonin.bacnet4j.LocalDevice;
+import com.serotonin.bacnet4j.RemoteDevice;
+import com.serotonin.bacnet4j.ResponseConsumer;
+import com.serotonin.bacnet4j.apdu.Abort;
+import com.serotonin.bacnet4j.apdu.AckAPDU;
+import com.serotonin.bacnet4j.apdu.Reject;
+import com.serotonin.bacnet4j.exception.AbortAPDUException;
+import com.serotonin.bacnet4j.exception.BACnetException;
+import com.serotonin.bacnet4j.exception.BACnetTimeoutException;
+import com.serotonin.bacnet4j.exception.ErrorAPDUException;
+import com.serotonin.bacnet4j.exception.RejectAPDUException;
+import com.serotonin.bacnet4j.service.acknowledgement.AcknowledgementService;
+import com.serotonin.bacnet4j.service.confirmed.ConfirmedRequestService;
+import com.serotonin.bacnet4j.transport.DefaultTransport;
+import com.serotonin.bacnet4j.type.enumerated.ErrorClass;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Single path for confirmed requests to remote devices. Every request first
+ * takes a permit from the device's {@link DeviceRateController} and reports
+ * its outcome back, so all readers, subscribers and diagnostics share one view
+ * of how much load each device can take. Every request is also timed into
+ * the sender's {@link RequestMetrics}, from the moment it goes out (after any
+ * wait for a permit) to its ack, error or timeout.
+ * <p>
+ * Retries happen here and nowhere else: the transport is set to send each
+ * copy once (see {@link #leaveRetriesToSender}), and a request unanswered
+ * after the device's {@link RtoEstimator} timeout is sent again, up to
+ * {@code maxRetransmits} times, with the timeout doubling each time. A fast
+ * LAN controller is retried after a few hundred milliseconds, a cellular
+ * gateway only after a few seconds.
+ * <p>
+ * There is one sender per {@link LocalDevice}; use {@link #forLocal}.
+ */
+public final class DeviceRequestSender {
+
+    private static final long DEFAULT_LATE_AFTER_MILLIS = 2000;
+    private static final long DEFAULT_INITIAL_RTO_MILLIS = 3000;
+    private static final long DEFAULT_MIN_RTO_MILLIS = 200;
+    private static final long DEFAULT_MAX_RTO_MILLIS = 15_000;
+    private static final int DEFAULT_SEG_TIMEOUT_MILLIS = 5000;
+    /** Segments we receive are bounded by our own MaxAPDU (B/IP). */
+    private static final int LOCAL_MAX_APDU = 1476;
+
+    /**
+     * Copies of one request the transport may hold at once. Each keeps its
+     * invoke ID until it is answered or the transport times it out, and a
+     * peer has only 256 of them, so a full window of requests with this many
+     * copies each must still fit.
+     */
+    private static final int MAX_OUTSTANDING_COPIES =
+            RequestPipeline.MAX_WINDOW / (int) DeviceRateController.MAX_WINDOW;
+
+    private static final HashedTimerWheel RETRANSMIT_TIMER =
+            new HashedTimerWheel(10, TimeUnit.MILLISECONDS, 1024, "retransmit-timer");
+
+    private static final Map<LocalDevice, DeviceRequestSender> SENDERS =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final LocalDevice localDevice;
+    private final Map<DeviceKey, DeviceRateController> controllers = new ConcurrentHashMap<>();
+    private final Map<DeviceKey, RtoEstimator> estimators = new ConcurrentHashMap<>();
+    private final RequestMetrics metrics = new RequestMetrics();
+    private volatile long lateAfterMillis = DEFAULT_LATE_AFTER_MILLIS;
+    private volatile int maxRetransmits = 3;
+    private volatile long initialRtoMillis = DEFAULT_INITIAL_RTO_MILLIS;
+    private volatile long minRtoMillis = DEFAULT_MIN_RTO_MILLIS;
+    private volatile long maxRtoMillis = DEFAULT_MAX_RTO_MILLIS;
+
+    private DeviceRequestSender(LocalDevice localDevice) {
+        this.localDevice = localDevice;
+    }
+
+    public static DeviceRequestSender forLocal(LocalDevice localDevice) {
+        return SENDERS.computeIfAbsent(localDevice, DeviceRequestSender::new);
+    }
+
+    /**
+     * Sends a request and blocks for the response, waiting for a send permit
+     * first if the device's window or rate is exhausted.
+     */
+    public <T extends AcknowledgementService> T send(
+            RemoteDevice remoteDevice,
+            ConfirmedRequestService request
+    ) throws BACnetException {
+        return send(remoteDevice, request, 0);
+    }
+
+    /**
+     * As {@link #send(RemoteDevice, ConfirmedRequestService)}, but waits at
+     * least {@code minTimeoutMillis} before retransmitting, for responses
+     * known to take longer than usual (e.g. many segments).
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends AcknowledgementService> T send(
+            RemoteDevice remoteDevice,
+            ConfirmedRequestService request,
+            long minTimeoutMillis
+    ) throws BACnetException {
+
+        CompletableFuture<AcknowledgementService> result = new CompletableFuture<>();
+        try {
+            sendAsync(remoteDevice, request, minTimeoutMillis, maxRetransmits, new ResponseConsumer() {
+                @Override
+                public void success(AcknowledgementService ack) {
+                    result.complete(ack);
+                }
+
+                @Override
+                public void fail(AckAPDU ack) {
+                    result.completeExceptionally(toException(ack));
+                }
+
+                @Override
+                public void ex(BACnetException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BACnetException("Interrupted waiting for send window", e);
+        }
+
+        try {
+            return (T) result.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof BACnetException bacnet) {
+                throw bacnet;
+            }
+            throw new BACnetException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BACnetException("Interrupted waiting for response", e);
+        }
+    }
+
+    /**
+     * Sends a request without waiting for the response. The calling thread
+     * still blocks until a send permit is available.
+     */
+    public void sendAsync(
+            RemoteDevice remoteDevice,
+            ConfirmedRequestService request,
+            ResponseConsumer consumer
+    ) throws InterruptedException {
+        sendAsync(remoteDevice, request, 0, maxRetransmits, consumer);
+    }
+
+    /**
+     * As {@link #sendAsync(RemoteDevice, ConfirmedRequestService, ResponseConsumer)},
+     * but never retransmits: the request fails once its single copy has gone
+     * unanswered for the device's timeout. For copies that already race
+     * another request, such as hedges.
+     */
+    public void sendOnceAsync(
+            RemoteDevice remoteDevice,
+            ConfirmedRequestService request,
+            ResponseConsumer consumer
+    ) throws InterruptedException {
+        sendAsync(remoteDevice, request, 0, 0, consumer);
+    }
+
+    private void sendAsync(
+            RemoteDevice remoteDevice,
+            ConfirmedRequestService request,
+            long minTimeoutMillis,
+            int retransmits,
+            ResponseConsumer consumer
+    ) throws InterruptedException {
+
+        DeviceRateController controller = controllerFor(remoteDevice);
+        long sentAt = controller.acquire();
+        new Exchange(remoteDevice, request, consumer, controller, rtoFor(remoteDevice), minTimeoutMillis,
+                retransmits, sentAt).transmit();
+    }
+
+    public DeviceRateController controllerFor(RemoteDevice remoteDevice) {
+        return controllers.computeIfAbsent(
+                DeviceKey.of(remoteDevice),
+                key -> new DeviceRateController(key.instance(), lateAfterMillis)
+        );
+    }
+
+    public RtoEstimator rtoFor(RemoteDevice remoteDevice) {
+        return estimators.computeIfAbsent(
+                DeviceKey.of(remoteDevice),
+                key -> new RtoEstimator(initialRtoMillis, minRtoMillis, maxRtoMillis)
+        );
+    }
+
+    /** Current per-device windows and rates, for tuning. */
+    public Collection<DeviceRateController> getControllers() {
+        return Collections.unmodifiableCollection(controllers.values());
+    }
+
+    /** Latency and failure figures for everything sent through this sender. */
+    public RequestMetrics getMetrics() {
+        return metrics;
+    }
+
+    /** Copies of a request sent after the first one times out. */
+    public void setMaxRetransmits(int maxRetransmits) {
+        this.maxRetransmits = maxRetransmits;
+    }
+
+    /** Retransmission timeout before a device's first response, and its bounds (apply to new devices). */
+    public void setRtoMillis(long initialMillis, long minMillis, long maxMillis) {
+        this.initialRtoMillis = initialMillis;
+        this.minRtoMillis = minMillis;
+        this.maxRtoMillis = maxMillis;
+    }
+
+    /**
+     * Hands retries over to the senders: the transport sends each copy once
+     * and only forgets its invoke ID after the longest timeout a sender
+     * would wait for it.
+     */
+    public static void leaveRetriesToSender(DefaultTransport transport) {
+        transport.setRetries(0);
+        transport.setTimeout((int) DEFAULT_MAX_RTO_MILLIS);
+    }
+
+    /** Responses slower than this don't open the window further (applies to new devices). */
+    public void setLateAfterMillis(long lateAfterMillis) {
+        this.lateAfterMillis = lateAfterMillis;
+    }
+
+    public LocalDevice getLocalDevice() {
+        return localDevice;
+    }
+
+    /**
+     * The least time to wait before retransmitting a request whose response
+     * is about {@code responseBytes} long: 0 if it fits in one APDU, else the
+     * transport's segment timeout for every window of segments it takes.
+     * Pass it as {@code minTimeoutMillis} so a slow segmented response isn't
+     * mistaken for a lost one.
+     */
+    public long segmentedTimeoutMillis(RemoteDevice remoteDevice, int responseBytes) {
+        int segments = segments(remoteDevice, responseBytes);
+        if (segments <= 1) {
+            return 0;
+        }
+        int window = 1;
+        int segTimeout = DEFAULT_SEG_TIMEOUT_MILLIS;
+        if (localDevice.getTransport() instanceof DefaultTransport transport) {
+            window = Math.max(1, transport.getSegWindow());
+            segTimeout = transport.getSegTimeout();
+        }
+        return (long) segTimeout * ((segments + window - 1) / window);
+    }
+
+    /** Segments a response of {@code responseBytes} from the device is sent in. */
+    static int segments(RemoteDevice remoteDevice, int responseBytes) {
+        int remoteMax = remoteDevice.getMaxAPDULengthAccepted();
+        int segmentBytes = remoteMax > 0 ? Math.min(LOCAL_MAX_APDU, remoteMax) : LOCAL_MAX_APDU;
+        return Math.max(1, (responseBytes + segmentBytes - 1) / segmentBytes);
+    }
+
+    // --------------------------------------------------------------------
+
+    /**
+     * One request as the caller sees it: the first copy plus any
+     * retransmissions, each under its own invoke ID. The first answer to any
+     * copy settles it. A copy the transport gives up on only frees its invoke
+     * ID, since the retransmission timer decides when to try again or fail.
+     * A retransmission due while {@code MAX_OUTSTANDING_COPIES} copies are
+     * still held waits for one of them to be freed.
+     */
+    private final class Exchange {
+
+        private final RemoteDevice remoteDevice;
+        private final ConfirmedRequestService request;
+        private final ResponseConsumer consumer;
+        private final DeviceRateController controller;
+        private final RtoEstimator rto;
+        private final long minTimeoutMillis;
+        private final int retransmits;
+        private final long sentAt;
+        private final long start = System.nanoTime();
+        private final AtomicBoolean done = new AtomicBoolean();
+        private int copies;
+        private int outstanding;
+        private boolean retransmitWaiting;
+        private HashedTimerWheel.Timeout timer;
+
+        Exchange(
+                RemoteDevice remoteDevice,
+                ConfirmedRequestService request,
+                ResponseConsumer consumer,
+                DeviceRateController controller,
+                RtoEstimator rto,
+                long minTimeoutMillis,
+                int retransmits,
+                long sentAt
+        ) {
+            this.remoteDevice = remoteDevice;
+            this.request = request;
+            this.consumer = consumer;
+            this.controller = controller;
+            this.rto = rto;
+            this.minTimeoutMillis = minTimeoutMillis;
+            this.retransmits = retransmits;
+            this.sentAt = sentAt;
+        }
+
+        void transmit() {
+            long copySentAt;
+            synchronized (this) {
+                if (done.get()) {
+                    return;
+                }
+                copies++;
+                outstanding++;
+                copySentAt = System.nanoTime();
+                long timeout = Math.max(rto.getTimeoutMillis(), minTimeoutMillis);
+                timer = RETRANSMIT_TIMER.schedule(this::onRto, timeout, TimeUnit.MILLISECONDS);
+            }
+
+            localDevice.send(remoteDevice, request, new ResponseConsumer() {
+                @Override
+                public void success(AcknowledgementService ack) {
+                    // This copy's own round trip, whichever copy it was
+                    rto.sample(System.nanoTime() - copySentAt);
+                    finish(ack, null, null);
+                }
+
+                @Override
+                public void fail(AckAPDU ack) {
+                    finish(null, ack, toException(ack));
+                }
+
+                @Override
+                public void ex(BACnetException e) {
+                    if (e instanceof BACnetTimeoutException) {
+                        released();
+                    } else {
+                        finish(null, null, e);
+                    }
+                }
+            });
+        }
+
+        /** The transport forgot a copy and its invoke ID; send a retransmission that waited for it. */
+        private void released() {
+            synchronized (this) {
+                outstanding--;
+                if (!retransmitWaiting) {
+                    return;
+                }
+                retransmitWaiting = false;
+            }
+            transmit();
+        }
+
+        private void onRto() {
+            if (done.get()) {
+                return;
+            }
+            rto.onTimeout();
+            int sent;
+            synchronized (this) {
+                sent = copies;
+            }
+            if (sent > retransmits) {
+                finish(null, null, new BACnetTimeoutException(
+                        "No response from device " + remoteDevice.getInstanceNumber() + " after " + sent + " attempts"));
+                return;
+            }
+            metrics.recordRetry(DeviceKey.of(remoteDevice), request);
+            synchronized (this) {
+                if (outstanding >= MAX_OUTSTANDING_COPIES) {
+                    retransmitWaiting = true;
+                    return;
+                }
+            }
+            transmit();
+        }
+
+        private void finish(AcknowledgementService ack, AckAPDU negative, BACnetException e) {
+            if (!done.compareAndSet(false, true)) {
+                return;
+            }
+            boolean retransmitted;
+            synchronized (this) {
+                timer.cancel();
+                retransmitted = copies > 1;
+            }
+
+            if (e != null) {
+                release(controller, sentAt, e);
+            } else if (retransmitted) {
+                // Answered in the end, but a copy was lost on the way
+                controller.onCongestion(sentAt);
+            } else {
+                controller.onResponse(sentAt);
+            }
+            metrics.record(DeviceKey.of(remoteDevice), request, System.nanoTime() - start, e);
+
+            if (ack != null) {
+                consumer.success(ack);
+            } else if (negative != null) {
+                consumer.fail(negative);
+            } else {
+                consumer.ex(e);
+            }
+        }
+    }
+
+    private static void release(DeviceRateController controller, long sentAt, BACnetException e) {
+        if (isCongestion(e)) {
+            controller.onCongestion(sentAt);
+        } else {
+            controller.onResponse(sentAt);
+        }
+    }
+
+    /** Timeouts, aborts and resource errors mean the device (or the path to it) is overloaded. */
+    static boolean isCongestion(BACnetException e) {
+        if (e instanceof BACnetTimeoutException || e instanceof AbortAPDUException) {
+            return true;
+        }
+        return e instanceof ErrorAPDUException error
+                && error.getError() != null
+                && ErrorClass.resources.equals(error.getError().getErrorClass());
+    }
+
+    /** Same mapping {@code ServiceFuture.get()} applies to negative acks. */
+    static BACnetException toException(AckAPDU ack) {
+        if (ack instanceof com.serotonin.bacnet4j.apdu.Error error) {
+            return new ErrorAPDUException(error);
+        }
+        if (ack instanceof Reject reject) {
+            return new RejectAPDUException(reject);
+        }
+        if (ack instanceof Abort abort) {
+            return new AbortAPDUException(abort);
+        }
+        return new BACnetException("Unexpected response: " + ack);
+    }
+}
@@ -0,0 +1,217 @@
+package org.example;
+
+import com.serotonin.bacnet4j.type.Encodable;
+import com.serotonin.bacnet4j.type.constructed.StatusFlags;
+import com.serotonin.bacnet4j.type.enumerated.PropertyIdentifier;
+import com.serotonin.bacnet4j.type.primitive.CharacterString;
+import com.serotonin.bacnet4j.type.primitive.Enumerated;
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+import com.serotonin.bacnet4j.type.primitive.Primitive;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Every object of one device with a fixed set of properties, stored by
+ * column: one primitive array per property, indexed by row.
+ * <p>
+ * Names and other text go through a shared {@link StringTable}; units,
+ * states and flags are their enumeration values; present values and other
+ * numbers are doubles. Properties with no primitive form keep the decoded
+ * value. A property that couldn't be read is {@link StringTable#NONE},
+ * {@link #MISSING_INT}, NaN or null according to its column.
+ */
+public final class DeviceSnapshot {
+
+    public static final int MISSING_INT = Integer.MIN_VALUE;
+
+    /** How a property's values are stored. */
+    public enum Kind {
+        STRING, INT, DOUBLE, OBJECT;
+
+        public static Kind of(PropertyIdentifier property) {
+            int id = property.intValue();
+            if (id == PropertyIdentifier.objectName.intValue()
+                    || id == PropertyIdentifier.description.intValue()
+                    || id == PropertyIdentifier.modelName.intValue()
+                    || id == PropertyIdentifier.vendorName.intValue()) {
+                return STRING;
+            }
+            if (id == PropertyIdentifier.units.intValue()
+                    || id == PropertyIdentifier.statusFlags.intValue()
+                    || id == PropertyIdentifier.outOfService.intValue()
+                    || id == PropertyIdentifier.eventState.intValue()
+                    || id == PropertyIdentifier.reliability.intValue()) {
+                return INT;
+            }
+            if (id == PropertyIdentifier.presentValue.intValue()
+                    || id == PropertyIdentifier.covIncrement.intValue()) {
+                return DOUBLE;
+            }
+            return OBJECT;
+        }
+    }
+
+    private final int deviceInstance;
+    private final int[] objectIds;
+    private final PropertyIdentifier[] properties;
+    private final Kind[] kinds;
+    private final Object[] columns;
+    private final StringTable strings;
+    private long readAtMillis;
+    private int errors;
+
+    DeviceSnapshot(int deviceInstance, List<ObjectIdentifier> objects, List<PropertyIdentifier> properties,
+            StringTable strings) {
+        this.deviceInstance = deviceInstance;
+        this.strings = strings;
+        this.objectIds = new int[objects.size()];
+        for (int i = 0; i < objectIds.length; i++) {
+            objectIds[i] = ObjectMetadata.pack(objects.get(i));
+        }
+        this.properties = properties.toArray(new PropertyIdentifier[0]);
+        this.kinds = new Kind[this.properties.length];
+        this.columns = new Object[this.properties.length];
+        int rows = objectIds.length;
+        for (int c = 0; c < this.properties.length; c++) {
+            kinds[c] = Kind.of(this.properties[c]);
+            switch (kinds[c]) {
+                case STRING -> {
+                    int[] column = new int[rows];
+                    Arrays.fill(column, StringTable.NONE);
+                    columns[c] = column;
+                }
+                case INT -> {
+                    int[] column = new int[rows];
+                    Arrays.fill(column, MISSING_INT);
+                    columns[c] = column;
+                }
+                case DOUBLE -> {
+                    double[] column = new double[rows];
+                    Arrays.fill(column, Double.NaN);
+                    columns[c] = column;
+                }
+                case OBJECT -> columns[c] = new Encodable[rows];
+            }
+        }
+    }
+
+    /** Stores one value; errors and values that don't fit the column count as missing. */
+    void set(int row, int column, Encodable value) {
+        if (BatchReadEngine.isError(value)) {
+            errors++;
+            return;
+        }
+        switch (kinds[column]) {
+            case STRING -> {
+                if (value instanceof CharacterString cs) {
+                    ((int[]) columns[column])[row] = strings.intern(cs.getValue());
+                }
+            }
+            case INT -> {
+                if (value instanceof StatusFlags flags) {
+                    ((int[]) columns[column])[row] = PointValueStore.toFlags(flags);
+                } else if (value instanceof Enumerated e) {
+                    ((int[]) columns[column])[row] = e.intValue();
+                } else if (value instanceof com.serotonin.bacnet4j.type.primitive.Boolean b) {
+                    ((int[]) columns[column])[row] = b.booleanValue() ? 1 : 0;
+                }
+            }
+            case DOUBLE -> ((double[]) columns[column])[row] = PointValueStore.numericValue(value);
+            case OBJECT -> ((Encodable[]) columns[column])[row] = value;
+        }
+    }
+
+    void setReadAtMillis(long readAtMillis) {
+        this.readAtMillis = readAtMillis;
+    }
+
+    public int getDeviceInstance() {
+        return deviceInstance;
+    }
+
+    public int size() {
+        return objectIds.length;
+    }
+
+    /** Object type and instance, packed as in {@link ObjectMetadata#pack}. */
+    public int packedObjectId(int row) {
+        return objectIds[row];
+    }
+
+    public ObjectIdentifier objectId(int row) {
+        return ObjectMetadata.unpack(objectIds[row]);
+    }
+
+    public List<PropertyIdentifier> getProperties() {
+        return List.of(properties);
+    }
+
+    /** Column index of {@code property}, or -1 if it isn't in this snapshot. */
+    public int columnOf(PropertyIdentifier property) {
+        for (int c = 0; c < properties.length; c++) {
+            if (properties[c].intValue() == property.intValue()) {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    public Kind kindOf(int column) {
+        return kinds[column];
+    }
+
+    public String getString(int row, int column) {
+        return strings.get(((int[]) columns[column])[row]);
+    }
+
+    /** Enumeration value, status-flag bits or 0/1; {@link #MISSING_INT} if not read. */
+    public int getInt(int row, int column) {
+        return ((int[]) columns[column])[row];
+    }
+
+    public double getDouble(int row, int column) {
+        return ((double[]) columns[column])[row];
+    }
+
+    public Encodable getObject(int row, int column) {
+        return ((Encodable[]) columns[column])[row];
+    }
+
+    /** The value in whatever form its column keeps, or null if missing. */
+    public Object get(int row, int column) {
+        return switch (kinds[column]) {
+            case STRING -> getString(row, column);
+            case INT -> getInt(row, column) == MISSING_INT ? null : getInt(row, column);
+            case DOUBLE -> Double.isNaN(getDouble(row, column)) ? null : getDouble(row, column);
+            case OBJECT -> {
+                Encodable value = getObject(row, column);
+                yield value instanceof Primitive || value == null ? value : value.toString();
+            }
+        };
+    }
+
+    /** Values that came back as errors (typically unknown-property on objects without it). */
+    public int getErrors() {
+        return errors;
+    }
+
+    public long getReadAtMillis() {
+        return readAtMillis;
+    }
+
+    /** Heap held by the arrays, not counting the shared string table or OBJECT values. */
+    public long estimatedBytes() {
+        long bytes = 4L * objectIds.length;
+        for (Kind kind : kinds) {
+            bytes += (kind == Kind.DOUBLE ? 8L : 4L) * objectIds.length;
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "device " + deviceInstance + ": " + objectIds.length + " objects x " + properties.length
+                + " properties, " + errors + " errors, ~" + estimatedBytes() / 1024 + " KB";
+    }
+}
@@ -0,0 +1,350 @@
+package org.example;
+
+import com.serotonin.bacnet4j.LocalDevice;
+import com.serotonin.bacnet4j.RemoteDevice;
+import com.serotonin.bacnet4j.ResponseConsumer;
+import com.serotonin.bacnet4j.apdu.AckAPDU;
+import com.serotonin.bacnet4j.exception.BACnetException;
+import com.serotonin.bacnet4j.npdu.ip.IpNetwork;
+import com.serotonin.bacnet4j.npdu.ip.IpNetworkBuilder;
+import com.serotonin.bacnet4j.npdu.ip.IpNetworkUtils;
+import com.serotonin.bacnet4j.service.acknowledgement.AcknowledgementService;
+import com.serotonin.bacnet4j.service.confirmed.ConfirmedRequestService;
+import com.serotonin.bacnet4j.service.unconfirmed.UnconfirmedRequestService;
+import com.serotonin.bacnet4j.transport.DefaultTransport;
+import com.serotonin.bacnet4j.type.constructed.Address;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Talks to many remote gateways at once by spreading them over several local
+ * BACnet stacks.
+ * <p>
+ * Each shard is its own {@link LocalDevice} with its own {@link IpNetwork}
+ * socket on {@code basePort + i} and its own transport thread, so request
+ * encoding, retries and segment handling for different gateways don't queue
+ * behind each other. Gateways reply to whichever port the request came from,
+ * so over the WAN the shards don't need the standard port. A gateway is
+ * pinned to the least-loaded shard when it is added, and every request for
+ * it goes through that shard's {@link DeviceRequestSender}.
+ */
+public final class GatewayConnectionManager implements AutoCloseable {
+
+    /** One local BACnet stack. */
+    public static final class Shard {
+
+        private final int index;
+        private final int port;
+        private final LocalDevice localDevice;
+        private final DeviceRequestSender sender;
+        private final AtomicInteger gateways = new AtomicInteger();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder latencyNanos = new LongAdder();
+
+        private Shard(int index, int port, LocalDevice localDevice) {
+            this.index = index;
+            this.port = port;
+            this.localDevice = localDevice;
+            this.sender = DeviceRequestSender.forLocal(localDevice);
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public LocalDevice getLocalDevice() {
+            return localDevice;
+        }
+
+        public int getGatewayCount() {
+            return gateways.get();
+        }
+
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        public long getRequests() {
+            return requests.sum();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        @Override
+        public String toString() {
+            long n = requests.sum();
+            return "Shard " + index + " (port " + port + "): gateways=" + gateways.get()
+                    + " inFlight=" + inFlight.get()
+                    + " requests=" + n
+                    + " errors=" + errors.sum()
+                    + " avgLatency=" + (n == 0 ? 0 : latencyNanos.sum() / n / 1_000_000) + "ms";
+        }
+    }
+
+    /** A remote gateway pinned to one shard. */
+    public static final class Gateway {
+
+        private final String host;
+        private final int port;
+        private final Address address;
+        private final Shard shard;
+
+        private Gateway(String host, int port, Address address, Shard shard) {
+            this.host = host;
+            this.port = port;
+            this.address = address;
+            this.shard = shard;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public Address getAddress() {
+            return address;
+        }
+
+        public Shard getShard() {
+            return shard;
+        }
+
+        public LocalDevice getLocalDevice() {
+            return shard.localDevice;
+        }
+
+        /** Sends a request to a device behind this gateway through the gateway's shard. */
+        public <T extends AcknowledgementService> T send(RemoteDevice remoteDevice, ConfirmedRequestService request)
+                throws BACnetException {
+            shard.requests.increment();
+            shard.inFlight.incrementAndGet();
+            long start = System.nanoTime();
+            try {
+                return shard.sender.send(remoteDevice, request);
+            } catch (BACnetException e) {
+                shard.errors.increment();
+                throw e;
+            } finally {
+                shard.latencyNanos.add(System.nanoTime() - start);
+                shard.inFlight.decrementAndGet();
+            }
+        }
+
+        public void sendAsync(RemoteDevice remoteDevice, ConfirmedRequestService request, ResponseConsumer consumer)
+                throws InterruptedException {
+            shard.requests.increment();
+            shard.inFlight.incrementAndGet();
+            long start = System.nanoTime();
+            try {
+                sendAsync(remoteDevice, request, consumer, start);
+            } catch (InterruptedException e) {
+                // Interrupted waiting for a send permit: nothing was sent
+                shard.requests.decrement();
+                shard.inFlight.decrementAndGet();
+                throw e;
+            }
+        }
+
+        private void sendAsync(RemoteDevice remoteDevice, ConfirmedRequestService request, ResponseConsumer consumer,
+                long start) throws InterruptedException {
+            shard.sender.sendAsync(remoteDevice, request, new ResponseConsumer() {
+                @Override
+                public void success(AcknowledgementService ack) {
+                    done(false);
+                    consumer.success(ack);
+                }
+
+                @Override
+                public void fail(AckAPDU ack) {
+                    done(true);
+                    consumer.fail(ack);
+                }
+
+                @Override
+                public void ex(BACnetException e) {
+                    done(true);
+                    consumer.ex(e);
+                }
+
+                private void done(boolean error) {
+                    if (error) {
+                        shard.errors.increment();
+                    }
+                    shard.latencyNanos.add(System.nanoTime() - start);
+                    shard.inFlight.decrementAndGet();
+                }
+            });
+        }
+
+        /** Sends an unconfirmed request (e.g. Who-Is) to the gateway itself. */
+        public void send(UnconfirmedRequestService request) {
+            shard.localDevice.send(address, request);
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port + " (shard " + shard.index + ")";
+        }
+    }
+
+    private final String bindAddress;
+    private final int basePort;
+    private final int shardCount;
+    private final int baseDeviceInstance;
+
+    private final List<Shard> shards = new ArrayList<>();
+    private final Map<String, Gateway> gateways = new ConcurrentHashMap<>();
+
+    /**
+     * @param baseDeviceInstance shard {@code i} is local device {@code baseDeviceInstance + i}
+     */
+    public GatewayConnectionManager(String bindAddress, int basePort, int shardCount, int baseDeviceInstance) {
+        this.bindAddress = bindAddress;
+        this.basePort = basePort;
+        this.shardCount = shardCount;
+        this.baseDeviceInstance = baseDeviceInstance;
+    }
+
+    /** One shard per core, starting at port 47809. */
+    public GatewayConnectionManager() {
+        this("0.0.0.0", 47809, Runtime.getRuntime().availableProcessors(), 234234);
+    }
+
+    /** Starts every shard, or none: shards already up are terminated if a later one fails. */
+    public void start() throws Exception {
+        try {
+            startShards();
+        } catch (Exception e) {
+            close();
+            throw e;
+        }
+        System.out.println("Gateway manager started " + shardCount + " local devices on ports "
+                + basePort + "-" + (basePort + shardCount - 1));
+    }
+
+    private void startShards() throws Exception {
+        for (int i = 0; i < shardCount; i++) {
+            int port = basePort + i;
+            IpNetwork network = new IpNetworkBuilder()
+                    .withLocalBindAddress(bindAddress)
+                    .withSubnet("255.255.255.0", 32)  // Single host subnet for WAN connections
+                    .withPort(port)
+                    .withReuseAddress(true)
+                    .build();
+
+            DefaultTransport transport = new DefaultTransport(network);
+            DeviceRequestSender.leaveRetriesToSender(transport);
+            LocalDevice local = new LocalDevice(baseDeviceInstance + i, transport);
+            try {
+                local.initialize();
+            } catch (Exception e) {
+                // Release whatever initialize got to, e.g. a bound socket
+                terminateQuietly(local);
+                throw e;
+            }
+            shards.add(new Shard(i, port, local));
+        }
+    }
+
+    /**
+     * Returns the gateway at {@code host:port}, pinning it to the shard with
+     * the fewest gateways the first time it is seen.
+     */
+    public Gateway addGateway(String host, int port) throws UnknownHostException {
+        String key = host + ":" + port;
+        Gateway existing = gateways.get(key);
+        if (existing != null) {
+            return existing;
+        }
+
+        byte[] ipBytes = InetAddress.getByName(host).getAddress();
+        Address address = new Address(IpNetworkUtils.toOctetString(ipBytes, port));
+
+        synchronized (this) {
+            existing = gateways.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            Shard shard = leastLoaded();
+            shard.gateways.incrementAndGet();
+            Gateway gateway = new Gateway(host, port, address, shard);
+            gateways.put(key, gateway);
+            return gateway;
+        }
+    }
+
+    public synchronized void removeGateway(Gateway gateway) {
+        if (gateways.remove(gateway.host + ":" + gateway.port) != null) {
+            gateway.shard.gateways.decrementAndGet();
+        }
+    }
+
+    public Gateway getGateway(String host, int port) {
+        return gateways.get(host + ":" + port);
+    }
+
+    public Collection<Gateway> getGateways() {
+        return Collections.unmodifiableCollection(gateways.values());
+    }
+
+    public List<Shard> getShards() {
+        return Collections.unmodifiableList(shards);
+    }
+
+    public void printShardLoad() {
+        for (Shard shard : shards) {
+            System.out.println(shard);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Shard shard : shards) {
+            terminateQuietly(shard.localDevice);
+        }
+        shards.clear();
+        gateways.clear();
+    }
+
+    private static void terminateQuietly(LocalDevice localDevice) {
+        try {
+            localDevice.terminate();
+        } catch (RuntimeException e) {
+            System.err.println("Failed to terminate local device "
+                    + localDevice.getInstanceNumber() + ": " + e.getMessage());
+        }
+    }
+
+    private Shard leastLoaded() {
+        if (shards.isEmpty()) {
+            throw new IllegalStateException("Gateway manager not started");
+        }
+        Shard best = shards.get(0);
+        for (Shard shard : shards) {
+            if (shard.gateways.get() < best.gateways.get()) {
+                best = shard;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,154 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashed timer wheel (Varghese &amp; Lauck) for large numbers of coarse,
+ * mostly-cancelled timeouts such as subscription renewals.
+ * <p>
+ * One thread advances the wheel every tick and runs the tasks whose deadline
+ * has passed, so scheduling and cancelling are O(1) and a million pending
+ * timeouts cost one thread and one small object each. Deadlines are rounded
+ * up to the next tick. Tasks run on the wheel thread and must be short; hand
+ * real work to an executor.
+ */
+public final class HashedTimerWheel implements AutoCloseable {
+
+    /** Handle for a scheduled task. */
+    public static final class Timeout {
+
+        private final Runnable task;
+        private final long deadlineNanos;
+        private long remainingRounds;
+        private volatile boolean cancelled;
+
+        private Timeout(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /** Stops the task from running if it hasn't yet. */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private final long tickNanos;
+    private final int mask;
+    private final List<List<Timeout>> buckets;
+    private final Queue<Timeout> incoming = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final long startNanos = System.nanoTime();
+    private final Thread worker;
+    private volatile boolean running = true;
+    private long tick;
+
+    /**
+     * @param wheelSize rounded up to a power of two; timeouts further out than
+     *                  {@code tick * wheelSize} just wait extra rounds
+     */
+    public HashedTimerWheel(long tick, TimeUnit unit, int wheelSize, String threadName) {
+        this.tickNanos = Math.max(1, unit.toNanos(tick));
+        int size = Integer.highestOneBit(Math.max(2, wheelSize - 1)) << 1;
+        this.mask = size - 1;
+        this.buckets = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            buckets.add(new ArrayList<>());
+        }
+        this.worker = new Thread(this::run, threadName);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (!running) {
+            throw new IllegalStateException("Timer wheel is stopped");
+        }
+        Timeout timeout = new Timeout(task, System.nanoTime() + unit.toNanos(Math.max(0, delay)));
+        pending.incrementAndGet();
+        incoming.add(timeout);
+        return timeout;
+    }
+
+    /** Scheduled timeouts not yet run or discarded (includes cancelled ones until their slot comes round). */
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    /** Stops the wheel thread. Tasks still pending never run. */
+    @Override
+    public void close() {
+        running = false;
+        worker.interrupt();
+    }
+
+    // --------------------------------------------------------------------
+
+    private void run() {
+        while (running) {
+            long nextTickAt = startNanos + (tick + 1) * tickNanos;
+            long sleep = nextTickAt - System.nanoTime();
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    if (!running) {
+                        return;
+                    }
+                    continue;
+                }
+            }
+
+            transferIncoming();
+            expire(buckets.get((int) (tick & mask)));
+            tick++;
+        }
+    }
+
+    private void transferIncoming() {
+        Timeout timeout;
+        while ((timeout = incoming.poll()) != null) {
+            if (timeout.cancelled) {
+                pending.decrementAndGet();
+                continue;
+            }
+            long dueTick = Math.max(tick, ceilDiv(timeout.deadlineNanos - startNanos, tickNanos) - 1);
+            timeout.remainingRounds = (dueTick - tick) / buckets.size();
+            buckets.get((int) (dueTick & mask)).add(timeout);
+        }
+    }
+
+    private void expire(List<Timeout> bucket) {
+        int kept = 0;
+        for (int i = 0; i < bucket.size(); i++) {
+            Timeout timeout = bucket.get(i);
+            if (timeout.cancelled) {
+                pending.decrementAndGet();
+            } else if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+                bucket.set(kept++, timeout);
+            } else {
+                pending.decrementAndGet();
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    System.err.println("Timer task failed: " + e);
+                }
+            }
+        }
+        bucket.subList(kept, bucket.size()).clear();
+    }
+
+    private static long ceilDiv(long a, long b) {
+        return a <= 0 ? 0 : (a + b - 1) / b;
+    }
+}
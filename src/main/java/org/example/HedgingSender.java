@@ -0,0 +1,224 @@
+package org.example;
+
+import com.serotonin.bacnet4j.LocalDevice;
+import com.serotonin.bacnet4j.RemoteDevice;
+import com.serotonin.bacnet4j.ResponseConsumer;
+import com.serotonin.bacnet4j.apdu.AckAPDU;
+import com.serotonin.bacnet4j.exception.BACnetException;
+import com.serotonin.bacnet4j.service.acknowledgement.AcknowledgementService;
+import com.serotonin.bacnet4j.service.confirmed.ConfirmedRequestService;
+import com.serotonin.bacnet4j.service.confirmed.ReadPropertyMultipleRequest;
+import com.serotonin.bacnet4j.service.confirmed.ReadPropertyRequest;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cuts the latency tail of idempotent reads by sending a second copy when
+ * the first is slow.
+ * <p>
+ * Each device's response times go into a {@link LatencyHistogram}. A read
+ * that hasn't been answered by the device's p95 gets a hedge: the same
+ * request again, with its own invoke ID. The first response wins and the
+ * other is ignored. A lost request or response then costs about one p95
+ * instead of a full transport timeout. The hedge is a single copy that is
+ * never retransmitted, and no hedge is sent when the sender would
+ * retransmit the original first.
+ * <p>
+ * Hedges are paid for from a per-device budget that earns
+ * {@code budgetFraction} of a hedge per read, so a device never sees more
+ * than that fraction of extra load, even when it is slow across the board.
+ * Only ReadProperty and ReadPropertyMultiple are accepted.
+ */
+public final class HedgingSender {
+
+    private static final int MIN_SAMPLES = 20;
+    private static final long MIN_HEDGE_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final double MAX_BUDGET = 10;
+    private static final int DECAY_EVERY = 1000;
+
+    private final DeviceRequestSender sender;
+    private final Map<DeviceKey, DeviceHedging> devices = new ConcurrentHashMap<>();
+    private volatile double budgetFraction = 0.05;
+
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+
+    private static final class DeviceHedging {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicInteger sinceDecay = new AtomicInteger();
+        double budget;
+
+        synchronized void earn(double amount) {
+            budget = Math.min(MAX_BUDGET, budget + amount);
+        }
+
+        synchronized boolean spend() {
+            if (budget < 1) {
+                return false;
+            }
+            budget -= 1;
+            return true;
+        }
+    }
+
+    public HedgingSender(LocalDevice localDevice) {
+        this.sender = DeviceRequestSender.forLocal(localDevice);
+    }
+
+    /** Hedges allowed per read, per device (0.05 = at most 5% extra requests). */
+    public void setBudgetFraction(double budgetFraction) {
+        this.budgetFraction = budgetFraction;
+    }
+
+    /**
+     * Sends a ReadProperty or ReadPropertyMultiple and returns the first
+     * response, hedging it once if it is slower than the device's p95.
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends AcknowledgementService> T send(RemoteDevice remoteDevice, ConfirmedRequestService request)
+            throws BACnetException {
+
+        if (!(request instanceof ReadPropertyRequest) && !(request instanceof ReadPropertyMultipleRequest)) {
+            throw new IllegalArgumentException("Only reads can be hedged: " + request.getClass().getSimpleName());
+        }
+
+        DeviceHedging hedging = devices.computeIfAbsent(DeviceKey.of(remoteDevice), k -> new DeviceHedging());
+        hedging.earn(budgetFraction);
+        reads.increment();
+
+        Race race = new Race();
+        long start = System.nanoTime();
+        sendCopy(remoteDevice, request, race, false);
+
+        try {
+            long delay = hedgeDelayNanos(hedging);
+            // Past the device's timeout the sender retransmits anyway; a hedge would only add a copy
+            if (delay > 0 && delay < TimeUnit.MILLISECONDS.toNanos(sender.rtoFor(remoteDevice).getTimeoutMillis())) {
+                try {
+                    return (T) finish(hedging, start, race.result.get(delay, TimeUnit.NANOSECONDS));
+                } catch (TimeoutException e) {
+                    if (hedging.spend()) {
+                        hedges.increment();
+                        sendCopy(remoteDevice, request, race, true);
+                    }
+                }
+            }
+            return (T) finish(hedging, start, race.result.get());
+
+        } catch (ExecutionException e) {
+            // A slow failure is as much a part of the tail as a slow success
+            recordLatency(hedging, start);
+            if (e.getCause() instanceof BACnetException bacnet) {
+                throw bacnet;
+            }
+            throw new BACnetException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BACnetException("Interrupted waiting for response", e);
+        }
+    }
+
+    /** The current hedge threshold for a device, or 0 if there aren't enough samples yet. */
+    public long getHedgeDelayMillis(RemoteDevice remoteDevice) {
+        DeviceHedging hedging = devices.get(DeviceKey.of(remoteDevice));
+        return hedging == null ? 0 : TimeUnit.NANOSECONDS.toMillis(hedgeDelayNanos(hedging));
+    }
+
+    public long getReads() {
+        return reads.sum();
+    }
+
+    public long getHedges() {
+        return hedges.sum();
+    }
+
+    /** Hedges whose copy answered first. */
+    public long getHedgeWins() {
+        return hedgeWins.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "Hedging: reads=" + getReads() + " hedges=" + getHedges() + " hedgeWins=" + getHedgeWins();
+    }
+
+    // --------------------------------------------------------------------
+
+    private record Response(AcknowledgementService ack, boolean fromHedge) {
+    }
+
+    /** First response of the copies in flight; fails only when every copy failed. */
+    private static final class Race {
+        final CompletableFuture<Response> result = new CompletableFuture<>();
+        final AtomicInteger outstanding = new AtomicInteger();
+
+        void failed(BACnetException e) {
+            if (outstanding.decrementAndGet() == 0) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void sendCopy(RemoteDevice remoteDevice, ConfirmedRequestService request, Race race, boolean hedge)
+            throws BACnetException {
+        race.outstanding.incrementAndGet();
+        try {
+            ResponseConsumer consumer = new ResponseConsumer() {
+                @Override
+                public void success(AcknowledgementService ack) {
+                    race.result.complete(new Response(ack, hedge));
+                }
+
+                @Override
+                public void fail(AckAPDU ack) {
+                    race.failed(DeviceRequestSender.toException(ack));
+                }
+
+                @Override
+                public void ex(BACnetException e) {
+                    race.failed(e);
+                }
+            };
+            if (hedge) {
+                sender.sendOnceAsync(remoteDevice, request, consumer);
+            } else {
+                sender.sendAsync(remoteDevice, request, consumer);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            race.outstanding.decrementAndGet();
+            throw new BACnetException("Interrupted waiting for send window", e);
+        }
+    }
+
+    private AcknowledgementService finish(DeviceHedging hedging, long start, Response response) {
+        recordLatency(hedging, start);
+        if (response.fromHedge()) {
+            hedgeWins.increment();
+        }
+        return response.ack();
+    }
+
+    private static void recordLatency(DeviceHedging hedging, long start) {
+        hedging.latency.record(System.nanoTime() - start);
+        if (hedging.sinceDecay.incrementAndGet() >= DECAY_EVERY) {
+            hedging.sinceDecay.set(0);
+            hedging.latency.decay();
+        }
+    }
+
+    private static long hedgeDelayNanos(DeviceHedging hedging) {
+        if (hedging.latency.getCount() < MIN_SAMPLES) {
+            return 0;
+        }
+        return Math.max(MIN_HEDGE_DELAY_NANOS, hedging.latency.percentileNanos(95));
+    }
+}
@@ -0,0 +1,127 @@
+package org.example;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with log-linear buckets, in the spirit of
+ * HdrHistogram: each power of two of microseconds is split into
+ * {@value #SUB_BUCKETS} linear sub-buckets, so any recorded value is known to
+ * within 1/{@value #SUB_BUCKETS} of itself from 1 µs up to about 19 hours.
+ * Recording is two atomic adds and never allocates.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAGNITUDES = 33;
+
+    private final AtomicLongArray counts = new AtomicLongArray(MAGNITUDES * SUB_BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sumMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(index(micros));
+        total.incrementAndGet();
+        sumMicros.addAndGet(micros);
+        if (micros > maxMicros.get()) {
+            maxMicros.accumulateAndGet(micros, Math::max);
+        }
+    }
+
+    public long getCount() {
+        return total.get();
+    }
+
+    /**
+     * The value at percentile {@code p} (0..100), as the upper edge of its
+     * bucket, in nanoseconds. 0 if nothing was recorded.
+     */
+    public long percentileNanos(double p) {
+        long count = total.get();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * p / 100.0));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperEdge(i), maxMicros.get()) * 1000;
+            }
+        }
+        return maxMicros.get() * 1000;
+    }
+
+    public long meanNanos() {
+        long count = total.get();
+        return count == 0 ? 0 : sumMicros.get() / count * 1000;
+    }
+
+    public long maxNanos() {
+        return maxMicros.get() * 1000;
+    }
+
+    /**
+     * Halves every count, so percentiles follow recent behaviour. Not atomic
+     * with concurrent records; good enough for adaptive thresholds.
+     */
+    public void decay() {
+        long remaining = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            long c = counts.get(i);
+            if (c != 0) {
+                long halved = c >>> 1;
+                counts.addAndGet(i, halved - c);
+                remaining += halved;
+            }
+        }
+        total.set(remaining);
+        sumMicros.set(sumMicros.get() / 2);
+    }
+
+    /** Adds all of {@code other}'s samples to this histogram. */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length(); i++) {
+            long c = other.counts.get(i);
+            if (c != 0) {
+                counts.addAndGet(i, c);
+            }
+        }
+        total.addAndGet(other.total.get());
+        sumMicros.addAndGet(other.sumMicros.get());
+        maxMicros.accumulateAndGet(other.maxMicros.get(), Math::max);
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        total.set(0);
+        sumMicros.set(0);
+        maxMicros.set(0);
+    }
+
+    private static int index(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS + 1;
+        if (magnitude >= MAGNITUDES) {
+            return MAGNITUDES * SUB_BUCKETS - 1;
+        }
+        int sub = (int) (micros >>> (magnitude - 1)) - SUB_BUCKETS;
+        return magnitude * SUB_BUCKETS + sub;
+    }
+
+    private static long upperEdge(int index) {
+        int magnitude = index / SUB_BUCKETS;
+        int sub = index % SUB_BUCKETS;
+        if (magnitude == 0) {
+            return sub;
+        }
+        return ((long) (SUB_BUCKETS + sub + 1) << (magnitude - 1)) - 1;
+    }
+}
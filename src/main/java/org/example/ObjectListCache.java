@@ -0,0 +1,359 @@
+package org.example;
+
+import com.serotonin.bacnet4j.LocalDevice;
+import com.serotonin.bacnet4j.RemoteDevice;
+import com.serotonin.bacnet4j.type.Encodable;
+import com.serotonin.bacnet4j.type.constructed.ObjectPropertyReference;
+import com.serotonin.bacnet4j.type.enumerated.EngineeringUnits;
+import com.serotonin.bacnet4j.type.enumerated.ObjectType;
+import com.serotonin.bacnet4j.type.enumerated.PropertyIdentifier;
+import com.serotonin.bacnet4j.type.primitive.CharacterString;
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+import com.serotonin.bacnet4j.type.primitive.UnsignedInteger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * On-disk cache of each device's object list plus the name and units of every
+ * object, so a restart doesn't re-enumerate unchanged controllers.
+ * <p>
+ * An entry is only trusted while the device still reports the same
+ * {@code databaseRevision} and {@code lastRestoreTime}; either one changing
+ * means the configuration was edited or restored and the list is re-read.
+ * A list is only stored when every entry and every name and units value
+ * could be read; otherwise the gaps would be served until the revision
+ * changes, which on many controllers is never.
+ * <p>
+ * Each device lives in its own {@code device-<instance>-<address>.olc}
+ * file, the address as in {@link DeviceKey#addressText}, since instance
+ * numbers are only unique per site:
+ * <pre>
+ *   int    magic, short version, short reserved
+ *   int    device instance
+ *   long   databaseRevision
+ *   long   lastRestoreTime fingerprint
+ *   int    object count
+ *   count x (int packed object id, int units, int name offset)
+ *   names: (short length, UTF-8 bytes)...
+ * </pre>
+ * Files are memory-mapped on {@link #load} and decoded lazily, so a warm start
+ * costs one validation read per device instead of a full enumeration.
+ */
+public final class ObjectListCache {
+
+    private static final int MAGIC = 0x424F4C43; // "BOLC"
+    private static final short VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 2 + 2 + 4 + 8 + 8 + 4;
+    private static final int ENTRY_BYTES = 12;
+    private static final String SUFFIX = ".olc";
+
+    /** Object types that carry a {@code units} property worth caching. */
+    private static final Set<ObjectType> TYPES_WITH_UNITS = Set.of(
+            ObjectType.analogInput,
+            ObjectType.analogOutput,
+            ObjectType.analogValue,
+            ObjectType.largeAnalogValue,
+            ObjectType.integerValue,
+            ObjectType.positiveIntegerValue,
+            ObjectType.accumulator
+    );
+
+    private final Path directory;
+    private final Map<DeviceKey, CachedDevice> devices = new ConcurrentHashMap<>();
+    private final SegmentationProfiles segmentationProfiles;
+
+    public ObjectListCache(Path directory) {
+        this.directory = directory;
+        this.segmentationProfiles = new SegmentationProfiles(directory.resolve("segmentation.txt"));
+    }
+
+    /**
+     * Maps every cache file in the directory. Unreadable or foreign files are
+     * skipped; they will simply be rewritten on the next full read.
+     */
+    public void load() throws IOException {
+        Files.createDirectories(directory);
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "device-*" + SUFFIX)) {
+            for (Path file : files) {
+                try {
+                    String name = file.getFileName().toString();
+                    String[] parts = name.substring("device-".length(), name.length() - SUFFIX.length())
+                            .split("-", 2);
+                    if (parts.length != 2) {
+                        // Written before files carried the address; re-read on first use
+                        System.err.println("Ignoring object cache without address: " + file);
+                        continue;
+                    }
+                    CachedDevice device = CachedDevice.map(file);
+                    devices.put(DeviceKey.parse(device.deviceInstance, parts[1]), device);
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Ignoring object cache " + file + ": " + e.getMessage());
+                }
+            }
+        }
+
+        System.out.println("Object cache: " + devices.size() + " device(s) loaded from " + directory);
+        segmentationProfiles.load();
+    }
+
+    /** How each device's object list was last read in one request; kept next to the cache files. */
+    public SegmentationProfiles getSegmentationProfiles() {
+        return segmentationProfiles;
+    }
+
+    public CachedDevice get(RemoteDevice remoteDevice) {
+        return devices.get(DeviceKey.of(remoteDevice));
+    }
+
+    /**
+     * Returns the device's objects from the cache if its revision still
+     * matches, otherwise reads the object list and metadata from the device
+     * and stores them, if every entry of the list could be read.
+     */
+    public List<ObjectMetadata> getOrRead(LocalDevice localDevice, RemoteDevice remoteDevice)
+            throws Exception {
+
+        BatchReadEngine engine = BatchReadEngine.forLocal(localDevice);
+        ObjectIdentifier deviceOid = new ObjectIdentifier(ObjectType.device, remoteDevice.getInstanceNumber());
+
+        List<Encodable> revision = engine.read(remoteDevice, List.of(
+                new ObjectPropertyReference(deviceOid, PropertyIdentifier.databaseRevision),
+                new ObjectPropertyReference(deviceOid, PropertyIdentifier.lastRestoreTime)
+        ));
+
+        boolean validatable = revision.get(0) instanceof UnsignedInteger;
+        long databaseRevision = validatable ? ((UnsignedInteger) revision.get(0)).longValue() : -1;
+        long restoreFingerprint = fingerprint(revision.get(1));
+
+        DeviceKey key = DeviceKey.of(remoteDevice);
+        CachedDevice cached = devices.get(key);
+        if (validatable && cached != null
+                && cached.databaseRevision == databaseRevision
+                && cached.restoreFingerprint == restoreFingerprint) {
+            return cached.toList();
+        }
+
+        if (!validatable) {
+            System.out.println("Device " + remoteDevice.getInstanceNumber()
+                    + " has no readable databaseRevision; object list can't be cached");
+        }
+
+        ObjectListReader.Result list = ObjectListReader.read(localDevice, remoteDevice, segmentationProfiles);
+        Metadata metadata = readMetadata(engine, remoteDevice, list.objects());
+
+        // A partial list, or one with names or units missing, would be served on every
+        // restart until the revision changes.
+        if (validatable && list.isComplete() && metadata.failed() == 0) {
+            store(key, databaseRevision, restoreFingerprint, metadata.objects());
+        } else if (validatable && !list.isComplete()) {
+            System.out.println("Device " + remoteDevice.getInstanceNumber() + ": read "
+                    + list.objects().size() + " of " + list.size() + " objects; not cached");
+        } else if (validatable) {
+            System.out.println("Device " + remoteDevice.getInstanceNumber() + ": " + metadata.failed()
+                    + " name/units read(s) failed; not cached");
+        }
+        return metadata.objects();
+    }
+
+    // --------------------------------------------------------------------
+
+    /** Objects with their names and units, and how many of those reads failed. */
+    private record Metadata(List<ObjectMetadata> objects, int failed) {
+    }
+
+    private static Metadata readMetadata(
+            BatchReadEngine engine,
+            RemoteDevice remoteDevice,
+            List<ObjectIdentifier> oids
+    ) throws Exception {
+
+        List<ObjectPropertyReference> refs = new ArrayList<>(oids.size() * 2);
+        for (ObjectIdentifier oid : oids) {
+            refs.add(new ObjectPropertyReference(oid, PropertyIdentifier.objectName));
+            if (TYPES_WITH_UNITS.contains(oid.getObjectType())) {
+                refs.add(new ObjectPropertyReference(oid, PropertyIdentifier.units));
+            }
+        }
+
+        List<Encodable> values = engine.read(remoteDevice, refs);
+
+        int failed = 0;
+        for (Encodable value : values) {
+            if (BatchReadEngine.isError(value)) {
+                failed++;
+            }
+        }
+
+        List<ObjectMetadata> objects = new ArrayList<>(oids.size());
+        int v = 0;
+        for (ObjectIdentifier oid : oids) {
+            Encodable name = values.get(v++);
+            int units = ObjectMetadata.NO_UNITS;
+            if (TYPES_WITH_UNITS.contains(oid.getObjectType())
+                    && values.get(v++) instanceof EngineeringUnits eu) {
+                units = eu.intValue();
+            }
+            objects.add(new ObjectMetadata(
+                    oid,
+                    name instanceof CharacterString cs ? cs.getValue() : "",
+                    units
+            ));
+        }
+        return new Metadata(objects, failed);
+    }
+
+    private void store(
+            DeviceKey key,
+            long databaseRevision,
+            long restoreFingerprint,
+            List<ObjectMetadata> objects
+    ) throws IOException {
+
+        List<byte[]> names = new ArrayList<>(objects.size());
+        int namesBytes = 0;
+        for (ObjectMetadata object : objects) {
+            byte[] name = object.name().getBytes(StandardCharsets.UTF_8);
+            if (name.length > 0xFFFF) {
+                name = Arrays.copyOf(name, 0xFFFF);
+            }
+            names.add(name);
+            namesBytes += 2 + name.length;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES + objects.size() * ENTRY_BYTES + namesBytes);
+        buf.putInt(MAGIC).putShort(VERSION).putShort((short) 0);
+        buf.putInt(key.instance());
+        buf.putLong(databaseRevision);
+        buf.putLong(restoreFingerprint);
+        buf.putInt(objects.size());
+
+        int nameOffset = 0;
+        for (int i = 0; i < objects.size(); i++) {
+            ObjectMetadata object = objects.get(i);
+            buf.putInt(ObjectMetadata.pack(object.oid()));
+            buf.putInt(object.units());
+            buf.putInt(nameOffset);
+            nameOffset += 2 + names.get(i).length;
+        }
+        for (byte[] name : names) {
+            buf.putShort((short) name.length).put(name);
+        }
+        buf.flip();
+
+        Path file = directory.resolve("device-" + key.instance() + "-" + key.addressText() + SUFFIX);
+        Path tmp = directory.resolve(file.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+            ch.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        devices.put(key, CachedDevice.map(file));
+    }
+
+    /** 64-bit FNV-1a of the value's text form; 0 when the device doesn't report it. */
+    private static long fingerprint(Encodable value) {
+        if (BatchReadEngine.isError(value)) {
+            return 0;
+        }
+        long hash = 0xcbf29ce484222325L;
+        String text = value.toString();
+        for (int i = 0; i < text.length(); i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    // --------------------------------------------------------------------
+
+    /** One device's mapped cache file. */
+    public static final class CachedDevice {
+
+        private final ByteBuffer buffer;
+        private final int deviceInstance;
+        private final long databaseRevision;
+        private final long restoreFingerprint;
+        private final int count;
+        private final int namesStart;
+
+        private CachedDevice(ByteBuffer buffer) {
+            if (buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSION) {
+                throw new IllegalStateException("not an object cache file");
+            }
+            this.buffer = buffer;
+            this.deviceInstance = buffer.getInt(8);
+            this.databaseRevision = buffer.getLong(12);
+            this.restoreFingerprint = buffer.getLong(20);
+            this.count = buffer.getInt(28);
+            this.namesStart = HEADER_BYTES + count * ENTRY_BYTES;
+            if (namesStart > buffer.limit()) {
+                throw new IllegalStateException("truncated object cache file");
+            }
+        }
+
+        static CachedDevice map(Path file) throws IOException {
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                return new CachedDevice(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+            }
+        }
+
+        public int getDeviceInstance() {
+            return deviceInstance;
+        }
+
+        public long getDatabaseRevision() {
+            return databaseRevision;
+        }
+
+        public int size() {
+            return count;
+        }
+
+        public int packedObjectId(int i) {
+            return buffer.getInt(HEADER_BYTES + i * ENTRY_BYTES);
+        }
+
+        public ObjectIdentifier objectId(int i) {
+            return ObjectMetadata.unpack(packedObjectId(i));
+        }
+
+        public int units(int i) {
+            return buffer.getInt(HEADER_BYTES + i * ENTRY_BYTES + 4);
+        }
+
+        public String name(int i) {
+            int at = namesStart + buffer.getInt(HEADER_BYTES + i * ENTRY_BYTES + 8);
+            int length = buffer.getShort(at) & 0xFFFF;
+            byte[] bytes = new byte[length];
+            buffer.get(at + 2, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        public List<ObjectMetadata> toList() {
+            List<ObjectMetadata> objects = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                objects.add(new ObjectMetadata(objectId(i), name(i), units(i)));
+            }
+            return objects;
+        }
+    }
+}
@@ -6,6 +6,8 @@ import com.serotonin.bacnet4j.exception.*;
 import com.serotonin.bacnet4j.obj.*;
 import com.serotonin.bacnet4j.service.acknowledgement.*;
 import com.serotonin.bacnet4j.service.confirmed.*;
+import com.serotonin.bacnet4j.transport.DefaultTransport;
+import com.serotonin.bacnet4j.type.Encodable;
 import com.serotonin.bacnet4j.type.constructed.*;
 import com.serotonin.bacnet4j.type.enumerated.*;
 import com.serotonin.bacnet4j.type.primitive.*;
@@ -13,10 +15,33 @@ import com.serotonin.bacnet4j.type.primitive.*;
 import java.util.*;
 import java.util.concurrent.*;
 
+/**
+ * Reads a device's whole object list.
+ * <p>
+ * Where the device can send segmented responses, the list is first asked
+ * for in one ReadProperty, which isn't retransmitted before its segments
+ * could have arrived at the pace the device managed before (see
+ * {@link SegmentationProfiles}). If that is refused or times out, or the
+ * device can't segment, the list is read by index in batches through
+ * {@link BatchReadEngine}.
+ */
 public final class ObjectListReader {
 
-    private static final int TIMEOUT_SEC = 5;
-    private static final int MAX_RETRIES = 3;
+    /** Encoded size of one object identifier in the array, and the ack around it. */
+    private static final int OBJECT_ID_BYTES = 5;
+    private static final int ACK_OVERHEAD_BYTES = 16;
+
+    private static final SegmentationProfiles MEMORY_PROFILES = new SegmentationProfiles(null);
+
+    /**
+     * The objects that could be read, and the size the device reported for
+     * its object list. They differ when some entries failed or timed out.
+     */
+    public record Result(List<ObjectIdentifier> objects, int size) {
+        public boolean isComplete() {
+            return objects.size() == size;
+        }
+    }
 
     private ObjectListReader() {}
 
@@ -24,6 +49,29 @@ public final class ObjectListReader {
             LocalDevice localDevice,
             RemoteDevice remoteDevice
     ) throws Exception {
+        return readAll(localDevice, remoteDevice, MEMORY_PROFILES);
+    }
+
+    /**
+     * The objects that could be read; entries that failed are logged and
+     * left out. Use {@link #read} to find out whether any were.
+     *
+     * @param profiles where each device's segmentation results are kept;
+     *                 pass a file-backed instance to remember them across runs
+     */
+    public static List<ObjectIdentifier> readAll(
+            LocalDevice localDevice,
+            RemoteDevice remoteDevice,
+            SegmentationProfiles profiles
+    ) throws Exception {
+        return read(localDevice, remoteDevice, profiles).objects();
+    }
+
+    public static Result read(
+            LocalDevice localDevice,
+            RemoteDevice remoteDevice,
+            SegmentationProfiles profiles
+    ) throws Exception {
 
         ObjectIdentifier deviceOid =
                 new ObjectIdentifier(
@@ -33,103 +81,127 @@ public final class ObjectListReader {
 
         int size = readArraySize(localDevice, remoteDevice, deviceOid);
 
-        List<ObjectIdentifier> result = new ArrayList<>(size);
+        int estimatedBytes = size * OBJECT_ID_BYTES + ACK_OVERHEAD_BYTES;
+        if (size > 1 && profiles.shouldTryWholeList(remoteDevice, estimatedBytes)) {
+            List<ObjectIdentifier> whole =
+                    readWhole(localDevice, remoteDevice, deviceOid, estimatedBytes, profiles);
+            if (whole != null) {
+                return new Result(whole, size);
+            }
+        }
 
+        List<ObjectPropertyReference> refs = new ArrayList<>(size);
         for (int i = 1; i <= size; i++) {
-            ObjectIdentifier oid =
-                    readArrayElement(
-                            localDevice,
-                            remoteDevice,
-                            deviceOid,
-                            i
-                    );
-
-            if (oid != null) {
-                result.add(oid);
-            }
+            refs.add(new ObjectPropertyReference(
+                    deviceOid,
+                    PropertyIdentifier.objectList,
+                    new UnsignedInteger(i)
+            ));
         }
 
-        return result;
-    }
+        List<Encodable> values =
+                BatchReadEngine.forLocal(localDevice).read(
+                        remoteDevice,
+                        refs,
+                        BatchReadEngine.OBJECT_LIST_RESULT_BYTES
+                );
 
-    // --------------------------------------------------------------------
+        List<ObjectIdentifier> result = new ArrayList<>(size);
 
-    private static int readArraySize(
-            LocalDevice localDevice,
-            RemoteDevice remoteDevice,
-            ObjectIdentifier deviceOid
-    ) throws Exception {
+        for (int i = 0; i < values.size(); i++) {
+            Encodable value = values.get(i);
 
-        ReadPropertyRequest request =
-                new ReadPropertyRequest(
-                        deviceOid,
-                        PropertyIdentifier.objectList,
-                        UnsignedInteger.ZERO
+            if (value instanceof ObjectIdentifier oid) {
+                result.add(oid);
+            } else {
+                System.err.println(
+                        "Failed reading object-list[" + (i + 1) + "] from device "
+                                + remoteDevice.getInstanceNumber() + ": " + value
                 );
+            }
+        }
 
-        ReadPropertyAck ack =
-                sendWithRetry(localDevice, remoteDevice, request);
-
-        return ((UnsignedInteger) ack.getValue()).intValue();
+        return new Result(result, size);
     }
 
-    private static ObjectIdentifier readArrayElement(
+    // --------------------------------------------------------------------
+
+    /**
+     * Reads the whole array in one request. Returns null if the device
+     * couldn't send it, after recording why in the profile.
+     */
+    private static List<ObjectIdentifier> readWhole(
             LocalDevice localDevice,
             RemoteDevice remoteDevice,
             ObjectIdentifier deviceOid,
-            int index
-    ) {
+            int estimatedBytes,
+            SegmentationProfiles profiles
+    ) throws Exception {
 
-        ReadPropertyRequest request =
-                new ReadPropertyRequest(
-                        deviceOid,
-                        PropertyIdentifier.objectList,
-                        new UnsignedInteger(index)
-                );
+        SegmentationProfiles.Profile profile = profiles.get(remoteDevice);
+        ReadPropertyRequest request = new ReadPropertyRequest(deviceOid, PropertyIdentifier.objectList);
+        int segments = DeviceRequestSender.segments(remoteDevice, estimatedBytes);
 
+        long start = System.nanoTime();
         try {
-            ReadPropertyAck ack =
-                    sendWithRetry(localDevice, remoteDevice, request);
+            ReadPropertyAck ack = DeviceRequestSender.forLocal(localDevice)
+                    .send(remoteDevice, request, minTimeoutMillis(localDevice, profile, segments));
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
 
-            return (ObjectIdentifier) ack.getValue();
+            if (!(ack.getValue() instanceof SequenceOf<?> list)) {
+                profiles.onRefused(remoteDevice);
+                return null;
+            }
+            List<ObjectIdentifier> result = new ArrayList<>(list.size());
+            for (Encodable value : list) {
+                if (value instanceof ObjectIdentifier oid) {
+                    result.add(oid);
+                }
+            }
+            profiles.onSuccess(remoteDevice, segments, elapsed);
+            System.out.println("Read object-list of device " + remoteDevice.getInstanceNumber()
+                    + " in one request: " + result.size() + " objects, " + segments + " segment(s), "
+                    + elapsed + "ms (" + profile + ")");
+            return result;
 
         } catch (BACnetTimeoutException e) {
-            System.err.println(
-                    "Timeout reading object-list[" + index + "] from device "
-                            + remoteDevice.getInstanceNumber()
-            );
-        } catch (Exception e) {
-            System.err.println(
-                    "Failed reading object-list[" + index + "]: " + e.getMessage()
-            );
+            profiles.onTimeout(remoteDevice);
+        } catch (AbortAPDUException | RejectAPDUException | ErrorAPDUException e) {
+            profiles.onRefused(remoteDevice);
         }
 
+        System.out.println("Whole object-list read failed for device " + remoteDevice.getInstanceNumber()
+                + ", reading by index (" + profile + ")");
         return null;
     }
 
-    // --------------------------------------------------------------------
+    /**
+     * Each window of segments may take up to the device's segment time, so
+     * the request isn't retransmitted before all of them could have arrived.
+     */
+    private static long minTimeoutMillis(LocalDevice localDevice, SegmentationProfiles.Profile profile, int segments) {
+        int window = localDevice.getTransport() instanceof DefaultTransport transport
+                ? Math.max(1, transport.getSegWindow())
+                : 1;
+        return (long) profile.getSegTimeoutMillis() * ((segments + window - 1) / window);
+    }
 
-    private static ReadPropertyAck sendWithRetry(
+    private static int readArraySize(
             LocalDevice localDevice,
             RemoteDevice remoteDevice,
-            ReadPropertyRequest request
+            ObjectIdentifier deviceOid
     ) throws Exception {
 
-        for (int attempt = 1; attempt <= MAX_RETRIES; attempt++) {
-            try {
-                ServiceFuture future =
-                        localDevice.send(remoteDevice, request);
-
-                return future.get();
+        ReadPropertyRequest request =
+                new ReadPropertyRequest(
+                        deviceOid,
+                        PropertyIdentifier.objectList,
+                        UnsignedInteger.ZERO
+                );
 
-            } catch (BACnetTimeoutException e) {
-                if (attempt == MAX_RETRIES) {
-                    throw e;
-                }
-                Thread.sleep(300);
-            }
-        }
+        ReadPropertyAck ack =
+                DeviceRequestSender.forLocal(localDevice).send(remoteDevice, request);
 
-        throw new BACnetTimeoutException("Unreachable");
+        return ((UnsignedInteger) ack.getValue()).intValue();
     }
 }
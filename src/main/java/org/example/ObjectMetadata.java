@@ -0,0 +1,27 @@
+package org.example;
+
+import com.serotonin.bacnet4j.type.enumerated.ObjectType;
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+
+/**
+ * Per-object facts that only change when the device is reconfigured.
+ *
+ * @param units engineering-units enumeration value, or {@link #NO_UNITS}
+ */
+public record ObjectMetadata(ObjectIdentifier oid, String name, int units) {
+
+    public static final int NO_UNITS = -1;
+
+    public ObjectType type() {
+        return oid.getObjectType();
+    }
+
+    /** Object type and instance in the 32-bit form used on the wire. */
+    public static int pack(ObjectIdentifier oid) {
+        return (oid.getObjectType().intValue() << 22) | oid.getInstanceNumber();
+    }
+
+    public static ObjectIdentifier unpack(int packed) {
+        return new ObjectIdentifier(ObjectType.forId(packed >>> 22), packed & 0x3FFFFF);
+    }
+}
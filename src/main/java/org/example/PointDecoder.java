@@ -0,0 +1,148 @@
+package org.example;
+
+import com.serotonin.bacnet4j.type.Encodable;
+import com.serotonin.bacnet4j.type.constructed.StatusFlags;
+import com.serotonin.bacnet4j.type.enumerated.ObjectType;
+import com.serotonin.bacnet4j.type.enumerated.PropertyIdentifier;
+import com.serotonin.bacnet4j.type.primitive.Enumerated;
+import com.serotonin.bacnet4j.type.primitive.Real;
+import com.serotonin.bacnet4j.type.primitive.SignedInteger;
+import com.serotonin.bacnet4j.type.primitive.UnsignedInteger;
+
+/**
+ * Writes a bacnet4j value straight into a {@link PointValueStore} slot.
+ * <p>
+ * {@link PointValueStore} picks the decoder once per point from its object
+ * type and property ({@link #forPoint}), so decoding a notification is one
+ * type check and a primitive write: no {@code instanceof} chain, boxing or
+ * strings. A value that doesn't have the expected type (a vendor quirk, or a
+ * NULL from a relinquished command) falls through to {@link #GENERIC}.
+ */
+public enum PointDecoder {
+
+    REAL {
+        @Override
+        public boolean write(PointValueStore store, int slot, Encodable value, int statusFlags, long timestamp) {
+            if (value instanceof Real real) {
+                double d = real.floatValue();
+                return store.write(slot, d, (long) d, statusFlags, timestamp);
+            }
+            return GENERIC.write(store, slot, value, statusFlags, timestamp);
+        }
+    },
+
+    DOUBLE {
+        @Override
+        public boolean write(PointValueStore store, int slot, Encodable value, int statusFlags, long timestamp) {
+            if (value instanceof com.serotonin.bacnet4j.type.primitive.Double real) {
+                double d = real.doubleValue();
+                return store.write(slot, d, (long) d, statusFlags, timestamp);
+            }
+            return GENERIC.write(store, slot, value, statusFlags, timestamp);
+        }
+    },
+
+    /** BinaryPV and other enumerations; the ordinal goes into both fields. */
+    ENUMERATED {
+        @Override
+        public boolean write(PointValueStore store, int slot, Encodable value, int statusFlags, long timestamp) {
+            if (value instanceof Enumerated enumerated) {
+                int ordinal = enumerated.intValue();
+                return store.write(slot, ordinal, ordinal, statusFlags, timestamp);
+            }
+            return GENERIC.write(store, slot, value, statusFlags, timestamp);
+        }
+    },
+
+    /** Multi-state states, counters and positive integers. */
+    UNSIGNED {
+        @Override
+        public boolean write(PointValueStore store, int slot, Encodable value, int statusFlags, long timestamp) {
+            if (value instanceof UnsignedInteger unsigned) {
+                long l = unsigned.longValue();
+                return store.write(slot, l, l, statusFlags, timestamp);
+            }
+            return GENERIC.write(store, slot, value, statusFlags, timestamp);
+        }
+    },
+
+    SIGNED {
+        @Override
+        public boolean write(PointValueStore store, int slot, Encodable value, int statusFlags, long timestamp) {
+            if (value instanceof SignedInteger signed) {
+                long l = signed.longValue();
+                return store.write(slot, l, l, statusFlags, timestamp);
+            }
+            return GENERIC.write(store, slot, value, statusFlags, timestamp);
+        }
+    },
+
+    /** statusFlags itself: the bits go into the value fields and the flags. */
+    STATUS_FLAGS {
+        @Override
+        public boolean write(PointValueStore store, int slot, Encodable value, int statusFlags, long timestamp) {
+            if (value instanceof StatusFlags flags) {
+                int bits = PointValueStore.toFlags(flags);
+                return store.write(slot, bits, bits, bits, timestamp);
+            }
+            return GENERIC.write(store, slot, value, statusFlags, timestamp);
+        }
+    },
+
+    GENERIC {
+        @Override
+        public boolean write(PointValueStore store, int slot, Encodable value, int statusFlags, long timestamp) {
+            double d = PointValueStore.numericValue(value);
+            if (Double.isNaN(d)) {
+                return false;
+            }
+            return store.write(slot, d, (long) d, statusFlags, timestamp);
+        }
+    };
+
+    private static final PointDecoder[] VALUES = values();
+
+    /**
+     * @return false if the value isn't numeric or the update was older than the stored one
+     */
+    public abstract boolean write(PointValueStore store, int slot, Encodable value, int statusFlags, long timestamp);
+
+    static PointDecoder byOrdinal(int ordinal) {
+        return VALUES[ordinal];
+    }
+
+    /** The decoder for a property of an object type, as found in {@link ObjectMetadata#pack} ids. */
+    public static PointDecoder forPoint(int objectType, int propertyId) {
+        if (propertyId == PropertyIdentifier.statusFlags.intValue()) {
+            return STATUS_FLAGS;
+        }
+        if (propertyId != PropertyIdentifier.presentValue.intValue()) {
+            return GENERIC;
+        }
+
+        if (objectType == ObjectType.analogInput.intValue()
+                || objectType == ObjectType.analogOutput.intValue()
+                || objectType == ObjectType.analogValue.intValue()) {
+            return REAL;
+        }
+        if (objectType == ObjectType.binaryInput.intValue()
+                || objectType == ObjectType.binaryOutput.intValue()
+                || objectType == ObjectType.binaryValue.intValue()) {
+            return ENUMERATED;
+        }
+        if (objectType == ObjectType.multiStateInput.intValue()
+                || objectType == ObjectType.multiStateOutput.intValue()
+                || objectType == ObjectType.multiStateValue.intValue()
+                || objectType == ObjectType.positiveIntegerValue.intValue()
+                || objectType == ObjectType.accumulator.intValue()) {
+            return UNSIGNED;
+        }
+        if (objectType == ObjectType.largeAnalogValue.intValue()) {
+            return DOUBLE;
+        }
+        if (objectType == ObjectType.integerValue.intValue()) {
+            return SIGNED;
+        }
+        return GENERIC;
+    }
+}
@@ -0,0 +1,43 @@
+package org.example;
+
+import com.serotonin.bacnet4j.type.enumerated.PropertyIdentifier;
+
+/**
+ * COV stage that prints one line per notification from the point's
+ * {@link PointValueStore} slot, as already decoded by a
+ * {@link PointStoreCovWriter} ahead of it in the same handler. Nothing is
+ * decoded again here. Meant for debugging small sites; it is not thread-safe,
+ * so use it with a single consumer.
+ */
+public final class PointStoreCovPrinter implements CovEventHandler {
+
+    private static final int PRESENT_VALUE = PropertyIdentifier.presentValue.intValue();
+
+    private final PointValueStore store;
+    private final PointValueStore.Snapshot snapshot = new PointValueStore.Snapshot();
+
+    public PointStoreCovPrinter(PointValueStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public void onEvent(CovEvent event, boolean endOfBatch) {
+        int slot = store.slotOf(
+                event.getDeviceInstance(),
+                ObjectMetadata.pack(event.getMonitoredObject()),
+                PRESENT_VALUE
+        );
+        if (slot < 0 || !store.read(slot, snapshot)) {
+            return;
+        }
+        PointDecoder decoder = store.decoderOf(slot);
+        boolean integral = decoder == PointDecoder.ENUMERATED
+                || decoder == PointDecoder.UNSIGNED
+                || decoder == PointDecoder.SIGNED;
+        System.out.println("🔔 COV device " + event.getDeviceInstance()
+                + " " + event.getMonitoredObject()
+                + " = " + (integral ? String.valueOf(snapshot.longValue) : String.valueOf(snapshot.doubleValue))
+                + " flags=" + snapshot.statusFlags
+                + " (" + event.getTimeRemaining() + " s left, subscription " + event.getSubscriberProcessId() + ")");
+    }
+}
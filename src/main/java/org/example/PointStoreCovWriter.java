@@ -0,0 +1,60 @@
+package org.example;
+
+import com.serotonin.bacnet4j.type.Encodable;
+import com.serotonin.bacnet4j.type.constructed.PropertyValue;
+import com.serotonin.bacnet4j.type.constructed.StatusFlags;
+import com.serotonin.bacnet4j.type.enumerated.PropertyIdentifier;
+
+import java.util.List;
+
+/**
+ * COV stage that records each notification's presentValue and statusFlags
+ * in a {@link PointValueStore}, under the monitored object's presentValue key.
+ * Allocates nothing per notification once the point's slot exists.
+ */
+public final class PointStoreCovWriter implements CovEventHandler {
+
+    private static final int PRESENT_VALUE = PropertyIdentifier.presentValue.intValue();
+    private static final int STATUS_FLAGS = PropertyIdentifier.statusFlags.intValue();
+
+    private final PointValueStore store;
+
+    public PointStoreCovWriter(PointValueStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public void onEvent(CovEvent event, boolean endOfBatch) {
+        Encodable presentValue = null;
+        int statusFlags = PointValueStore.KEEP_FLAGS;
+
+        // Indexed loop: no iterator on the hot path
+        List<PropertyValue> values = event.getValues().getValues();
+        for (int i = 0, n = values.size(); i < n; i++) {
+            PropertyValue pv = values.get(i);
+            int propId = pv.getPropertyIdentifier().intValue();
+            if (propId == PRESENT_VALUE) {
+                presentValue = pv.getValue();
+            } else if (propId == STATUS_FLAGS && pv.getValue() instanceof StatusFlags flags) {
+                statusFlags = PointValueStore.toFlags(flags);
+            }
+        }
+
+        if (presentValue == null && statusFlags == PointValueStore.KEEP_FLAGS) {
+            return;
+        }
+
+        int slot = store.slotFor(
+                event.getDeviceInstance(),
+                ObjectMetadata.pack(event.getMonitoredObject()),
+                PRESENT_VALUE
+        );
+        long now = System.currentTimeMillis();
+
+        if (presentValue == null || !store.writeEncodable(slot, presentValue, statusFlags, now)) {
+            if (statusFlags != PointValueStore.KEEP_FLAGS) {
+                store.writeFlags(slot, statusFlags, now);
+            }
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package org.example;
+
+import com.serotonin.bacnet4j.type.Encodable;
+import com.serotonin.bacnet4j.type.constructed.StatusFlags;
+import com.serotonin.bacnet4j.type.primitive.Enumerated;
+import com.serotonin.bacnet4j.type.primitive.Real;
+import com.serotonin.bacnet4j.type.primitive.SignedInteger;
+import com.serotonin.bacnet4j.type.primitive.UnsignedInteger;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Latest value of every live point, held in parallel primitive arrays instead
+ * of a map of boxed bacnet4j values.
+ * <p>
+ * A point is keyed by (device instance, packed object identifier, property)
+ * and resolved once to an int slot with {@link #slotFor}; after that every
+ * update and read is a few array accesses and allocates nothing. Each slot
+ * holds a double value, a long value (for enumerations and counters), the
+ * status-flag bits, the update timestamp and the point's {@link PointDecoder}.
+ * <p>
+ * Slots are guarded by a per-slot sequence lock: writers take it with a CAS,
+ * readers never block and simply retry if a write overlapped their read, so
+ * a {@link Snapshot} is always the result of a single write. Updates with an
+ * older timestamp than the stored one are ignored, which keeps concurrent COV
+ * consumers and pollers from rolling a value back.
+ * <p>
+ * The table is open-addressed and never resized, so size it for the expected
+ * point count up front.
+ */
+public final class PointValueStore {
+
+    public static final int FLAG_IN_ALARM = 1;
+    public static final int FLAG_FAULT = 1 << 1;
+    public static final int FLAG_OVERRIDDEN = 1 << 2;
+    public static final int FLAG_OUT_OF_SERVICE = 1 << 3;
+
+    /** Pass as {@code statusFlags} to leave the stored flags unchanged. */
+    public static final int KEEP_FLAGS = -1;
+
+    private static final int EMPTY = 0;
+    private static final int CLAIMED = 1;
+    private static final int READY = 2;
+
+    private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+
+    private final int mask;
+    private final long[] keys;
+    private final int[] properties;
+    private final int[] states;
+    private final int[] versions;
+
+    private final double[] doubleValues;
+    private final long[] longValues;
+    private final int[] flags;
+    private final long[] timestamps;
+    private final byte[] decoders;
+
+    private final int maxPoints;
+    private int size;
+
+    /** Reusable read target, so callers can poll without allocating. */
+    public static final class Snapshot {
+        public double doubleValue;
+        public long longValue;
+        public int statusFlags;
+        public long timestamp;
+    }
+
+    public PointValueStore(int maxPoints) {
+        // Keep the load factor at or under 0.7 so probe chains stay short.
+        int wanted = (int) Math.min(1 << 30, Math.max(16L, maxPoints * 10L / 7 + 1));
+        int capacity = Integer.highestOneBit(wanted - 1) << 1;
+        this.mask = capacity - 1;
+        this.maxPoints = maxPoints;
+        this.keys = new long[capacity];
+        this.properties = new int[capacity];
+        this.states = new int[capacity];
+        this.versions = new int[capacity];
+        this.doubleValues = new double[capacity];
+        this.longValues = new long[capacity];
+        this.flags = new int[capacity];
+        this.timestamps = new long[capacity];
+        this.decoders = new byte[capacity];
+    }
+
+    /**
+     * Returns the slot of a point, adding it if it isn't there yet.
+     *
+     * @throws IllegalStateException if the store already holds {@code maxPoints} points
+     */
+    public int slotFor(int deviceInstance, int packedObjectId, int propertyId) {
+        long key = key(deviceInstance, packedObjectId);
+        int slot = hash(key, propertyId) & mask;
+
+        while (true) {
+            int state = (int) INTS.getAcquire(states, slot);
+
+            if (state == EMPTY) {
+                synchronized (this) {
+                    if (size >= maxPoints) {
+                        throw new IllegalStateException("Point store full (" + maxPoints + " points)");
+                    }
+                    if (!INTS.compareAndSet(states, slot, EMPTY, CLAIMED)) {
+                        continue;
+                    }
+                    size++;
+                }
+                keys[slot] = key;
+                properties[slot] = propertyId;
+                decoders[slot] = (byte) PointDecoder.forPoint(packedObjectId >>> 22, propertyId).ordinal();
+                INTS.setRelease(states, slot, READY);
+                return slot;
+            }
+
+            if (state == CLAIMED) {
+                Thread.onSpinWait();
+                continue;
+            }
+
+            if (keys[slot] == key && properties[slot] == propertyId) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /** Returns the slot of a point, or -1 if it has never been written. */
+    public int slotOf(int deviceInstance, int packedObjectId, int propertyId) {
+        long key = key(deviceInstance, packedObjectId);
+        int slot = hash(key, propertyId) & mask;
+
+        while (true) {
+            int state = (int) INTS.getAcquire(states, slot);
+            if (state == EMPTY) {
+                return -1;
+            }
+            if (state == CLAIMED) {
+                Thread.onSpinWait();
+                continue;
+            }
+            if (keys[slot] == key && properties[slot] == propertyId) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Stores a new value unless the slot already holds a newer one.
+     *
+     * @param statusFlags {@code FLAG_*} bits, or {@link #KEEP_FLAGS}
+     * @return false if the update was older than the stored value
+     */
+    public boolean write(int slot, double doubleValue, long longValue, int statusFlags, long timestamp) {
+        int version = lock(slot);
+        boolean newer = timestamp >= timestamps[slot];
+        if (newer) {
+            doubleValues[slot] = doubleValue;
+            longValues[slot] = longValue;
+            if (statusFlags != KEEP_FLAGS) {
+                flags[slot] = statusFlags;
+            }
+            timestamps[slot] = timestamp;
+        }
+        INTS.setRelease(versions, slot, version + 2);
+        return newer;
+    }
+
+    /** Updates only the status flags (e.g. a COV that carried statusFlags alone). */
+    public void writeFlags(int slot, int statusFlags, long timestamp) {
+        int version = lock(slot);
+        if (timestamp >= timestamps[slot]) {
+            flags[slot] = statusFlags;
+            timestamps[slot] = timestamp;
+        }
+        INTS.setRelease(versions, slot, version + 2);
+    }
+
+    /**
+     * Copies a consistent view of the slot into {@code into}.
+     *
+     * @return false if the point has never been written
+     */
+    public boolean read(int slot, Snapshot into) {
+        while (true) {
+            int before = (int) INTS.getAcquire(versions, slot);
+            if ((before & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+
+            into.doubleValue = doubleValues[slot];
+            into.longValue = longValues[slot];
+            into.statusFlags = flags[slot];
+            into.timestamp = timestamps[slot];
+
+            VarHandle.loadLoadFence();
+            if ((int) INTS.getAcquire(versions, slot) == before) {
+                return into.timestamp != 0;
+            }
+        }
+    }
+
+    /** Latest double value of a point, or NaN if it is unknown. */
+    public double getDouble(int deviceInstance, int packedObjectId, int propertyId) {
+        int slot = slotOf(deviceInstance, packedObjectId, propertyId);
+        if (slot < 0) {
+            return Double.NaN;
+        }
+        while (true) {
+            int before = (int) INTS.getAcquire(versions, slot);
+            double value = doubleValues[slot];
+            long timestamp = timestamps[slot];
+            VarHandle.loadLoadFence();
+            if ((before & 1) == 0 && (int) INTS.getAcquire(versions, slot) == before) {
+                return timestamp != 0 ? value : Double.NaN;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Decodes a bacnet4j value into the slot's double/long fields with the
+     * {@link PointDecoder} chosen for the point when its slot was created.
+     *
+     * @return false if the value type isn't numeric or the update was stale
+     */
+    public boolean writeEncodable(int slot, Encodable value, int statusFlags, long timestamp) {
+        return PointDecoder.byOrdinal(decoders[slot]).write(this, slot, value, statusFlags, timestamp);
+    }
+
+    public PointDecoder decoderOf(int slot) {
+        return PointDecoder.byOrdinal(decoders[slot]);
+    }
+
+    /** Numeric value of an analog, integer, enumerated or boolean value; NaN for anything else. */
+    public static double numericValue(Encodable value) {
+        if (value instanceof Real real) {
+            return real.floatValue();
+        }
+        if (value instanceof com.serotonin.bacnet4j.type.primitive.Double real) {
+            return real.doubleValue();
+        }
+        if (value instanceof Enumerated enumerated) {
+            return enumerated.intValue();
+        }
+        if (value instanceof UnsignedInteger unsigned) {
+            return unsigned.longValue();
+        }
+        if (value instanceof SignedInteger signed) {
+            return signed.longValue();
+        }
+        if (value instanceof com.serotonin.bacnet4j.type.primitive.Boolean bool) {
+            return bool.booleanValue() ? 1 : 0;
+        }
+        return Double.NaN;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    public static int toFlags(StatusFlags statusFlags) {
+        int bits = 0;
+        if (statusFlags.isInAlarm()) {
+            bits |= FLAG_IN_ALARM;
+        }
+        if (statusFlags.isFault()) {
+            bits |= FLAG_FAULT;
+        }
+        if (statusFlags.isOverridden()) {
+            bits |= FLAG_OVERRIDDEN;
+        }
+        if (statusFlags.isOutOfService()) {
+            bits |= FLAG_OUT_OF_SERVICE;
+        }
+        return bits;
+    }
+
+    // --------------------------------------------------------------------
+
+    private int lock(int slot) {
+        while (true) {
+            int version = (int) INTS.getAcquire(versions, slot);
+            if ((version & 1) == 0 && INTS.compareAndSet(versions, slot, version, version + 1)) {
+                return version;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    private static long key(int deviceInstance, int packedObjectId) {
+        return ((long) deviceInstance << 32) | (packedObjectId & 0xFFFFFFFFL);
+    }
+
+    private static int hash(long key, int propertyId) {
+        long h = key * 0x9E3779B97F4A7C15L + propertyId;
+        h ^= h >>> 29;
+        h *= 0xBF58476D1CE4E5B9L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
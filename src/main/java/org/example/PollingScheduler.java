@@ -0,0 +1,354 @@
+package org.example;
+
+import com.serotonin.bacnet4j.LocalDevice;
+import com.serotonin.bacnet4j.RemoteDevice;
+import com.serotonin.bacnet4j.exception.BACnetException;
+import com.serotonin.bacnet4j.type.Encodable;
+import com.serotonin.bacnet4j.type.constructed.ObjectPropertyReference;
+import com.serotonin.bacnet4j.type.enumerated.PropertyIdentifier;
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Polls points that can't be subscribed to, each at its own period, and
+ * writes the results into a {@link PointValueStore}.
+ * <p>
+ * Points of the same device with the same period form a poll group with a
+ * single deadline. Groups start at a phase derived from the device instance
+ * and period, so a site's load is spread over the period instead of bursting
+ * on round seconds. One scheduler thread pops the due groups, merges those of
+ * the same device into one read and runs it on a virtual thread; the
+ * {@link BatchReadEngine} splits it into ReadPropertyMultiple requests sized
+ * to the device's max APDU.
+ * <p>
+ * Only one read per device is in flight. A group that comes due while its
+ * device is still busy is skipped for that period, and one dispatched more
+ * than a tenth of its period after its deadline counts as late; both are
+ * reported through the counters and {@link #toString}.
+ */
+public final class PollingScheduler implements AutoCloseable {
+
+    private static final long MIN_PERIOD_MILLIS = 100;
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int MAX_LOGGED_ERRORS = 20;
+
+    private record PolledPoint(ObjectPropertyReference ref, int slot) {
+    }
+
+    private record GroupKey(DeviceKey device, long periodMillis) {
+    }
+
+    private static final class DeviceState {
+        final AtomicBoolean busy = new AtomicBoolean();
+        volatile RemoteDevice device;
+
+        DeviceState(RemoteDevice device) {
+            this.device = device;
+        }
+    }
+
+    private static final class PollGroup {
+        final GroupKey key;
+        final DeviceState device;
+        final long periodNanos;
+        volatile PolledPoint[] points = new PolledPoint[0];
+        long deadline;
+        boolean removed;
+
+        PollGroup(GroupKey key, DeviceState device, long periodNanos) {
+            this.key = key;
+            this.device = device;
+            this.periodNanos = periodNanos;
+        }
+    }
+
+    private final BatchReadEngine engine;
+    private final PointValueStore store;
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("poll-", 0).factory());
+
+    // Guarded by this
+    private final Map<DeviceKey, DeviceState> devices = new HashMap<>();
+    private final Map<GroupKey, PollGroup> groups = new HashMap<>();
+    private final Map<Integer, PollGroup> groupBySlot = new HashMap<>();
+    private final PriorityQueue<PollGroup> queue =
+            new PriorityQueue<>(Comparator.comparingLong(g -> g.deadline));
+    private int pointCount;
+
+    private final LongAdder polls = new LongAdder();
+    private final LongAdder pointsRead = new LongAdder();
+    private final LongAdder late = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final AtomicLong maxLatenessNanos = new AtomicLong();
+
+    private final Thread ticker;
+    private volatile boolean running = true;
+
+    public PollingScheduler(LocalDevice localDevice, PointValueStore store) {
+        this.engine = BatchReadEngine.forLocal(localDevice);
+        this.store = store;
+        this.ticker = new Thread(this::run, "poll-scheduler");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    /**
+     * Polls {@code property} of {@code oid} every {@code periodMillis}.
+     * Adding a point that is already polled moves it to the new period.
+     *
+     * @return the point's slot in the value store
+     */
+    public int addPoint(RemoteDevice device, ObjectIdentifier oid, PropertyIdentifier property, long periodMillis) {
+        if (periodMillis < MIN_PERIOD_MILLIS) {
+            throw new IllegalArgumentException("period must be at least " + MIN_PERIOD_MILLIS + " ms: " + periodMillis);
+        }
+        int instance = device.getInstanceNumber();
+        int slot = store.slotFor(instance, ObjectMetadata.pack(oid), property.intValue());
+        PolledPoint point = new PolledPoint(new ObjectPropertyReference(oid, property), slot);
+        long periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+
+        synchronized (this) {
+            removeSlot(slot);
+
+            DeviceKey deviceKey = DeviceKey.of(device);
+            DeviceState state = devices.computeIfAbsent(deviceKey, k -> new DeviceState(device));
+            state.device = device;
+
+            GroupKey key = new GroupKey(deviceKey, periodMillis);
+            PollGroup group = groups.get(key);
+            if (group == null) {
+                group = new PollGroup(key, state, periodNanos);
+                group.deadline = System.nanoTime() + phase(instance, periodNanos);
+                groups.put(key, group);
+                queue.add(group);
+            }
+            PolledPoint[] points = Arrays.copyOf(group.points, group.points.length + 1);
+            points[points.length - 1] = point;
+            group.points = points;
+            groupBySlot.put(slot, group);
+            pointCount++;
+        }
+        LockSupport.unpark(ticker);
+        return slot;
+    }
+
+    public void removePoint(RemoteDevice device, ObjectIdentifier oid, PropertyIdentifier property) {
+        int instance = device.getInstanceNumber();
+        int slot = store.slotOf(instance, ObjectMetadata.pack(oid), property.intValue());
+        if (slot >= 0) {
+            synchronized (this) {
+                removeSlot(slot);
+            }
+        }
+    }
+
+    public synchronized int getPointCount() {
+        return pointCount;
+    }
+
+    public synchronized int getGroupCount() {
+        return groups.size();
+    }
+
+    public long getPolls() {
+        return polls.sum();
+    }
+
+    public long getPointsRead() {
+        return pointsRead.sum();
+    }
+
+    /** Groups dispatched more than a tenth of their period after the deadline. */
+    public long getLate() {
+        return late.sum();
+    }
+
+    /** Group deadlines dropped because the device was still busy or the scheduler fell behind. */
+    public long getSkipped() {
+        return skipped.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public long getMaxLatenessMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxLatenessNanos.get());
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(ticker);
+        executor.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return "Polling: points=" + getPointCount()
+                + " groups=" + getGroupCount()
+                + " polls=" + getPolls()
+                + " pointsRead=" + getPointsRead()
+                + " late=" + getLate()
+                + " skipped=" + getSkipped()
+                + " errors=" + getErrors()
+                + " maxLateness=" + getMaxLatenessMillis() + "ms";
+    }
+
+    // --------------------------------------------------------------------
+
+    private void run() {
+        List<PollGroup> due = new ArrayList<>();
+        while (running) {
+            long now = System.nanoTime();
+            long park;
+
+            synchronized (this) {
+                while (!queue.isEmpty() && queue.peek().deadline <= now) {
+                    due.add(queue.poll());
+                }
+                dispatch(due, now);
+                for (PollGroup group : due) {
+                    advance(group, now);
+                    if (!group.removed) {
+                        queue.add(group);
+                    }
+                }
+                park = queue.isEmpty() ? MAX_PARK_NANOS : Math.min(MAX_PARK_NANOS, queue.peek().deadline - now);
+            }
+            due.clear();
+
+            if (park > 0) {
+                LockSupport.parkNanos(park);
+            }
+        }
+    }
+
+    /** Starts one read per device for the due groups. Called with the lock held. */
+    private void dispatch(List<PollGroup> due, long now) {
+        Map<DeviceState, List<PollGroup>> byDevice = new LinkedHashMap<>();
+        for (PollGroup group : due) {
+            if (!group.removed && group.points.length > 0) {
+                byDevice.computeIfAbsent(group.device, d -> new ArrayList<>()).add(group);
+            }
+        }
+
+        for (Map.Entry<DeviceState, List<PollGroup>> entry : byDevice.entrySet()) {
+            DeviceState state = entry.getKey();
+            List<PollGroup> deviceGroups = entry.getValue();
+
+            if (!state.busy.compareAndSet(false, true)) {
+                skipped.add(deviceGroups.size());
+                continue;
+            }
+
+            List<PolledPoint> points = new ArrayList<>();
+            for (PollGroup group : deviceGroups) {
+                long lateness = now - group.deadline;
+                if (lateness > group.periodNanos / 10) {
+                    late.increment();
+                }
+                maxLatenessNanos.accumulateAndGet(lateness, Math::max);
+                points.addAll(Arrays.asList(group.points));
+            }
+
+            try {
+                executor.execute(() -> poll(state, points));
+            } catch (RejectedExecutionException e) {
+                // Shutting down
+                state.busy.set(false);
+            }
+        }
+    }
+
+    private void poll(DeviceState state, List<PolledPoint> points) {
+        try {
+            List<ObjectPropertyReference> refs = new ArrayList<>(points.size());
+            for (PolledPoint point : points) {
+                refs.add(point.ref());
+            }
+
+            long readAt = System.currentTimeMillis();
+            List<Encodable> values = engine.read(state.device, refs);
+            polls.increment();
+
+            for (int i = 0; i < points.size(); i++) {
+                Encodable value = values.get(i);
+                if (BatchReadEngine.isError(value)) {
+                    errors.increment();
+                } else {
+                    store.writeEncodable(points.get(i).slot(), value, PointValueStore.KEEP_FLAGS, readAt);
+                    pointsRead.increment();
+                }
+            }
+        } catch (BACnetException e) {
+            errors.add(points.size());
+            if (errors.sum() <= MAX_LOGGED_ERRORS) {
+                System.err.println("Poll of device " + state.device.getInstanceNumber()
+                        + " failed: " + e.getMessage());
+            }
+        } finally {
+            state.busy.set(false);
+        }
+    }
+
+    /** Moves the deadline to the next period, counting any periods that were missed entirely. */
+    private void advance(PollGroup group, long now) {
+        group.deadline += group.periodNanos;
+        if (group.deadline <= now) {
+            long missed = (now - group.deadline) / group.periodNanos + 1;
+            skipped.add(missed);
+            group.deadline += missed * group.periodNanos;
+        }
+    }
+
+    /** Called with the lock held. */
+    private void removeSlot(int slot) {
+        PollGroup group = groupBySlot.remove(slot);
+        if (group == null) {
+            return;
+        }
+        PolledPoint[] points = group.points;
+        for (int i = 0; i < points.length; i++) {
+            if (points[i].slot() == slot) {
+                PolledPoint[] remaining = new PolledPoint[points.length - 1];
+                System.arraycopy(points, 0, remaining, 0, i);
+                System.arraycopy(points, i + 1, remaining, i, points.length - i - 1);
+                group.points = remaining;
+                pointCount--;
+                if (remaining.length == 0) {
+                    group.removed = true;
+                    groups.remove(group.key);
+                    queue.remove(group);
+                }
+                return;
+            }
+        }
+    }
+
+    /** Deterministic offset within the period, so restarts don't regroup devices onto one instant. */
+    private static long phase(int instance, long periodNanos) {
+        long h = (instance * 0x9E3779B97F4A7C15L) ^ periodNanos;
+        h ^= h >>> 31;
+        h *= 0xBF58476D1CE4E5B9L;
+        h ^= h >>> 29;
+        return Long.remainderUnsigned(h, periodNanos);
+    }
+}
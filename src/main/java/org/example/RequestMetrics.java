@@ -0,0 +1,202 @@
+package org.example;
+
+import com.serotonin.bacnet4j.apdu.Abort;
+import com.serotonin.bacnet4j.exception.AbortAPDUException;
+import com.serotonin.bacnet4j.exception.BACnetException;
+import com.serotonin.bacnet4j.exception.BACnetTimeoutException;
+import com.serotonin.bacnet4j.exception.ErrorAPDUException;
+import com.serotonin.bacnet4j.exception.RejectAPDUException;
+import com.serotonin.bacnet4j.service.confirmed.ConfirmedRequestService;
+import com.serotonin.bacnet4j.type.enumerated.AbortReason;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running latency and outcome figures for every confirmed request, per
+ * remote device ({@link DeviceKey}) and per service type.
+ * <p>
+ * {@link DeviceRequestSender} records each request into a
+ * {@link LatencyHistogram} for its device and one for its service, and counts
+ * timeouts, aborts (segmentation aborts separately), rejects and errors.
+ * Retries are the retransmissions {@link DeviceRequestSender} makes and any
+ * re-sends by callers, reported through {@link #recordRetry}; a transport
+ * left with its own retries would hide them in the latency instead.
+ * Recording never blocks, and {@link #snapshot} can be taken at any time
+ * while requests keep being recorded.
+ */
+public final class RequestMetrics {
+
+    /** Figures for one device or one service at the time of the snapshot. */
+    public record Snapshot(
+            String name,
+            long requests,
+            long p50Millis,
+            long p95Millis,
+            long p99Millis,
+            long maxMillis,
+            long meanMillis,
+            long timeouts,
+            long retries,
+            long aborts,
+            long segmentationAborts,
+            long rejects,
+            long errors
+    ) {
+        /** Requests that got no answer or a negative one. */
+        public long failures() {
+            return timeouts + aborts + rejects + errors;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": requests=" + requests
+                    + " p50=" + p50Millis + "ms p95=" + p95Millis + "ms p99=" + p99Millis + "ms"
+                    + " max=" + maxMillis + "ms mean=" + meanMillis + "ms"
+                    + " timeouts=" + timeouts + " retries=" + retries
+                    + " aborts=" + aborts + " (segmentation " + segmentationAborts + ")"
+                    + " rejects=" + rejects + " errors=" + errors;
+        }
+    }
+
+    private static final class Stats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder timeouts = new LongAdder();
+        final LongAdder retries = new LongAdder();
+        final LongAdder aborts = new LongAdder();
+        final LongAdder segmentationAborts = new LongAdder();
+        final LongAdder rejects = new LongAdder();
+        final LongAdder errors = new LongAdder();
+
+        void record(long nanos, BACnetException failure) {
+            latency.record(nanos);
+            if (failure == null) {
+                return;
+            }
+            if (failure instanceof BACnetTimeoutException) {
+                timeouts.increment();
+            } else if (failure instanceof AbortAPDUException abort) {
+                aborts.increment();
+                if (isSegmentationAbort(abort.getApdu())) {
+                    segmentationAborts.increment();
+                }
+            } else if (failure instanceof RejectAPDUException) {
+                rejects.increment();
+            } else if (failure instanceof ErrorAPDUException) {
+                errors.increment();
+            }
+        }
+
+        Snapshot snapshot(String name) {
+            return new Snapshot(
+                    name,
+                    latency.getCount(),
+                    toMillis(latency.percentileNanos(50)),
+                    toMillis(latency.percentileNanos(95)),
+                    toMillis(latency.percentileNanos(99)),
+                    toMillis(latency.maxNanos()),
+                    toMillis(latency.meanNanos()),
+                    timeouts.sum(),
+                    retries.sum(),
+                    aborts.sum(),
+                    segmentationAborts.sum(),
+                    rejects.sum(),
+                    errors.sum()
+            );
+        }
+
+        void reset() {
+            latency.reset();
+            timeouts.reset();
+            retries.reset();
+            aborts.reset();
+            segmentationAborts.reset();
+            rejects.reset();
+            errors.reset();
+        }
+    }
+
+    private final Map<DeviceKey, Stats> devices = new ConcurrentHashMap<>();
+    private final Map<Class<?>, Stats> services = new ConcurrentHashMap<>();
+
+    /**
+     * Records one finished request.
+     *
+     * @param failure why it failed, or null if it was answered with an ack
+     */
+    public void record(DeviceKey device, ConfirmedRequestService request, long nanos, BACnetException failure) {
+        devices.computeIfAbsent(device, k -> new Stats()).record(nanos, failure);
+        services.computeIfAbsent(request.getClass(), c -> new Stats()).record(nanos, failure);
+    }
+
+    /** Records that a request to the device is being sent again after a failure. */
+    public void recordRetry(DeviceKey device, ConfirmedRequestService request) {
+        devices.computeIfAbsent(device, k -> new Stats()).retries.increment();
+        services.computeIfAbsent(request.getClass(), c -> new Stats()).retries.increment();
+    }
+
+    /** The device's figures, or null if nothing has been sent to it. */
+    public Snapshot snapshot(DeviceKey device) {
+        Stats stats = devices.get(device);
+        return stats == null ? null : stats.snapshot("device " + device);
+    }
+
+    /** Every device's figures, slowest p95 first. */
+    public List<Snapshot> snapshotDevices() {
+        List<Snapshot> result = new ArrayList<>(devices.size());
+        devices.forEach((device, stats) -> result.add(stats.snapshot("device " + device)));
+        result.sort(Comparator.comparingLong(Snapshot::p95Millis).reversed());
+        return result;
+    }
+
+    /** Figures per service type (ReadPropertyRequest, SubscribeCOVRequest, ...), by name. */
+    public Map<String, Snapshot> snapshotServices() {
+        Map<String, Snapshot> result = new TreeMap<>();
+        services.forEach((type, stats) -> {
+            String name = type.getSimpleName();
+            result.put(name, stats.snapshot(name));
+        });
+        return result;
+    }
+
+    /** All requests to all devices together. */
+    public Snapshot snapshotTotal() {
+        Stats total = new Stats();
+        for (Stats stats : devices.values()) {
+            total.latency.add(stats.latency);
+            total.timeouts.add(stats.timeouts.sum());
+            total.retries.add(stats.retries.sum());
+            total.aborts.add(stats.aborts.sum());
+            total.segmentationAborts.add(stats.segmentationAborts.sum());
+            total.rejects.add(stats.rejects.sum());
+            total.errors.add(stats.errors.sum());
+        }
+        return total.snapshot("all devices");
+    }
+
+    public void reset() {
+        devices.values().forEach(Stats::reset);
+        services.values().forEach(Stats::reset);
+    }
+
+    private static boolean isSegmentationAbort(Abort abort) {
+        if (abort == null) {
+            return false;
+        }
+        int reason = abort.getAbortReason();
+        return reason == AbortReason.segmentationNotSupported.intValue()
+                || reason == AbortReason.bufferOverflow.intValue()
+                || reason == AbortReason.apduTooLong.intValue()
+                || reason == AbortReason.windowSizeOutOfRange.intValue();
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
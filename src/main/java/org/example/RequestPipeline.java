@@ -0,0 +1,166 @@
+package org.example;
+
+import com.serotonin.bacnet4j.LocalDevice;
+import com.serotonin.bacnet4j.RemoteDevice;
+import com.serotonin.bacnet4j.ResponseConsumer;
+import com.serotonin.bacnet4j.apdu.AckAPDU;
+import com.serotonin.bacnet4j.exception.BACnetException;
+import com.serotonin.bacnet4j.service.acknowledgement.AcknowledgementService;
+import com.serotonin.bacnet4j.service.confirmed.ConfirmedRequestService;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntFunction;
+
+/**
+ * Keeps a window of confirmed requests in flight to one device and hands the
+ * results back in index order.
+ * <p>
+ * Requests are sent with the non-blocking {@link ResponseConsumer} variant of
+ * {@link LocalDevice#send}, so bacnet4j assigns each one its own invoke ID and
+ * completes it from the transport thread. The calling thread only blocks while
+ * the oldest outstanding request is still pending or the device's
+ * {@link DeviceRateController} has no permit left, so throughput follows the
+ * device's actual response rate instead of a sleep plus a full round trip per
+ * item. The configured window is an upper bound on top of the rate controller.
+ */
+public final class RequestPipeline {
+
+    /** Invoke IDs are a single octet per peer, so more than this can never be outstanding. */
+    public static final int MAX_WINDOW = 255;
+
+    public interface ResultHandler {
+        /**
+         * Called on the pipeline's calling thread, in index order. {@code error}
+         * is null exactly when the request succeeded; {@code ack} is then the
+         * response, or null for services answered with a SimpleACK
+         * (SubscribeCOV, WriteProperty, ...). Test {@code error}, not {@code ack}.
+         */
+        void onResult(int index, AcknowledgementService ack, BACnetException error);
+    }
+
+    private final DeviceRequestSender sender;
+    private final RemoteDevice remoteDevice;
+    private final int window;
+
+    public RequestPipeline(LocalDevice localDevice, RemoteDevice remoteDevice, int window) {
+        if (window < 1 || window > MAX_WINDOW) {
+            throw new IllegalArgumentException("window must be 1.." + MAX_WINDOW + ": " + window);
+        }
+        this.sender = DeviceRequestSender.forLocal(localDevice);
+        this.remoteDevice = remoteDevice;
+        this.window = window;
+    }
+
+    /**
+     * Sends {@code requestFor.apply(i)} for every {@code i} in {@code [0, count)}
+     * and streams the results to {@code handler} in that order.
+     */
+    public void run(
+            int count,
+            IntFunction<ConfirmedRequestService> requestFor,
+            ResultHandler handler
+    ) throws InterruptedException {
+
+        Slots slots = new Slots(window);
+
+        int nextToSend = 0;
+        int nextToDeliver = 0;
+
+        while (nextToDeliver < count) {
+            // Top up the window; slot i % window is free once i - window was delivered.
+            while (nextToSend < count && nextToSend < nextToDeliver + window) {
+                int index = nextToSend++;
+                sender.sendAsync(remoteDevice, requestFor.apply(index), slots.consumerFor(index));
+            }
+
+            Object result = slots.await(nextToDeliver);
+
+            if (result instanceof BACnetException e) {
+                handler.onResult(nextToDeliver, null, e);
+            } else {
+                handler.onResult(nextToDeliver, (AcknowledgementService) result, null);
+            }
+            nextToDeliver++;
+        }
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    // --------------------------------------------------------------------
+
+    /** Reorder buffer: one slot per outstanding request, filled from the transport thread. */
+    private static final class Slots {
+
+        private static final Object NO_BODY = new Object();
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition completed = lock.newCondition();
+        private final Object[] results;
+        private final int[] owners;
+
+        Slots(int window) {
+            this.results = new Object[window];
+            this.owners = new int[window];
+        }
+
+        ResponseConsumer consumerFor(int index) {
+            int slot = index % results.length;
+            lock.lock();
+            try {
+                owners[slot] = index;
+                results[slot] = null;
+            } finally {
+                lock.unlock();
+            }
+
+            return new ResponseConsumer() {
+                @Override
+                public void success(AcknowledgementService ack) {
+                    complete(index, ack);
+                }
+
+                @Override
+                public void fail(AckAPDU ack) {
+                    complete(index, DeviceRequestSender.toException(ack));
+                }
+
+                @Override
+                public void ex(BACnetException e) {
+                    complete(index, e);
+                }
+            };
+        }
+
+        private void complete(int index, Object result) {
+            int slot = index % results.length;
+            lock.lock();
+            try {
+                if (owners[slot] == index) {
+                    // Acks with no body (SimpleACK) still need a marker in the slot.
+                    results[slot] = result != null ? result : NO_BODY;
+                    completed.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        Object await(int index) throws InterruptedException {
+            int slot = index % results.length;
+            lock.lock();
+            try {
+                while (results[slot] == null) {
+                    completed.await();
+                }
+                Object result = results[slot];
+                results[slot] = null;
+                return result == NO_BODY ? null : result;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.example;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retransmission timeout for one device, from its measured response times
+ * (Jacobson/Karels, as in RFC 6298).
+ * <p>
+ * Every answered request updates a smoothed round-trip time and its mean
+ * deviation, and the timeout is {@code srtt + 4 * rttvar}, clamped to
+ * [min, max]. A timeout doubles it until the next sample, so a device that
+ * has gone quiet is probed less and less often. Samples come only from the
+ * copy of a request that was actually answered, which the invoke ID tells
+ * apart, so retransmissions never skew the estimate.
+ */
+public final class RtoEstimator {
+
+    private static final double ALPHA = 1.0 / 8;
+    private static final double BETA = 1.0 / 4;
+    /** Floor on the variance term, so a perfectly steady device still gets some slack. */
+    private static final long GRANULARITY_MILLIS = 10;
+
+    private final long minMillis;
+    private final long maxMillis;
+
+    private double srttMillis = -1;
+    private double rttvarMillis;
+    private long rtoMillis;
+    private long samples;
+    private long backoffs;
+
+    /**
+     * @param initialMillis timeout used until the first response arrives
+     */
+    public RtoEstimator(long initialMillis, long minMillis, long maxMillis) {
+        this.minMillis = minMillis;
+        this.maxMillis = maxMillis;
+        this.rtoMillis = clamp(initialMillis);
+    }
+
+    public synchronized void sample(long rttNanos) {
+        double rtt = rttNanos / 1_000_000.0;
+        if (srttMillis < 0) {
+            srttMillis = rtt;
+            rttvarMillis = rtt / 2;
+        } else {
+            rttvarMillis = (1 - BETA) * rttvarMillis + BETA * Math.abs(srttMillis - rtt);
+            srttMillis = (1 - ALPHA) * srttMillis + ALPHA * rtt;
+        }
+        rtoMillis = clamp((long) Math.ceil(srttMillis + Math.max(GRANULARITY_MILLIS, 4 * rttvarMillis)));
+        samples++;
+    }
+
+    /** A request went unanswered for a full timeout: back off. */
+    public synchronized void onTimeout() {
+        rtoMillis = clamp(rtoMillis * 2);
+        backoffs++;
+    }
+
+    public synchronized long getTimeoutMillis() {
+        return rtoMillis;
+    }
+
+    public long getTimeout(TimeUnit unit) {
+        return unit.convert(getTimeoutMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /** Smoothed round-trip time, or -1 before the first sample. */
+    public synchronized long getSrttMillis() {
+        return Math.round(srttMillis);
+    }
+
+    public synchronized long getSamples() {
+        return samples;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "rto=" + rtoMillis + "ms srtt=" + Math.round(srttMillis) + "ms rttvar=" + Math.round(rttvarMillis)
+                + "ms samples=" + samples + " backoffs=" + backoffs;
+    }
+
+    private long clamp(long millis) {
+        return Math.max(minMillis, Math.min(maxMillis, millis));
+    }
+}
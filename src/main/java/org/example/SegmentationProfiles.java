@@ -0,0 +1,232 @@
+package org.example;
+
+import com.serotonin.bacnet4j.RemoteDevice;
+import com.serotonin.bacnet4j.type.enumerated.Segmentation;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What each device has shown about segmented responses, so the object list
+ * can be read in one ReadProperty where that works and the settings that
+ * made it work are reused next time.
+ * <p>
+ * The segment timeout is how long one window of segments may take before
+ * the request is retransmitted; the transport's own segment settings are
+ * shared by every transaction and are left alone. A device starts with the
+ * transport's segment timeout. A clean segmented read sets it from the time
+ * each segment actually took, and a timeout doubles it. An abort or error
+ * saying the device can't send the response, or {@value #MAX_FAILURES}
+ * timeouts in a row, stop whole-list reads for the device for a week, after
+ * which it gets another chance. With a file, profiles are loaded by
+ * {@link #load} and written back at most every {@code SAVE_EVERY_MILLIS}
+ * while they change, and by {@link #flush} at shutdown, one line per device:
+ * <pre>
+ *   instance segTimeoutMillis failures lastFailureMillis successes
+ * </pre>
+ * Files from before the window was dropped, with a window column after the
+ * instance, still load.
+ */
+public final class SegmentationProfiles {
+
+    private static final int MAX_FAILURES = 3;
+    private static final int MIN_SEG_TIMEOUT_MILLIS = 1000;
+    private static final int MAX_SEG_TIMEOUT_MILLIS = 20_000;
+    private static final long RETRY_AFTER_MILLIS = TimeUnit.DAYS.toMillis(7);
+    private static final long SAVE_EVERY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    /** One device's learned settings. */
+    public static final class Profile {
+        private final int deviceInstance;
+        private int segTimeoutMillis;
+        private int failures;
+        private long lastFailureMillis;
+        private int successes;
+
+        private Profile(int deviceInstance, int segTimeoutMillis) {
+            this.deviceInstance = deviceInstance;
+            this.segTimeoutMillis = segTimeoutMillis;
+        }
+
+        public synchronized int getSegTimeoutMillis() {
+            return segTimeoutMillis;
+        }
+
+        public synchronized int getSuccesses() {
+            return successes;
+        }
+
+        public synchronized int getFailures() {
+            return failures;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "device " + deviceInstance + ": segTimeout=" + segTimeoutMillis
+                    + "ms successes=" + successes + " failures=" + failures;
+        }
+    }
+
+    private final Path file;
+    private final Map<Integer, Profile> profiles = new ConcurrentHashMap<>();
+    private volatile int defaultSegTimeoutMillis = 5000;
+    private volatile boolean dirty;
+    private volatile long savedAtMillis = System.currentTimeMillis();
+
+    /**
+     * @param file where profiles are kept across runs, or null to keep them
+     *             in memory only
+     */
+    public SegmentationProfiles(Path file) {
+        this.file = file;
+    }
+
+    /** Starting point for devices with no history, normally the transport's own segment timeout. */
+    public void setDefaultSegTimeoutMillis(int segTimeoutMillis) {
+        this.defaultSegTimeoutMillis = segTimeoutMillis;
+    }
+
+    public void load() throws IOException {
+        if (file == null) {
+            return;
+        }
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        for (String line : lines) {
+            if (line.startsWith("#")) {
+                continue;
+            }
+            String[] f = line.trim().split("\\s+");
+            // Older files have a window column after the instance
+            int skip = f.length - 5;
+            if (skip != 0 && skip != 1) {
+                continue;
+            }
+            try {
+                Profile p = new Profile(Integer.parseInt(f[0]), Integer.parseInt(f[1 + skip]));
+                p.failures = Integer.parseInt(f[2 + skip]);
+                p.lastFailureMillis = Long.parseLong(f[3 + skip]);
+                p.successes = Integer.parseInt(f[4 + skip]);
+                profiles.put(p.deviceInstance, p);
+            } catch (NumberFormatException e) {
+                System.err.println("Ignoring segmentation profile line: " + line);
+            }
+        }
+        System.out.println("Segmentation profiles: " + profiles.size() + " device(s) loaded from " + file);
+    }
+
+    public Profile get(RemoteDevice remoteDevice) {
+        return profiles.computeIfAbsent(remoteDevice.getInstanceNumber(),
+                i -> new Profile(i, defaultSegTimeoutMillis));
+    }
+
+    /**
+     * Whether to try reading the whole object list in one request: the
+     * device must be able to send segments, unless the list fits in one
+     * APDU anyway, and must not have failed at it recently.
+     */
+    public boolean shouldTryWholeList(RemoteDevice remoteDevice, int estimatedBytes) {
+        Segmentation segmentation = remoteDevice.getSegmentationSupported();
+        boolean transmits = Segmentation.segmentedBoth.equals(segmentation)
+                || Segmentation.segmentedTransmit.equals(segmentation);
+        if (!transmits && estimatedBytes > remoteDevice.getMaxAPDULengthAccepted()) {
+            return false;
+        }
+        Profile p = get(remoteDevice);
+        synchronized (p) {
+            return p.failures < MAX_FAILURES
+                    || System.currentTimeMillis() - p.lastFailureMillis > RETRY_AFTER_MILLIS;
+        }
+    }
+
+    /** A whole-list read of {@code segments} segments took {@code elapsedMillis}. */
+    public void onSuccess(RemoteDevice remoteDevice, int segments, long elapsedMillis) {
+        Profile p = get(remoteDevice);
+        synchronized (p) {
+            p.successes++;
+            p.failures = 0;
+            if (segments > 1) {
+                long perSegment = elapsedMillis / segments;
+                p.segTimeoutMillis = (int) Math.max(MIN_SEG_TIMEOUT_MILLIS,
+                        Math.min(MAX_SEG_TIMEOUT_MILLIS, perSegment * 4));
+            }
+        }
+        changed();
+    }
+
+    /** A whole-list read timed out, probably on a lost segment or segments slower than expected. */
+    public void onTimeout(RemoteDevice remoteDevice) {
+        Profile p = get(remoteDevice);
+        synchronized (p) {
+            p.failures++;
+            p.lastFailureMillis = System.currentTimeMillis();
+            p.segTimeoutMillis = Math.min(MAX_SEG_TIMEOUT_MILLIS, p.segTimeoutMillis * 2);
+        }
+        changed();
+    }
+
+    /** The device said it can't send the list in one response. */
+    public void onRefused(RemoteDevice remoteDevice) {
+        Profile p = get(remoteDevice);
+        synchronized (p) {
+            p.failures = MAX_FAILURES;
+            p.lastFailureMillis = System.currentTimeMillis();
+        }
+        changed();
+    }
+
+    public List<Profile> getProfiles() {
+        return new ArrayList<>(profiles.values());
+    }
+
+    /** Writes the profiles out if anything changed since they were last written. */
+    public synchronized void flush() {
+        if (file == null || !dirty) {
+            return;
+        }
+        // Cleared first: a change made while writing marks the profiles dirty again
+        dirty = false;
+        savedAtMillis = System.currentTimeMillis();
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            out.write("# instance segTimeoutMillis failures lastFailureMillis successes\n");
+            for (Profile p : profiles.values()) {
+                synchronized (p) {
+                    out.write(p.deviceInstance + " " + p.segTimeoutMillis + " "
+                            + p.failures + " " + p.lastFailureMillis + " " + p.successes + "\n");
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Could not write segmentation profiles: " + e.getMessage());
+            dirty = true;
+            return;
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Could not write segmentation profiles: " + e.getMessage());
+            dirty = true;
+        }
+    }
+
+    private void changed() {
+        dirty = true;
+        if (System.currentTimeMillis() - savedAtMillis >= SAVE_EVERY_MILLIS) {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package org.example;
+
+import com.serotonin.bacnet4j.LocalDevice;
+import com.serotonin.bacnet4j.RemoteDevice;
+import com.serotonin.bacnet4j.exception.AbortAPDUException;
+import com.serotonin.bacnet4j.exception.BACnetException;
+import com.serotonin.bacnet4j.exception.BACnetTimeoutException;
+import com.serotonin.bacnet4j.exception.ErrorAPDUException;
+import com.serotonin.bacnet4j.exception.RejectAPDUException;
+import com.serotonin.bacnet4j.service.acknowledgement.ReadPropertyMultipleAck;
+import com.serotonin.bacnet4j.service.confirmed.ReadPropertyMultipleRequest;
+import com.serotonin.bacnet4j.type.Encodable;
+import com.serotonin.bacnet4j.type.constructed.ObjectPropertyReference;
+import com.serotonin.bacnet4j.type.constructed.PropertyReference;
+import com.serotonin.bacnet4j.type.constructed.ReadAccessResult;
+import com.serotonin.bacnet4j.type.constructed.ReadAccessSpecification;
+import com.serotonin.bacnet4j.type.constructed.SequenceOf;
+import com.serotonin.bacnet4j.type.enumerated.ObjectType;
+import com.serotonin.bacnet4j.type.enumerated.PropertyIdentifier;
+import com.serotonin.bacnet4j.type.enumerated.Segmentation;
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reads a fixed set of properties of every object on many devices into
+ * {@link DeviceSnapshot}s that share one {@link StringTable}.
+ * <p>
+ * Each object is asked for with a single ReadPropertyMultiple wildcard,
+ * REQUIRED when every configured property is one all standard objects must
+ * have and ALL otherwise, several objects per request as the device's APDU
+ * size and segmentation allow. The number of objects per request shrinks
+ * when a response turns out too big and grows back while requests succeed.
+ * A device that aborts on one object at a time or rejects the wildcard is
+ * read with explicit references through {@link BatchReadEngine} from then
+ * on, as are single objects that returned nothing. The device object and
+ * other types with long list properties (object list, log buffer, schedules)
+ * are always read explicitly, since a wildcard would return those lists too.
+ * What worked is remembered per device for the next snapshot.
+ * Devices are read in parallel, each on its own virtual thread.
+ */
+public final class SiteSnapshotReader {
+
+    public static final List<PropertyIdentifier> DEFAULT_PROPERTIES = List.of(
+            PropertyIdentifier.objectName,
+            PropertyIdentifier.description,
+            PropertyIdentifier.units,
+            PropertyIdentifier.presentValue,
+            PropertyIdentifier.statusFlags,
+            PropertyIdentifier.outOfService
+    );
+
+    /** Properties every standard object type has, or has as required when the type has it at all (units). */
+    private static final Set<Integer> REQUIRED_PROPERTIES = Set.of(
+            PropertyIdentifier.objectName.intValue(),
+            PropertyIdentifier.objectType.intValue(),
+            PropertyIdentifier.presentValue.intValue(),
+            PropertyIdentifier.statusFlags.intValue(),
+            PropertyIdentifier.eventState.intValue(),
+            PropertyIdentifier.outOfService.intValue(),
+            PropertyIdentifier.units.intValue()
+    );
+
+    /** Types whose ALL or REQUIRED results include lists that can run to thousands of entries. */
+    private static final Set<Integer> LIST_HEAVY_TYPES = Set.of(
+            ObjectType.device.intValue(),
+            ObjectType.trendLog.intValue(),
+            ObjectType.trendLogMultiple.intValue(),
+            ObjectType.eventLog.intValue(),
+            ObjectType.schedule.intValue(),
+            ObjectType.calendar.intValue(),
+            ObjectType.notificationClass.intValue(),
+            ObjectType.structuredView.intValue()
+    );
+
+    /** Rough encoded size of one object's results in the ack. */
+    private static final int ALL_OBJECT_BYTES = 400;
+    private static final int REQUIRED_OBJECT_BYTES = 150;
+    private static final int SEGMENTED_RESPONSE_FACTOR = 8;
+    private static final int MAX_OBJECTS_PER_REQUEST = 32;
+    /** Single-object wildcard refusals in a row before a device is read explicitly. */
+    private static final int MAX_SINGLE_REFUSALS = 3;
+    private static final int EXPLICIT = 0;
+
+    private final LocalDevice localDevice;
+    private final DeviceRequestSender sender;
+    private final BatchReadEngine batchReader;
+    private final StringTable strings = new StringTable();
+    /** Objects per wildcard request that last worked, or {@link #EXPLICIT}. */
+    private final Map<DeviceKey, Integer> objectsPerRequest = new ConcurrentHashMap<>();
+    private final LongAdder wildcardRequests = new LongAdder();
+    private final LongAdder explicitObjects = new LongAdder();
+
+    private volatile List<PropertyIdentifier> properties = DEFAULT_PROPERTIES;
+    private volatile SegmentationProfiles segmentationProfiles;
+
+    public SiteSnapshotReader(LocalDevice localDevice) {
+        this.localDevice = localDevice;
+        this.sender = DeviceRequestSender.forLocal(localDevice);
+        this.batchReader = BatchReadEngine.forLocal(localDevice);
+    }
+
+    public void setProperties(List<PropertyIdentifier> properties) {
+        this.properties = List.copyOf(properties);
+    }
+
+    /** Profiles to read object lists with, e.g. {@link ObjectListCache#getSegmentationProfiles()}. */
+    public void setSegmentationProfiles(SegmentationProfiles segmentationProfiles) {
+        this.segmentationProfiles = segmentationProfiles;
+    }
+
+    public StringTable getStrings() {
+        return strings;
+    }
+
+    /**
+     * Snapshots every device, at most {@code parallelism} at a time. Devices
+     * that fail are reported and left out.
+     *
+     * @return snapshots by device instance
+     */
+    public Map<Integer, DeviceSnapshot> readSite(Collection<RemoteDevice> devices, int parallelism)
+            throws InterruptedException {
+        Semaphore permits = new Semaphore(parallelism);
+        Map<Integer, Future<DeviceSnapshot>> pending = new TreeMap<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (RemoteDevice device : devices) {
+                pending.put(device.getInstanceNumber(), executor.submit(() -> {
+                    permits.acquire();
+                    try {
+                        return read(device);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+        }
+
+        Map<Integer, DeviceSnapshot> result = new TreeMap<>();
+        pending.forEach((instance, future) -> {
+            try {
+                result.put(instance, future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                System.err.println("Snapshot FAILED for device " + instance + ": " + e.getCause());
+            }
+        });
+        return result;
+    }
+
+    public DeviceSnapshot read(RemoteDevice remoteDevice) throws Exception {
+        SegmentationProfiles profiles = segmentationProfiles;
+        List<ObjectIdentifier> oids = profiles == null
+                ? ObjectListReader.readAll(localDevice, remoteDevice)
+                : ObjectListReader.readAll(localDevice, remoteDevice, profiles);
+
+        List<PropertyIdentifier> props = properties;
+        DeviceSnapshot snapshot = new DeviceSnapshot(remoteDevice.getInstanceNumber(), oids, props, strings);
+
+        Map<Integer, Integer> columns = new HashMap<>();
+        for (int c = 0; c < props.size(); c++) {
+            columns.put(props.get(c).intValue(), c);
+        }
+
+        List<Integer> wildcardRows = new ArrayList<>(oids.size());
+        List<Integer> explicitRows = new ArrayList<>();
+        for (int row = 0; row < oids.size(); row++) {
+            if (LIST_HEAVY_TYPES.contains(oids.get(row).getObjectType().intValue())) {
+                explicitRows.add(row);
+            } else {
+                wildcardRows.add(row);
+            }
+        }
+
+        int from = readWildcard(remoteDevice, oids, wildcardRows, props, columns, snapshot, explicitRows);
+        explicitRows.addAll(wildcardRows.subList(from, wildcardRows.size()));
+        if (!explicitRows.isEmpty()) {
+            readExplicit(remoteDevice, oids, props, explicitRows, snapshot);
+        }
+
+        snapshot.setReadAtMillis(System.currentTimeMillis());
+        return snapshot;
+    }
+
+    /**
+     * Reads the given rows with wildcard requests until done or the device
+     * turns out not to handle them.
+     *
+     * @param explicitRows collects objects that returned nothing
+     * @return the position in {@code wildcardRows} of the first row not attempted
+     */
+    private int readWildcard(
+            RemoteDevice remoteDevice,
+            List<ObjectIdentifier> oids,
+            List<Integer> wildcardRows,
+            List<PropertyIdentifier> props,
+            Map<Integer, Integer> columns,
+            DeviceSnapshot snapshot,
+            List<Integer> explicitRows
+    ) throws BACnetException {
+
+        DeviceKey key = DeviceKey.of(remoteDevice);
+        boolean required = props.stream().allMatch(p -> REQUIRED_PROPERTIES.contains(p.intValue()));
+        PropertyIdentifier wildcard = required ? PropertyIdentifier.required : PropertyIdentifier.all;
+        int objectBytes = required ? REQUIRED_OBJECT_BYTES : ALL_OBJECT_BYTES;
+        int ceiling = initialObjectsPerRequest(remoteDevice, objectBytes);
+        int chunk = objectsPerRequest.getOrDefault(key, ceiling);
+
+        Map<Integer, Integer> positions = new HashMap<>(wildcardRows.size() * 2);
+        for (int i = 0; i < wildcardRows.size(); i++) {
+            positions.put(ObjectMetadata.pack(oids.get(wildcardRows.get(i))), i);
+        }
+
+        int from = 0;
+        int singleRefusals = 0;
+        while (from < wildcardRows.size() && chunk != EXPLICIT) {
+            int count = Math.min(chunk, wildcardRows.size() - from);
+            ReadPropertyMultipleRequest request =
+                    wildcardRequest(oids, wildcardRows.subList(from, from + count), wildcard);
+            try {
+                ReadPropertyMultipleAck ack = sender.send(remoteDevice, request,
+                        sender.segmentedTimeoutMillis(remoteDevice, count * objectBytes));
+                wildcardRequests.increment();
+                boolean[] answered = copyResults(ack, positions, wildcardRows, columns, snapshot, from, count);
+                for (int i = 0; i < count; i++) {
+                    if (!answered[i]) {
+                        explicitRows.add(wildcardRows.get(from + i));
+                    }
+                }
+                from += count;
+                singleRefusals = 0;
+                // One object too big, or a slow moment, shouldn't hold the device back for good.
+                chunk = Math.min(ceiling, chunk + Math.max(1, chunk / 4));
+
+            } catch (AbortAPDUException | RejectAPDUException | ErrorAPDUException e) {
+                if (count > 1) {
+                    // Most likely too big for one response: fewer objects at a time.
+                    chunk = Math.max(1, count / 4);
+                    sender.getMetrics().recordRetry(key, request);
+                } else if (e instanceof AbortAPDUException && ++singleRefusals < MAX_SINGLE_REFUSALS) {
+                    // This object alone is too big; others may not be.
+                    explicitRows.add(wildcardRows.get(from));
+                    from++;
+                } else {
+                    chunk = EXPLICIT;
+                }
+
+            } catch (BACnetTimeoutException e) {
+                if (count > 1) {
+                    chunk = Math.max(1, count / 2);
+                } else {
+                    explicitRows.add(wildcardRows.get(from));
+                    from++;
+                }
+            }
+        }
+
+        objectsPerRequest.put(key, chunk);
+        return from;
+    }
+
+    private void readExplicit(
+            RemoteDevice remoteDevice,
+            List<ObjectIdentifier> oids,
+            List<PropertyIdentifier> props,
+            List<Integer> rows,
+            DeviceSnapshot snapshot
+    ) throws BACnetException {
+
+        List<ObjectPropertyReference> refs = new ArrayList<>(rows.size() * props.size());
+        for (int row : rows) {
+            for (PropertyIdentifier property : props) {
+                refs.add(new ObjectPropertyReference(oids.get(row), property));
+            }
+        }
+
+        List<Encodable> values = batchReader.read(remoteDevice, refs);
+        int i = 0;
+        for (int row : rows) {
+            for (int c = 0; c < props.size(); c++) {
+                snapshot.set(row, c, values.get(i++));
+            }
+        }
+        explicitObjects.add(rows.size());
+    }
+
+    /**
+     * Stores the wildcard results for {@code wildcardRows} positions
+     * {@code from .. from + count} and returns which of those objects came
+     * back with at least one value.
+     */
+    private static boolean[] copyResults(
+            ReadPropertyMultipleAck ack,
+            Map<Integer, Integer> positions,
+            List<Integer> wildcardRows,
+            Map<Integer, Integer> columns,
+            DeviceSnapshot snapshot,
+            int from,
+            int count
+    ) {
+        boolean[] answered = new boolean[count];
+        for (ReadAccessResult access : ack.getListOfReadAccessResults()) {
+            Integer position = positions.get(ObjectMetadata.pack(access.getObjectIdentifier()));
+            if (position == null || position < from || position >= from + count) {
+                continue;
+            }
+            int row = wildcardRows.get(position);
+            for (ReadAccessResult.Result result : access.getListOfResults()) {
+                if (result.getPropertyArrayIndex() != null) {
+                    continue;
+                }
+                Encodable value = result.getReadResult().getDatum();
+                if (BatchReadEngine.isError(value)) {
+                    continue;
+                }
+                answered[position - from] = true;
+                Integer column = columns.get(result.getPropertyIdentifier().intValue());
+                if (column != null) {
+                    snapshot.set(row, column, value);
+                }
+            }
+        }
+        return answered;
+    }
+
+    private static ReadPropertyMultipleRequest wildcardRequest(
+            List<ObjectIdentifier> oids,
+            List<Integer> rows,
+            PropertyIdentifier wildcard
+    ) {
+        SequenceOf<ReadAccessSpecification> specs = new SequenceOf<>();
+        for (int row : rows) {
+            specs.add(new ReadAccessSpecification(oids.get(row),
+                    new SequenceOf<>(List.of(new PropertyReference(wildcard)))));
+        }
+        return new ReadPropertyMultipleRequest(specs);
+    }
+
+    private static int initialObjectsPerRequest(RemoteDevice remoteDevice, int objectBytes) {
+        Segmentation segmentation = remoteDevice.getSegmentationSupported();
+        boolean segments = Segmentation.segmentedBoth.equals(segmentation)
+                || Segmentation.segmentedTransmit.equals(segmentation);
+        int budget = remoteDevice.getMaxAPDULengthAccepted() * (segments ? SEGMENTED_RESPONSE_FACTOR : 1);
+        return Math.max(1, Math.min(MAX_OBJECTS_PER_REQUEST, budget / objectBytes));
+    }
+
+    @Override
+    public String toString() {
+        long explicitDevices = objectsPerRequest.values().stream().filter(n -> n == EXPLICIT).count();
+        return "SiteSnapshotReader{wildcardRequests=" + wildcardRequests.sum()
+                + ", explicitObjects=" + explicitObjects.sum()
+                + ", explicitDevices=" + explicitDevices
+                + ", strings=" + strings.size() + "}";
+    }
+}
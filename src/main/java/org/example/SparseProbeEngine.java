@@ -0,0 +1,257 @@
+package org.example;
+
+import com.serotonin.bacnet4j.LocalDevice;
+import com.serotonin.bacnet4j.RemoteDevice;
+import com.serotonin.bacnet4j.exception.BACnetException;
+import com.serotonin.bacnet4j.type.Encodable;
+import com.serotonin.bacnet4j.type.constructed.ObjectPropertyReference;
+import com.serotonin.bacnet4j.type.enumerated.ErrorClass;
+import com.serotonin.bacnet4j.type.enumerated.ErrorCode;
+import com.serotonin.bacnet4j.type.enumerated.ObjectType;
+import com.serotonin.bacnet4j.type.enumerated.PropertyIdentifier;
+import com.serotonin.bacnet4j.type.error.ErrorClassAndCode;
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds objects on devices whose object-list can't be read, by probing
+ * candidate identifiers in ReadPropertyMultiple batches. Each candidate asks
+ * for the tiny {@code objectType} property, and a per-reference
+ * {@code unknown-object} error is just a cheap miss inside a batch rather than
+ * a round trip of its own. Timeouts and communication or resource errors
+ * are probed again; any other error fails the probe rather than hide an
+ * object that may exist.
+ * <p>
+ * By default every instance is probed. Controllers number their objects in
+ * clusters (0..40, 1000..1063, ...), so with a {@link #setSkipStride
+ * skipStride} above 1, probing is dense while hits keep coming and, after
+ * {@link #setGapThreshold gapThreshold} consecutive misses, switches to
+ * sampling every skipStride-th instance plus every multiple of 100 and
+ * 100 + 1, where vendors like to start blocks. When a sample hits, the whole
+ * span skipped since sampling began is back-filled densely and dense probing
+ * resumes. Objects after the last hit that no sample lands on are still
+ * missed, so sampling trades completeness for speed.
+ */
+public final class SparseProbeEngine {
+
+    /** One object type and the instance range to search for it. */
+    public record ProbeRange(ObjectType type, int firstInstance, int lastInstance) {}
+
+    private static final int PROBE_RESULT_BYTES = 10;
+    /** Extra rounds for references that timed out or hit a communication error. */
+    private static final int MAX_RETRIES = 2;
+
+    private final BatchReadEngine engine;
+    private int gapThreshold = 256;
+    private int skipStride = 1;
+
+    public SparseProbeEngine(LocalDevice localDevice) {
+        this.engine = BatchReadEngine.forLocal(localDevice);
+    }
+
+    /** The I/O and binary/multi-state types, instances 0..maxInstance-1. */
+    public static List<ProbeRange> defaultRanges(int maxInstance) {
+        ObjectType[] types = {
+                ObjectType.analogInput,
+                ObjectType.analogOutput,
+                ObjectType.analogValue,
+                ObjectType.binaryInput,
+                ObjectType.binaryOutput,
+                ObjectType.binaryValue,
+                ObjectType.multiStateInput,
+                ObjectType.multiStateOutput,
+                ObjectType.multiStateValue
+        };
+        List<ProbeRange> ranges = new ArrayList<>(types.length);
+        for (ObjectType type : types) {
+            ranges.add(new ProbeRange(type, 0, maxInstance - 1));
+        }
+        return ranges;
+    }
+
+    /** Consecutive misses after which probing switches from dense to sampled. */
+    public void setGapThreshold(int gapThreshold) {
+        this.gapThreshold = gapThreshold;
+    }
+
+    /** Sample spacing inside a gap. Clusters shorter than this can be missed; 1 (the default) disables skipping. */
+    public void setSkipStride(int skipStride) {
+        this.skipStride = Math.max(1, skipStride);
+    }
+
+    /**
+     * Probes every range and returns the objects that exist, in range order and
+     * ascending instance order within a range.
+     */
+    public List<ObjectIdentifier> probe(RemoteDevice remoteDevice, List<ProbeRange> ranges)
+            throws BACnetException {
+
+        List<ObjectIdentifier> found = new ArrayList<>();
+        for (ProbeRange range : ranges) {
+            probeRange(remoteDevice, range, found);
+        }
+        return found;
+    }
+
+    // --------------------------------------------------------------------
+
+    private void probeRange(RemoteDevice remoteDevice, ProbeRange range, List<ObjectIdentifier> found)
+            throws BACnetException {
+
+        int cursor = range.firstInstance();
+        int missRun = 0;
+        // Where the current run of sampling started; everything from here was skipped over.
+        int skippedFrom = -1;
+
+        while (cursor <= range.lastInstance()) {
+            int block = Math.max(1, engine.currentBatchSize(remoteDevice, PROBE_RESULT_BYTES));
+
+            if (missRun < gapThreshold || skipStride == 1) {
+                int end = (int) Math.min(range.lastInstance(), (long) cursor + block - 1);
+                int hits = probeDense(remoteDevice, range.type(), cursor, end, found);
+                int lastHit = hits > 0 ? found.get(found.size() - 1).getInstanceNumber() : -1;
+                missRun = hits > 0 ? end - lastHit : missRun + (end - cursor + 1);
+                cursor = end + 1;
+                continue;
+            }
+
+            // Sampled mode: one batch of candidates spread across the gap.
+            if (skippedFrom < 0) {
+                skippedFrom = cursor;
+            }
+            List<Integer> candidates = sample(cursor, range.lastInstance(), block);
+            boolean[] exists = exists(remoteDevice, range.type(), candidates);
+
+            int hit = -1;
+            for (int i = 0; i < exists.length; i++) {
+                if (exists[i]) {
+                    hit = i;
+                    break;
+                }
+            }
+
+            if (hit < 0) {
+                cursor = candidates.get(candidates.size() - 1) + 1;
+                continue;
+            }
+
+            // Back-fill everything skipped since sampling began, then go dense again.
+            int hitInstance = candidates.get(hit);
+            if (skippedFrom < hitInstance) {
+                probeDense(remoteDevice, range.type(), skippedFrom, hitInstance - 1, found);
+            }
+            found.add(new ObjectIdentifier(range.type(), hitInstance));
+            cursor = hitInstance + 1;
+            missRun = 0;
+            skippedFrom = -1;
+        }
+    }
+
+    /** Probes every instance in {@code [from, to]}; returns the number of hits. */
+    private int probeDense(
+            RemoteDevice remoteDevice,
+            ObjectType type,
+            int from,
+            int to,
+            List<ObjectIdentifier> found
+    ) throws BACnetException {
+
+        List<Integer> instances = new ArrayList<>(to - from + 1);
+        for (int i = from; i <= to; i++) {
+            instances.add(i);
+        }
+
+        boolean[] exists = exists(remoteDevice, type, instances);
+
+        int hits = 0;
+        for (int i = 0; i < exists.length; i++) {
+            if (exists[i]) {
+                found.add(new ObjectIdentifier(type, instances.get(i)));
+                hits++;
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Which of the instances exist. References that fail for a reason that
+     * may pass are read again; one that still fails, or fails any other way
+     * than a missing object, throws.
+     */
+    private boolean[] exists(RemoteDevice remoteDevice, ObjectType type, List<Integer> instances)
+            throws BACnetException {
+
+        boolean[] exists = new boolean[instances.size()];
+        List<Integer> pending = new ArrayList<>(instances.size());
+        for (int i = 0; i < instances.size(); i++) {
+            pending.add(i);
+        }
+
+        for (int attempt = 0; !pending.isEmpty(); attempt++) {
+            List<Integer> batch = new ArrayList<>(pending.size());
+            for (int i : pending) {
+                batch.add(instances.get(i));
+            }
+            List<Encodable> results = engine.read(remoteDevice, references(type, batch), PROBE_RESULT_BYTES);
+
+            List<Integer> retry = new ArrayList<>();
+            for (int r = 0; r < results.size(); r++) {
+                Encodable result = results.get(r);
+                int i = pending.get(r);
+                if (!BatchReadEngine.isError(result)) {
+                    exists[i] = true;
+                } else if (isMissing(result)) {
+                    exists[i] = false;
+                } else if (isTransient(result) && attempt < MAX_RETRIES) {
+                    retry.add(i);
+                } else {
+                    throw new BACnetException("Probe of " + type + " " + instances.get(i) + " on device "
+                            + remoteDevice.getInstanceNumber() + " failed: " + result);
+                }
+            }
+            pending = retry;
+        }
+        return exists;
+    }
+
+    /** The device says there is no such object (or no objects of that type at all). */
+    private static boolean isMissing(Encodable result) {
+        return result instanceof ErrorClassAndCode error
+                && ErrorClass.object.equals(error.getErrorClass())
+                && (ErrorCode.unknownObject.equals(error.getErrorCode())
+                || ErrorCode.unsupportedObjectType.equals(error.getErrorCode()));
+    }
+
+    private static boolean isTransient(Encodable result) {
+        if (!(result instanceof ErrorClassAndCode error)) {
+            return true;
+        }
+        return ErrorClass.communication.equals(error.getErrorClass())
+                || ErrorClass.resources.equals(error.getErrorClass())
+                || ErrorCode.timeout.equals(error.getErrorCode());
+    }
+
+    private List<Integer> sample(int from, int last, int count) {
+        List<Integer> candidates = new ArrayList<>(count);
+        for (long i = from; i <= last && candidates.size() < count; i++) {
+            int n = (int) i;
+            if ((n - from) % skipStride == 0 || n % 100 == 0 || n % 100 == 1) {
+                candidates.add(n);
+            }
+        }
+        return candidates;
+    }
+
+    private static List<ObjectPropertyReference> references(ObjectType type, List<Integer> instances) {
+        List<ObjectPropertyReference> refs = new ArrayList<>(instances.size());
+        for (int instance : instances) {
+            refs.add(new ObjectPropertyReference(
+                    new ObjectIdentifier(type, instance),
+                    PropertyIdentifier.objectType
+            ));
+        }
+        return refs;
+    }
+}
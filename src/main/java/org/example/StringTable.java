@@ -0,0 +1,60 @@
+package org.example;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interned strings by dense int id, so columns of names that repeat across
+ * a site ("Room Temp", "Supply Air Temp", ...) are stored once and each row
+ * costs four bytes.
+ */
+public final class StringTable {
+
+    public static final int NONE = -1;
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private String[] strings = new String[1024];
+    private int size;
+
+    public int intern(String s) {
+        if (s == null) {
+            return NONE;
+        }
+        Integer id = ids.get(s);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(s);
+            if (id != null) {
+                return id;
+            }
+            if (size == strings.length) {
+                strings = Arrays.copyOf(strings, size * 2);
+            }
+            strings[size] = s;
+            ids.put(s, size);
+            return size++;
+        }
+    }
+
+    /** The string for {@code id}, or null for {@link #NONE}. */
+    public synchronized String get(int id) {
+        return id == NONE ? null : strings[id];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /** Rough heap held by the table, for sizing. */
+    public synchronized long estimatedBytes() {
+        long bytes = (long) strings.length * 4;
+        for (int i = 0; i < size; i++) {
+            // String + byte[] headers, the bytes, and the map entry pointing at it
+            bytes += 56 + strings[i].length() + 48;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,424 @@
+package org.example;
+
+import com.serotonin.bacnet4j.LocalDevice;
+import com.serotonin.bacnet4j.RemoteDevice;
+import com.serotonin.bacnet4j.exception.BACnetException;
+import com.serotonin.bacnet4j.service.acknowledgement.ReadRangeAck;
+import com.serotonin.bacnet4j.service.confirmed.ReadRangeRequest;
+import com.serotonin.bacnet4j.type.Encodable;
+import com.serotonin.bacnet4j.type.constructed.ObjectPropertyReference;
+import com.serotonin.bacnet4j.type.constructed.SequenceOf;
+import com.serotonin.bacnet4j.type.enumerated.ObjectType;
+import com.serotonin.bacnet4j.type.enumerated.PropertyIdentifier;
+import com.serotonin.bacnet4j.type.enumerated.Segmentation;
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+import com.serotonin.bacnet4j.type.primitive.SignedInteger;
+import com.serotonin.bacnet4j.type.primitive.UnsignedInteger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Downloads the buffers of trendLog and trendLogMultiple objects a page at
+ * a time with ReadRange, picking up where the last harvest stopped.
+ * <p>
+ * A harvest of a device first reads {@code totalRecordCount} and
+ * {@code recordCount} of all its logs in one batch. The total is the
+ * sequence number of each log's newest record, so logs with nothing new
+ * cost no further request. The others are read by sequence number from one
+ * past the last record delivered. Each page goes straight to the
+ * {@link PageConsumer}, and the log's position moves on only after the
+ * consumer returns.
+ * <p>
+ * A log read for the first time, one that was reset, or one that overwrote
+ * records before they were fetched is read from its oldest record, whose
+ * sequence number is {@code totalRecordCount - recordCount + 1}. Reads are
+ * always by sequence number, since only those acks carry
+ * {@code firstSequenceNumber}. Records lost that way are counted in
+ * {@link #toString}. With a file, positions are loaded by {@link #load} and
+ * written back after every device whose positions moved, even when one of
+ * its logs failed part way, one line per log, with the device's address as in
+ * {@link DeviceKey#addressText}:
+ * <pre>
+ *   device address objectType instance lastSequence
+ * </pre>
+ * Lines from older files without the address are applied to the first
+ * device registered with that instance.
+ */
+public final class TrendLogHarvester {
+
+    /** Receives one page of records from a log, oldest first. */
+    @FunctionalInterface
+    public interface PageConsumer {
+        /**
+         * @param firstSequence sequence number of {@code records.get(0)}; the
+         *                      rest follow on consecutively
+         */
+        void accept(RemoteDevice device, ObjectIdentifier log, long firstSequence, List<Encodable> records);
+    }
+
+    private static final long SEQUENCE_MASK = 0xFFFFFFFFL;
+    private static final int ACK_OVERHEAD_BYTES = 32;
+    /** Timestamp, a REAL or enumerated value and status flags. */
+    private static final int LOG_RECORD_BYTES = 24;
+    private static final int LOG_MULTIPLE_RECORD_BYTES = 64;
+    private static final int SEGMENTED_RESPONSE_FACTOR = 4;
+    private static final int MAX_PAGE = 256;
+
+    private static final class LogState {
+        final ObjectIdentifier oid;
+        // -1 until the first record is delivered
+        volatile long lastSequence = -1;
+
+        LogState(ObjectIdentifier oid) {
+            this.oid = oid;
+        }
+    }
+
+    private final DeviceRequestSender sender;
+    private final BatchReadEngine batchReader;
+    private final PageConsumer consumer;
+    private final Path file;
+    private final Map<DeviceKey, RemoteDevice> devices = new ConcurrentHashMap<>();
+    private final Map<DeviceKey, Map<Integer, LogState>> logs = new ConcurrentHashMap<>();
+    // Positions from files without addresses, by instance and packed object id, until a device claims them
+    private final Map<Integer, Map<Integer, Long>> unclaimed = new ConcurrentHashMap<>();
+
+    private final LongAdder records = new LongAdder();
+    private final LongAdder pages = new LongAdder();
+    private final LongAdder missedRecords = new LongAdder();
+    private final LongAdder failedLogs = new LongAdder();
+
+    /**
+     * @param file where each log's last sequence number is kept across
+     *             runs, or null to keep it in memory only
+     */
+    public TrendLogHarvester(LocalDevice localDevice, PageConsumer consumer, Path file) {
+        this.sender = DeviceRequestSender.forLocal(localDevice);
+        this.batchReader = BatchReadEngine.forLocal(localDevice);
+        this.consumer = consumer;
+        this.file = file;
+    }
+
+    public static boolean isTrendLog(ObjectIdentifier oid) {
+        ObjectType type = oid.getObjectType();
+        return type.equals(ObjectType.trendLog) || type.equals(ObjectType.trendLogMultiple);
+    }
+
+    /**
+     * Registers the trend logs among {@code objects}, typically a device's
+     * object list as it is enumerated.
+     *
+     * @return the number of trend logs found
+     */
+    public int addLogs(RemoteDevice remoteDevice, Collection<ObjectIdentifier> objects) {
+        DeviceKey key = DeviceKey.of(remoteDevice);
+        Map<Integer, LogState> deviceLogs = logs.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+        Map<Integer, Long> positions = unclaimed.remove(key.instance());
+        int found = 0;
+        for (ObjectIdentifier oid : objects) {
+            if (isTrendLog(oid)) {
+                LogState log = deviceLogs.computeIfAbsent(ObjectMetadata.pack(oid), p -> new LogState(oid));
+                Long position = positions == null ? null : positions.get(ObjectMetadata.pack(oid));
+                if (position != null && log.lastSequence < 0) {
+                    log.lastSequence = position;
+                }
+                found++;
+            }
+        }
+        if (found > 0) {
+            devices.put(key, remoteDevice);
+        }
+        return found;
+    }
+
+    public void load() throws IOException {
+        if (file == null) {
+            return;
+        }
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        int loaded = 0;
+        for (String line : lines) {
+            if (line.startsWith("#")) {
+                continue;
+            }
+            String[] f = line.trim().split("\\s+");
+            // Older files have no address column
+            int skip = f.length - 4;
+            if (skip != 0 && skip != 1) {
+                continue;
+            }
+            try {
+                int instance = Integer.parseInt(f[0]);
+                ObjectIdentifier oid = new ObjectIdentifier(
+                        ObjectType.forId(Integer.parseInt(f[1 + skip])), Integer.parseInt(f[2 + skip]));
+                long lastSequence = Long.parseLong(f[3 + skip]);
+                if (skip == 0) {
+                    unclaimed.computeIfAbsent(instance, i -> new ConcurrentHashMap<>())
+                            .put(ObjectMetadata.pack(oid), lastSequence);
+                } else {
+                    DeviceKey key = DeviceKey.parse(instance, f[1]);
+                    logs.computeIfAbsent(key, k -> new ConcurrentHashMap<>())
+                            .computeIfAbsent(ObjectMetadata.pack(oid), p -> new LogState(oid))
+                            .lastSequence = lastSequence;
+                }
+                loaded++;
+            } catch (IllegalArgumentException e) {
+                System.err.println("Ignoring trend log position line: " + line);
+            }
+        }
+        System.out.println("Trend logs: " + loaded + " position(s) loaded from " + file);
+    }
+
+    /**
+     * Harvests every registered device, at most {@code parallelism} at a
+     * time. Devices that fail are reported and skipped until the next call.
+     *
+     * @return the number of records delivered
+     */
+    public long harvestAll(int parallelism) {
+        Map<DeviceKey, Future<Integer>> pending = new LinkedHashMap<>();
+        Semaphore permits = new Semaphore(parallelism);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Map.Entry<DeviceKey, RemoteDevice> entry : devices.entrySet()) {
+                RemoteDevice device = entry.getValue();
+                pending.put(entry.getKey(), executor.submit(() -> {
+                    permits.acquire();
+                    try {
+                        return harvest(device);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+        }
+
+        long delivered = 0;
+        for (Map.Entry<DeviceKey, Future<Integer>> entry : pending.entrySet()) {
+            try {
+                delivered += entry.getValue().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                System.err.println("Trend harvest FAILED for device " + entry.getKey() + ": " + e.getCause());
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * Delivers every record the device's logs gained since the last harvest.
+     *
+     * @return the number of records delivered
+     */
+    public int harvest(RemoteDevice remoteDevice) throws BACnetException {
+        Map<Integer, LogState> deviceLogs = logs.get(DeviceKey.of(remoteDevice));
+        if (deviceLogs == null || deviceLogs.isEmpty()) {
+            return 0;
+        }
+
+        List<LogState> states = new ArrayList<>(deviceLogs.values());
+        List<ObjectPropertyReference> refs = new ArrayList<>(states.size() * 2);
+        for (LogState log : states) {
+            refs.add(new ObjectPropertyReference(log.oid, PropertyIdentifier.totalRecordCount));
+            refs.add(new ObjectPropertyReference(log.oid, PropertyIdentifier.recordCount));
+        }
+        List<Encodable> counts = batchReader.read(remoteDevice, refs);
+
+        int[] delivered = {0};
+        boolean moved = false;
+        try {
+            for (int i = 0; i < states.size(); i++) {
+                if (!(counts.get(i * 2) instanceof UnsignedInteger total)) {
+                    continue;
+                }
+                LogState log = states.get(i);
+                if (log.lastSequence == total.longValue()) {
+                    continue;
+                }
+                long recordCount = counts.get(i * 2 + 1) instanceof UnsignedInteger n ? n.longValue() : -1;
+                long before = log.lastSequence;
+                try {
+                    harvestLog(remoteDevice, log, total.longValue(), recordCount, delivered);
+                } catch (BACnetException e) {
+                    failedLogs.increment();
+                    System.err.println("Trend harvest FAILED for " + log.oid + " on device "
+                            + remoteDevice.getInstanceNumber() + ": " + e.getMessage());
+                } finally {
+                    moved |= log.lastSequence != before;
+                }
+            }
+        } finally {
+            if (moved) {
+                save();
+            }
+        }
+        return delivered[0];
+    }
+
+    /**
+     * Reads the log's new records, adding each page to {@code delivered} as
+     * it is handed to the consumer.
+     *
+     * @param recordCount records now in the buffer, or -1 if it couldn't be read
+     */
+    private void harvestLog(RemoteDevice remoteDevice, LogState log, long total, long recordCount, int[] delivered)
+            throws BACnetException {
+        int page = pageSize(remoteDevice, log.oid);
+        long minTimeout = sender.segmentedTimeoutMillis(remoteDevice, page * recordBytes(log.oid) + ACK_OVERHEAD_BYTES);
+        // Unknown position, or the newest record is "behind" us: the log was cleared or reset.
+        boolean fromOldest = log.lastSequence < 0 || ahead(log.lastSequence, total) > Integer.MAX_VALUE;
+        boolean restarted = fromOldest;
+
+        while (fromOldest || ahead(log.lastSequence, total) > 0) {
+            long expected;
+            if (!fromOldest) {
+                expected = next(log.lastSequence);
+            } else if (recordCount == 0) {
+                return;
+            } else if (recordCount < 0) {
+                throw new BACnetException("recordCount of " + log.oid + " unreadable; oldest record unknown");
+            } else {
+                expected = oldest(total, recordCount);
+            }
+            ReadRangeRequest request = new ReadRangeRequest(log.oid, PropertyIdentifier.logBuffer, null,
+                    new ReadRangeRequest.BySequenceNumber(new UnsignedInteger(expected), new SignedInteger(page)));
+            ReadRangeAck ack = sender.send(remoteDevice, request, minTimeout);
+
+            SequenceOf<? extends Encodable> items = ack.getItemData();
+            int count = items == null ? 0 : items.size();
+            if (count == 0) {
+                if (restarted) {
+                    break;
+                }
+                // The records we wanted were overwritten before we got to them: start again
+                // from the oldest one still there.
+                List<Encodable> now = batchReader.read(remoteDevice, List.of(
+                        new ObjectPropertyReference(log.oid, PropertyIdentifier.totalRecordCount),
+                        new ObjectPropertyReference(log.oid, PropertyIdentifier.recordCount)));
+                if (now.get(0) instanceof UnsignedInteger t) {
+                    total = t.longValue();
+                }
+                recordCount = now.get(1) instanceof UnsignedInteger n ? n.longValue() : -1;
+                fromOldest = true;
+                restarted = true;
+                continue;
+            }
+
+            long first = ack.getFirstSequenceNumber() != null ? ack.getFirstSequenceNumber().longValue() : expected;
+            if (log.lastSequence >= 0) {
+                long gap = ahead(next(log.lastSequence), first);
+                if (gap > 0 && gap <= Integer.MAX_VALUE) {
+                    missedRecords.add(gap);
+                }
+            }
+
+            consumer.accept(remoteDevice, log.oid, first, new ArrayList<Encodable>(items.getValues()));
+            log.lastSequence = (first + count - 1) & SEQUENCE_MASK;
+            delivered[0] += count;
+            records.add(count);
+            pages.increment();
+            fromOldest = false;
+        }
+    }
+
+    /** Records per ReadRange, as many as the device can return in one response. */
+    private static int pageSize(RemoteDevice remoteDevice, ObjectIdentifier log) {
+        Segmentation segmentation = remoteDevice.getSegmentationSupported();
+        boolean segments = Segmentation.segmentedBoth.equals(segmentation)
+                || Segmentation.segmentedTransmit.equals(segmentation);
+        int budget = (remoteDevice.getMaxAPDULengthAccepted() - ACK_OVERHEAD_BYTES)
+                * (segments ? SEGMENTED_RESPONSE_FACTOR : 1);
+        return Math.max(1, Math.min(MAX_PAGE, budget / recordBytes(log)));
+    }
+
+    private static int recordBytes(ObjectIdentifier log) {
+        return log.getObjectType().equals(ObjectType.trendLogMultiple) ? LOG_MULTIPLE_RECORD_BYTES : LOG_RECORD_BYTES;
+    }
+
+    /** How far {@code to} is past {@code from}, with sequence numbers wrapping at 2^32. */
+    private static long ahead(long from, long to) {
+        return (to - from) & SEQUENCE_MASK;
+    }
+
+    /** Sequence number of the oldest of the {@code recordCount} records up to {@code total}. */
+    private static long oldest(long total, long recordCount) {
+        long oldest = total - recordCount + 1;
+        // Going back past 1 wraps to the top, skipping 0
+        return (oldest <= 0 ? oldest - 1 : oldest) & SEQUENCE_MASK;
+    }
+
+    /** Sequence numbers run from 1 and skip 0 when they wrap. */
+    private static long next(long sequence) {
+        long next = (sequence + 1) & SEQUENCE_MASK;
+        return next == 0 ? 1 : next;
+    }
+
+    private synchronized void save() {
+        if (file == null) {
+            return;
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            out.write("# device address objectType instance lastSequence\n");
+            for (Map.Entry<DeviceKey, Map<Integer, LogState>> device : logs.entrySet()) {
+                DeviceKey key = device.getKey();
+                for (LogState log : device.getValue().values()) {
+                    if (log.lastSequence >= 0) {
+                        out.write(key.instance() + " " + key.addressText() + " "
+                                + log.oid.getObjectType().intValue() + " "
+                                + log.oid.getInstanceNumber() + " " + log.lastSequence + "\n");
+                    }
+                }
+            }
+            for (Map.Entry<Integer, Map<Integer, Long>> device : unclaimed.entrySet()) {
+                for (Map.Entry<Integer, Long> position : device.getValue().entrySet()) {
+                    ObjectIdentifier oid = ObjectMetadata.unpack(position.getKey());
+                    out.write(device.getKey() + " " + oid.getObjectType().intValue() + " "
+                            + oid.getInstanceNumber() + " " + position.getValue() + "\n");
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Could not write trend log positions: " + e.getMessage());
+            return;
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Could not write trend log positions: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public String toString() {
+        int logCount = logs.values().stream().mapToInt(Map::size).sum();
+        return "TrendLogHarvester{devices=" + devices.size()
+                + ", logs=" + logCount
+                + ", records=" + records.sum()
+                + ", pages=" + pages.sum()
+                + ", missedRecords=" + missedRecords.sum()
+                + ", failedLogs=" + failedLogs.sum() + "}";
+    }
+}
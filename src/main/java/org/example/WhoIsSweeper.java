@@ -0,0 +1,224 @@
+package org.example;
+
+import com.serotonin.bacnet4j.LocalDevice;
+import com.serotonin.bacnet4j.RemoteDevice;
+import com.serotonin.bacnet4j.event.DeviceEventAdapter;
+import com.serotonin.bacnet4j.service.unconfirmed.WhoIsRequest;
+import com.serotonin.bacnet4j.type.constructed.Address;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Finds every device behind an address by sweeping the whole instance space
+ * with ranged Who-Is requests.
+ * <p>
+ * The space starts out cut into a few dozen ranges, of which up to
+ * {@code concurrency} are outstanding at once, paced by a minimum gap
+ * between sends so slow routers and MS/TP trunks aren't flooded. A range is
+ * finished when no I-Am has arrived for it for the quiet period, or straight
+ * away after the empty timeout if nothing answered at all. A range that drew
+ * {@code splitThreshold} or more replies is where I-Ams collide and get lost,
+ * so it is split in two and both halves are asked again.
+ */
+public final class WhoIsSweeper {
+
+    public static final int MAX_INSTANCE = 4_194_302;
+
+    private static final long TICK_MILLIS = 10;
+
+    private final LocalDevice localDevice;
+    private final Address target;
+
+    private int initialRanges = 64;
+    private int concurrency = 8;
+    private long minSendIntervalMillis = 20;
+    private long emptyTimeoutMillis = 750;
+    private long quietMillis = 400;
+    private int splitThreshold = 32;
+    private long maxSweepMillis = TimeUnit.MINUTES.toMillis(2);
+
+    private int whoIsSent;
+    private int rangesSplit;
+
+    private static final class Range {
+        final int low;
+        final int high;
+        long sentAt;
+        volatile long lastReplyAt;
+        volatile int replies;
+
+        Range(int low, int high) {
+            this.low = low;
+            this.high = high;
+        }
+
+        boolean contains(int instance) {
+            return instance >= low && instance <= high;
+        }
+    }
+
+    /**
+     * @param target unicast or directed-broadcast address, or null for a
+     *               global broadcast
+     */
+    public WhoIsSweeper(LocalDevice localDevice, Address target) {
+        this.localDevice = localDevice;
+        this.target = target;
+    }
+
+    /**
+     * Sweeps the instance space and returns the devices found, keyed by
+     * instance. {@code onNewDevice} is called once per device as soon as its
+     * first I-Am arrives, on the bacnet4j thread.
+     */
+    public Map<Integer, RemoteDevice> sweep(Consumer<RemoteDevice> onNewDevice) throws InterruptedException {
+        return sweep(0, MAX_INSTANCE, onNewDevice);
+    }
+
+    public Map<Integer, RemoteDevice> sweep(int low, int high, Consumer<RemoteDevice> onNewDevice)
+            throws InterruptedException {
+
+        Map<Integer, RemoteDevice> found = new ConcurrentHashMap<>();
+        List<Range> active = Collections.synchronizedList(new ArrayList<>());
+        Deque<Range> pending = new ArrayDeque<>();
+
+        long span = (long) high - low + 1;
+        int parts = (int) Math.max(1, Math.min(initialRanges, span));
+        for (int i = 0; i < parts; i++) {
+            int from = (int) (low + span * i / parts);
+            int to = (int) (low + span * (i + 1) / parts - 1);
+            pending.add(new Range(from, to));
+        }
+
+        DeviceEventAdapter listener = new DeviceEventAdapter() {
+            @Override
+            public void iAmReceived(RemoteDevice d) {
+                int instance = d.getInstanceNumber();
+                long now = System.currentTimeMillis();
+                synchronized (active) {
+                    for (Range range : active) {
+                        if (range.contains(instance)) {
+                            range.replies++;
+                            range.lastReplyAt = now;
+                        }
+                    }
+                }
+                if (instance >= low && instance <= high && found.putIfAbsent(instance, d) == null) {
+                    onNewDevice.accept(d);
+                }
+            }
+        };
+
+        localDevice.getEventHandler().addListener(listener);
+        long deadline = System.currentTimeMillis() + maxSweepMillis;
+        long lastSentAt = 0;
+
+        try {
+            while ((!pending.isEmpty() || !active.isEmpty()) && System.currentTimeMillis() < deadline) {
+                long now = System.currentTimeMillis();
+
+                // Retire finished ranges, splitting the crowded ones
+                synchronized (active) {
+                    for (Iterator<Range> it = active.iterator(); it.hasNext(); ) {
+                        Range range = it.next();
+                        boolean done = range.replies == 0
+                                ? now - range.sentAt >= emptyTimeoutMillis
+                                : now - range.lastReplyAt >= quietMillis;
+                        if (!done) {
+                            continue;
+                        }
+                        it.remove();
+                        if (range.replies >= splitThreshold && range.high > range.low) {
+                            int mid = (int) (((long) range.low + range.high) >>> 1);
+                            pending.addFirst(new Range(mid + 1, range.high));
+                            pending.addFirst(new Range(range.low, mid));
+                            rangesSplit++;
+                        }
+                    }
+                }
+
+                // Start new ranges while there is room and the pacing allows
+                while (!pending.isEmpty() && active.size() < concurrency
+                        && now - lastSentAt >= minSendIntervalMillis) {
+                    Range range = pending.poll();
+                    range.sentAt = now;
+                    active.add(range);
+                    send(range);
+                    lastSentAt = now;
+                }
+
+                Thread.sleep(TICK_MILLIS);
+            }
+        } finally {
+            localDevice.getEventHandler().removeListener(listener);
+        }
+
+        if (!pending.isEmpty() || !active.isEmpty()) {
+            System.err.println("Who-Is sweep stopped after " + maxSweepMillis + " ms with "
+                    + (pending.size() + active.size()) + " ranges unanswered");
+        }
+        return found;
+    }
+
+    private void send(Range range) {
+        WhoIsRequest whoIs = new WhoIsRequest(range.low, range.high);
+        if (target == null) {
+            localDevice.sendGlobalBroadcast(whoIs);
+        } else {
+            localDevice.send(target, whoIs);
+        }
+        whoIsSent++;
+    }
+
+    /** Ranges the instance space is cut into before any splitting. */
+    public void setInitialRanges(int initialRanges) {
+        this.initialRanges = initialRanges;
+    }
+
+    /** Ranges outstanding at once. */
+    public void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    /** Minimum gap between two Who-Is sends. */
+    public void setMinSendIntervalMillis(long minSendIntervalMillis) {
+        this.minSendIntervalMillis = minSendIntervalMillis;
+    }
+
+    /** How long a range with no reply at all is waited for. */
+    public void setEmptyTimeoutMillis(long emptyTimeoutMillis) {
+        this.emptyTimeoutMillis = emptyTimeoutMillis;
+    }
+
+    /** How long after its last reply a range counts as finished. */
+    public void setQuietMillis(long quietMillis) {
+        this.quietMillis = quietMillis;
+    }
+
+    /** Replies at or above which a range is split and asked again. */
+    public void setSplitThreshold(int splitThreshold) {
+        this.splitThreshold = splitThreshold;
+    }
+
+    /** Upper bound on a whole sweep. */
+    public void setMaxSweepMillis(long maxSweepMillis) {
+        this.maxSweepMillis = maxSweepMillis;
+    }
+
+    public int getWhoIsSent() {
+        return whoIsSent;
+    }
+
+    public int getRangesSplit() {
+        return rangesSplit;
+    }
+}
@@ -0,0 +1,316 @@
+package org.example;
+
+import com.serotonin.bacnet4j.LocalDevice;
+import com.serotonin.bacnet4j.RemoteDevice;
+import com.serotonin.bacnet4j.exception.AbortAPDUException;
+import com.serotonin.bacnet4j.exception.BACnetException;
+import com.serotonin.bacnet4j.exception.ErrorAPDUException;
+import com.serotonin.bacnet4j.exception.RejectAPDUException;
+import com.serotonin.bacnet4j.service.confirmed.WritePropertyMultipleRequest;
+import com.serotonin.bacnet4j.service.confirmed.WritePropertyRequest;
+import com.serotonin.bacnet4j.type.Encodable;
+import com.serotonin.bacnet4j.type.constructed.PropertyValue;
+import com.serotonin.bacnet4j.type.constructed.SequenceOf;
+import com.serotonin.bacnet4j.type.constructed.WriteAccessSpecification;
+import com.serotonin.bacnet4j.type.enumerated.PropertyIdentifier;
+import com.serotonin.bacnet4j.type.enumerated.RejectReason;
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+import com.serotonin.bacnet4j.type.primitive.UnsignedInteger;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Queues property writes per device and sends them as WritePropertyMultiple
+ * requests, so a control loop that commands thousands of points every few
+ * seconds costs each device about one request per cycle.
+ * <p>
+ * The first write queued for an idle device opens a window; writes for the
+ * same device that arrive before it closes go out together. A write to an
+ * (object, property, priority) that is already queued replaces the queued
+ * value (last writer wins), and both futures complete when the value that
+ * won is written. Requests are sized to the device's max APDU. Only one
+ * flush per device is in flight; writes queued meanwhile go out as soon as
+ * it is done. Queues are per {@link DeviceKey}, so a write only ever goes to
+ * the device it was queued for, even when devices on different sites share
+ * an instance number.
+ * <p>
+ * A device that rejects WritePropertyMultiple is written one property at a
+ * time with WriteProperty from then on. When a WritePropertyMultiple fails
+ * with an error, its writes are repeated one at a time, so each future gets
+ * its own result: a WritePropertyMultiple stops at the first failing write.
+ */
+public final class WriteCoalescer implements AutoCloseable {
+
+    private static final int APDU_OVERHEAD_BYTES = 16;
+    /** Object identifier and the opening/closing tags around its properties. */
+    private static final int OBJECT_SPEC_BYTES = 7;
+    /** Property identifier, a REAL or enumerated value, priority and tags. */
+    private static final int PROPERTY_VALUE_BYTES = 14;
+
+    private record WriteKey(int packedOid, int property, int priority) {
+    }
+
+    private static final class PendingWrite {
+        final ObjectIdentifier oid;
+        final PropertyIdentifier property;
+        final int priority;
+        Encodable value;
+        final List<CompletableFuture<Void>> futures = new ArrayList<>(1);
+
+        PendingWrite(ObjectIdentifier oid, PropertyIdentifier property, int priority) {
+            this.oid = oid;
+            this.property = property;
+            this.priority = priority;
+        }
+
+        PropertyValue toPropertyValue() {
+            return new PropertyValue(property, null, value, priority == 0 ? null : new UnsignedInteger(priority));
+        }
+
+        void complete(BACnetException failure) {
+            for (CompletableFuture<Void> future : futures) {
+                if (failure == null) {
+                    future.complete(null);
+                } else {
+                    future.completeExceptionally(failure);
+                }
+            }
+        }
+    }
+
+    private static final class DeviceQueue {
+        final RemoteDevice device;
+        volatile boolean wpmUnsupported;
+        // Guarded by this
+        LinkedHashMap<WriteKey, PendingWrite> pending = new LinkedHashMap<>();
+        HashedTimerWheel.Timeout window;
+        boolean flushing;
+
+        DeviceQueue(RemoteDevice device) {
+            this.device = device;
+        }
+    }
+
+    private final DeviceRequestSender sender;
+    private final long windowMillis;
+    private final Map<DeviceKey, DeviceQueue> queues = new ConcurrentHashMap<>();
+    private final HashedTimerWheel timer =
+            new HashedTimerWheel(10, TimeUnit.MILLISECONDS, 512, "write-coalesce-wheel");
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("write-", 0).factory());
+    private volatile boolean closed;
+
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder multipleRequests = new LongAdder();
+    private final LongAdder singleRequests = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * @param windowMillis how long a device's first queued write waits for
+     *                     others to join it
+     */
+    public WriteCoalescer(LocalDevice localDevice, long windowMillis) {
+        this.sender = DeviceRequestSender.forLocal(localDevice);
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Queues a write.
+     *
+     * @param priority command priority 1-16, or 0 to write without one
+     * @return completes when the device has accepted this value or one
+     *         written over it, or exceptionally with the device's error
+     */
+    public CompletableFuture<Void> write(
+            RemoteDevice remoteDevice,
+            ObjectIdentifier oid,
+            PropertyIdentifier property,
+            Encodable value,
+            int priority
+    ) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        DeviceQueue queue = queues.computeIfAbsent(DeviceKey.of(remoteDevice), k -> new DeviceQueue(remoteDevice));
+        WriteKey key = new WriteKey(ObjectMetadata.pack(oid), property.intValue(), priority);
+        synchronized (queue) {
+            // Checked under the lock: close() takes every queue's lock before it stops the timer
+            if (closed) {
+                future.completeExceptionally(new IllegalStateException("WriteCoalescer is closed"));
+                return future;
+            }
+            writes.increment();
+            PendingWrite write = queue.pending.get(key);
+            if (write == null) {
+                write = new PendingWrite(oid, property, priority);
+                queue.pending.put(key, write);
+            } else {
+                coalesced.increment();
+            }
+            write.value = value;
+            write.futures.add(future);
+
+            if (queue.window == null && !queue.flushing) {
+                queue.window = timer.schedule(() -> startFlush(queue), windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        return future;
+    }
+
+    /** Starts a flush when the window closes, unless one is already running. */
+    private void startFlush(DeviceQueue queue) {
+        synchronized (queue) {
+            if (queue.flushing) {
+                return;
+            }
+            if (queue.window != null) {
+                queue.window.cancel();
+                queue.window = null;
+            }
+            queue.flushing = true;
+            // Submitted under the lock, so close() can't shut the executor down in between
+            executor.execute(() -> flush(queue));
+        }
+    }
+
+    /** Sends everything queued for the device, then anything queued while that was under way. */
+    private void flush(DeviceQueue queue) {
+        while (true) {
+            List<PendingWrite> batch;
+            synchronized (queue) {
+                if (queue.pending.isEmpty()) {
+                    queue.flushing = false;
+                    return;
+                }
+                batch = new ArrayList<>(queue.pending.values());
+                queue.pending = new LinkedHashMap<>();
+            }
+            try {
+                send(queue, batch);
+            } catch (RuntimeException e) {
+                BACnetException failure = new BACnetException(e);
+                batch.forEach(w -> w.complete(failure));
+                failures.add(batch.size());
+            }
+        }
+    }
+
+    private void send(DeviceQueue queue, List<PendingWrite> batch) {
+        RemoteDevice device = queue.device;
+        int budget = device.getMaxAPDULengthAccepted() - APDU_OVERHEAD_BYTES;
+
+        int from = 0;
+        while (from < batch.size()) {
+            // Writes to one object share its specification; count a new one only when the object changes.
+            int bytes = 0;
+            int to = from;
+            ObjectIdentifier current = null;
+            while (to < batch.size()) {
+                PendingWrite write = batch.get(to);
+                int size = PROPERTY_VALUE_BYTES + (write.oid.equals(current) ? 0 : OBJECT_SPEC_BYTES);
+                if (to > from && bytes + size > budget) {
+                    break;
+                }
+                bytes += size;
+                current = write.oid;
+                to++;
+            }
+
+            List<PendingWrite> chunk = batch.subList(from, to);
+            if (queue.wpmUnsupported || chunk.size() == 1) {
+                chunk.forEach(w -> writeSingle(device, w));
+            } else {
+                writeMultiple(queue, device, chunk);
+            }
+            from = to;
+        }
+    }
+
+    private void writeMultiple(DeviceQueue queue, RemoteDevice device, List<PendingWrite> chunk) {
+        SequenceOf<WriteAccessSpecification> specs = new SequenceOf<>();
+        ObjectIdentifier current = null;
+        List<PropertyValue> values = new ArrayList<>();
+        for (PendingWrite write : chunk) {
+            if (current != null && !current.equals(write.oid)) {
+                specs.add(new WriteAccessSpecification(current, new SequenceOf<>(values)));
+                values = new ArrayList<>();
+            }
+            current = write.oid;
+            values.add(write.toPropertyValue());
+        }
+        specs.add(new WriteAccessSpecification(current, new SequenceOf<>(values)));
+
+        WritePropertyMultipleRequest request = new WritePropertyMultipleRequest(specs);
+        try {
+            sender.send(device, request);
+            multipleRequests.increment();
+            chunk.forEach(w -> w.complete(null));
+
+        } catch (RejectAPDUException e) {
+            if (RejectReason.unrecognizedService.equals(e.getApdu().getRejectReason())) {
+                queue.wpmUnsupported = true;
+            }
+            retrySingly(device, request, chunk);
+
+        } catch (AbortAPDUException | ErrorAPDUException e) {
+            retrySingly(device, request, chunk);
+
+        } catch (BACnetException e) {
+            chunk.forEach(w -> w.complete(e));
+            failures.add(chunk.size());
+        }
+    }
+
+    private void retrySingly(RemoteDevice device, WritePropertyMultipleRequest request, List<PendingWrite> chunk) {
+        sender.getMetrics().recordRetry(DeviceKey.of(device), request);
+        chunk.forEach(w -> writeSingle(device, w));
+    }
+
+    private void writeSingle(RemoteDevice device, PendingWrite write) {
+        WritePropertyRequest request = new WritePropertyRequest(write.oid, write.property, null, write.value,
+                write.priority == 0 ? null : new UnsignedInteger(write.priority));
+        try {
+            sender.send(device, request);
+            singleRequests.increment();
+            write.complete(null);
+        } catch (BACnetException e) {
+            failures.increment();
+            write.complete(e);
+        }
+    }
+
+    /** Sends whatever is still queued, then stops. */
+    @Override
+    public void close() {
+        closed = true;
+        for (DeviceQueue queue : queues.values()) {
+            // A running flush sends everything queued before it ends; waiting windows are cut short.
+            boolean waiting;
+            synchronized (queue) {
+                waiting = !queue.flushing && !queue.pending.isEmpty();
+            }
+            if (waiting) {
+                startFlush(queue);
+            }
+        }
+        timer.close();
+        executor.close();
+    }
+
+    @Override
+    public String toString() {
+        return "WriteCoalescer{writes=" + writes.sum()
+                + ", coalesced=" + coalesced.sum()
+                + ", multipleRequests=" + multipleRequests.sum()
+                + ", singleRequests=" + singleRequests.sum()
+                + ", failures=" + failures.sum() + "}";
+    }
+}
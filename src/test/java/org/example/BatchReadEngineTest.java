@@ -0,0 +1,103 @@
+package org.example;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BatchReadEngineTest {
+
+    private static final int RESULT_BYTES = BatchReadEngine.DEFAULT_RESULT_BYTES;
+
+    @Test
+    public void startsWithinOneApdu() {
+        BatchReadEngine.DeviceBudget budget = new BatchReadEngine.DeviceBudget(1476, true, true);
+        assertEquals((1476 - 16) / RESULT_BYTES, budget.batchSize(RESULT_BYTES));
+    }
+
+    @Test
+    public void growsUpToSegmentedCeiling() {
+        BatchReadEngine.DeviceBudget budget = new BatchReadEngine.DeviceBudget(1476, true, true);
+        int previous = budget.batchSize(RESULT_BYTES);
+        for (int i = 0; i < 100; i++) {
+            budget.grow(RESULT_BYTES);
+            int size = budget.batchSize(RESULT_BYTES);
+            assertTrue("never shrinks while growing", size >= previous);
+            previous = size;
+        }
+        assertEquals((1476 - 16) * 8 / RESULT_BYTES, previous);
+    }
+
+    @Test
+    public void doesNotGrowPastOneApduWithoutSegmentation() {
+        BatchReadEngine.DeviceBudget budget = new BatchReadEngine.DeviceBudget(480, false, false);
+        int initial = budget.batchSize(RESULT_BYTES);
+        for (int i = 0; i < 20; i++) {
+            budget.grow(RESULT_BYTES);
+        }
+        assertEquals(initial, budget.batchSize(RESULT_BYTES));
+    }
+
+    @Test
+    public void requestSizeLimitsBatchWithoutSegmentedRequests() {
+        BatchReadEngine.DeviceBudget budget = new BatchReadEngine.DeviceBudget(480, true, false);
+        for (int i = 0; i < 20; i++) {
+            budget.grow(1);
+        }
+        assertEquals((480 - 16) / 5, budget.batchSize(1));
+    }
+
+    @Test
+    public void shrinkHalvesTheFailedBatch() {
+        BatchReadEngine.DeviceBudget budget = new BatchReadEngine.DeviceBudget(1476, true, true);
+        int failed = budget.batchSize(RESULT_BYTES);
+        budget.shrink(failed, RESULT_BYTES);
+        assertEquals(failed / 2, budget.batchSize(RESULT_BYTES));
+    }
+
+    @Test
+    public void shrinkNeverGoesBelowOneReference() {
+        BatchReadEngine.DeviceBudget budget = new BatchReadEngine.DeviceBudget(1476, true, true);
+        for (int i = 0; i < 20; i++) {
+            budget.shrink(budget.batchSize(RESULT_BYTES), RESULT_BYTES);
+        }
+        assertEquals(1, budget.batchSize(RESULT_BYTES));
+    }
+
+    @Test
+    public void growsBackAfterShrinking() {
+        BatchReadEngine.DeviceBudget budget = new BatchReadEngine.DeviceBudget(1476, true, true);
+        int initial = budget.batchSize(RESULT_BYTES);
+        budget.shrink(2, RESULT_BYTES);
+        assertEquals(1, budget.batchSize(RESULT_BYTES));
+        for (int i = 0; i < 40; i++) {
+            budget.grow(RESULT_BYTES);
+        }
+        assertTrue(budget.batchSize(RESULT_BYTES) > initial);
+    }
+
+    @Test
+    public void repeatedAbortsSuspendRpmOnlyForAWhile() {
+        BatchReadEngine.DeviceBudget budget = new BatchReadEngine.DeviceBudget(1476, true, true);
+        long now = 1_000L;
+        budget.onAbort(now);
+        budget.onAbort(now);
+        assertFalse(budget.readPropertyOnly(now));
+        budget.onAbort(now);
+        assertTrue(budget.readPropertyOnly(now + 1));
+        assertFalse(budget.readPropertyOnly(now + TimeUnit.MINUTES.toNanos(6)));
+    }
+
+    @Test
+    public void successResetsTheAbortStreak() {
+        BatchReadEngine.DeviceBudget budget = new BatchReadEngine.DeviceBudget(1476, true, true);
+        budget.onAbort(0);
+        budget.onAbort(0);
+        budget.grow(RESULT_BYTES);
+        budget.onAbort(0);
+        assertFalse(budget.readPropertyOnly(1));
+    }
+}
@@ -0,0 +1,331 @@
+package org.example;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CovRingBufferTest {
+
+    /** Producer id goes in the device instance, a per-producer sequence in the process id. */
+    private static boolean publish(CovRingBuffer ring, int producer, long sequence) {
+        return ring.publish(producer, null, sequence, 0, null);
+    }
+
+    private static List<Long> drainAll(CovRingBuffer ring) {
+        List<Long> seen = new ArrayList<>();
+        while (ring.drain((event, endOfBatch) -> seen.add(event.getSubscriberProcessId()), 64) > 0) {
+            // keep draining
+        }
+        return seen;
+    }
+
+    private static List<Long> range(long from, long to) {
+        List<Long> values = new ArrayList<>();
+        for (long i = from; i < to; i++) {
+            values.add(i);
+        }
+        return values;
+    }
+
+    @Test
+    public void capacityIsRoundedUpToAPowerOfTwo() {
+        assertEquals(8, new CovRingBuffer(5, CovRingBuffer.OverflowPolicy.DROP_NEWEST).capacity());
+        assertEquals(8, new CovRingBuffer(8, CovRingBuffer.OverflowPolicy.DROP_NEWEST).capacity());
+    }
+
+    @Test
+    public void drainsInPublishOrder() {
+        CovRingBuffer ring = new CovRingBuffer(8, CovRingBuffer.OverflowPolicy.DROP_NEWEST);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(publish(ring, 1, i));
+        }
+        assertEquals(5, ring.depth());
+
+        List<Long> seen = new ArrayList<>();
+        List<Boolean> ends = new ArrayList<>();
+        int n = ring.drain((event, endOfBatch) -> {
+            seen.add(event.getSubscriberProcessId());
+            ends.add(endOfBatch);
+        }, 16);
+
+        assertEquals(5, n);
+        assertEquals(range(0, 5), seen);
+        assertEquals(List.of(false, false, false, false, true), ends);
+        assertEquals(0, ring.depth());
+        assertEquals(0, ring.drain(null, 16));
+    }
+
+    @Test
+    public void drainTakesAtMostMaxBatch() {
+        CovRingBuffer ring = new CovRingBuffer(8, CovRingBuffer.OverflowPolicy.DROP_NEWEST);
+        for (int i = 0; i < 6; i++) {
+            publish(ring, 1, i);
+        }
+        List<Long> seen = new ArrayList<>();
+        assertEquals(4, ring.drain((event, endOfBatch) -> seen.add(event.getSubscriberProcessId()), 4));
+        assertEquals(range(0, 4), seen);
+        assertEquals(2, ring.depth());
+    }
+
+    @Test
+    public void keepsOrderAcrossWrapAround() {
+        CovRingBuffer ring = new CovRingBuffer(4, CovRingBuffer.OverflowPolicy.DROP_NEWEST);
+        List<Long> seen = new ArrayList<>();
+        long next = 0;
+        for (int lap = 0; lap < 25; lap++) {
+            for (int i = 0; i < 3; i++) {
+                assertTrue(publish(ring, 1, next++));
+            }
+            seen.addAll(drainAll(ring));
+        }
+        assertEquals(range(0, next), seen);
+        assertEquals(next, ring.getPublished());
+        assertEquals(0, ring.getDropped());
+    }
+
+    @Test
+    public void dropNewestRejectsWhenFull() {
+        CovRingBuffer ring = new CovRingBuffer(4, CovRingBuffer.OverflowPolicy.DROP_NEWEST);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(publish(ring, 1, i));
+        }
+        assertFalse(publish(ring, 1, 4));
+        assertFalse(publish(ring, 1, 5));
+
+        assertEquals(2, ring.getDropped());
+        assertEquals(range(0, 4), drainAll(ring));
+        assertTrue("room again once drained", publish(ring, 1, 6));
+    }
+
+    @Test
+    public void dropOldestEvictsTheOldest() {
+        CovRingBuffer ring = new CovRingBuffer(4, CovRingBuffer.OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 7; i++) {
+            assertTrue(publish(ring, 1, i));
+        }
+        assertEquals(3, ring.getDropped());
+        assertEquals(range(3, 7), drainAll(ring));
+    }
+
+    @Test
+    public void dropOldestWaitsForAStalledBatchInsteadOfDroppingNewerEvents() throws Exception {
+        CovRingBuffer ring = new CovRingBuffer(4, CovRingBuffer.OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(publish(ring, 1, i));
+        }
+
+        // A consumer takes 0 and 1 and stays inside its handler; their slots are not released yet.
+        CountDownLatch inHandler = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Long> stalled = new ArrayList<>();
+        Thread consumer = new Thread(() -> ring.drain((event, endOfBatch) -> {
+            stalled.add(event.getSubscriberProcessId());
+            if (endOfBatch) {
+                inHandler.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, 2));
+        consumer.start();
+        assertTrue(inHandler.await(5, TimeUnit.SECONDS));
+
+        // The producer wraps around onto the stalled slots.
+        CountDownLatch done = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            publish(ring, 1, 4);
+            publish(ring, 1, 5);
+            done.countDown();
+        });
+        producer.start();
+
+        assertFalse("publish must wait for the stalled batch", done.await(100, TimeUnit.MILLISECONDS));
+        assertEquals("nothing newer than the stalled batch may be dropped", 0, ring.getDropped());
+
+        release.countDown();
+        consumer.join();
+        assertTrue("publish must finish once the batch is released", done.await(5, TimeUnit.SECONDS));
+        producer.join();
+
+        assertEquals(range(0, 2), stalled);
+        assertEquals(range(2, 6), drainAll(ring));
+        assertEquals(0, ring.getDropped());
+    }
+
+    @Test
+    public void blockWaitsForAConsumer() throws Exception {
+        CovRingBuffer ring = new CovRingBuffer(4, CovRingBuffer.OverflowPolicy.BLOCK);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(publish(ring, 1, i));
+        }
+
+        CountDownLatch done = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            publish(ring, 1, 4);
+            done.countDown();
+        });
+        producer.start();
+
+        assertFalse("publish must wait while the ring is full", done.await(100, TimeUnit.MILLISECONDS));
+        List<Long> seen = new ArrayList<>();
+        assertEquals(1, ring.drain((event, endOfBatch) -> seen.add(event.getSubscriberProcessId()), 1));
+        assertTrue("publish must finish once a slot is free", done.await(5, TimeUnit.SECONDS));
+        producer.join();
+
+        seen.addAll(drainAll(ring));
+        assertEquals(range(0, 5), seen);
+        assertEquals(0, ring.getDropped());
+    }
+
+    @Test
+    public void handlerFailuresAreCountedAndSlotsReleased() {
+        CovRingBuffer ring = new CovRingBuffer(4, CovRingBuffer.OverflowPolicy.DROP_NEWEST);
+        for (int i = 0; i < 4; i++) {
+            publish(ring, 1, i);
+        }
+        assertEquals(4, ring.drain((event, endOfBatch) -> {
+            throw new IllegalStateException("handler failure expected by test");
+        }, 16));
+        assertEquals(4, ring.getHandlerErrors());
+
+        for (int i = 4; i < 8; i++) {
+            assertTrue(publish(ring, 1, i));
+        }
+        assertEquals(range(4, 8), drainAll(ring));
+    }
+
+    @Test
+    public void manyProducersOneConsumerLoseNothingAndKeepEachProducersOrder() throws Exception {
+        int producers = 4;
+        int perProducer = 200_000;
+        CovRingBuffer ring = new CovRingBuffer(1024, CovRingBuffer.OverflowPolicy.BLOCK);
+        long[] nextExpected = new long[producers];
+        AtomicReference<String> failure = new AtomicReference<>();
+
+        List<Thread> threads = startProducers(ring, producers, perProducer);
+        long consumed = 0;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        while (consumed < (long) producers * perProducer && System.nanoTime() < deadline) {
+            consumed += ring.drain((event, endOfBatch) -> {
+                int p = event.getDeviceInstance();
+                if (event.getSubscriberProcessId() != nextExpected[p]) {
+                    failure.compareAndSet(null, "producer " + p + ": expected " + nextExpected[p]
+                            + " got " + event.getSubscriberProcessId());
+                }
+                nextExpected[p] = event.getSubscriberProcessId() + 1;
+            }, 256);
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        assertEquals(null, failure.get());
+        assertEquals((long) producers * perProducer, consumed);
+        for (int p = 0; p < producers; p++) {
+            assertEquals(perProducer, nextExpected[p]);
+        }
+        assertEquals(0, ring.getDropped());
+        assertEquals(0, ring.depth());
+    }
+
+    @Test
+    public void manyProducersManyConsumersDeliverEachEventExactlyOnce() throws Exception {
+        int producers = 4;
+        int consumers = 3;
+        int perProducer = 200_000;
+        CovRingBuffer ring = new CovRingBuffer(256, CovRingBuffer.OverflowPolicy.BLOCK);
+        AtomicLongArray counts = new AtomicLongArray(producers * perProducer);
+        AtomicBoolean stop = new AtomicBoolean();
+
+        List<Thread> consumerThreads = new ArrayList<>();
+        for (int c = 0; c < consumers; c++) {
+            Thread t = new Thread(() -> {
+                CovEventHandler handler = (event, endOfBatch) ->
+                        counts.incrementAndGet(event.getDeviceInstance() * perProducer
+                                + (int) event.getSubscriberProcessId());
+                while (!stop.get() || ring.depth() > 0) {
+                    if (ring.drain(handler, 64) == 0) {
+                        Thread.onSpinWait();
+                    }
+                }
+            });
+            t.start();
+            consumerThreads.add(t);
+        }
+
+        for (Thread t : startProducers(ring, producers, perProducer)) {
+            t.join();
+        }
+        stop.set(true);
+        for (Thread t : consumerThreads) {
+            t.join(TimeUnit.SECONDS.toMillis(30));
+        }
+
+        for (int i = 0; i < counts.length(); i++) {
+            assertEquals("event " + i, 1, counts.get(i));
+        }
+        assertEquals((long) producers * perProducer, ring.getPublished());
+        assertEquals(0, ring.getDropped());
+    }
+
+    @Test
+    public void dropOldestUnderContentionAccountsForEveryEvent() throws Exception {
+        int producers = 4;
+        int perProducer = 100_000;
+        CovRingBuffer ring = new CovRingBuffer(64, CovRingBuffer.OverflowPolicy.DROP_OLDEST);
+        AtomicLongArray counts = new AtomicLongArray(producers * perProducer);
+        AtomicBoolean stop = new AtomicBoolean();
+        long[] consumed = new long[1];
+
+        Thread consumer = new Thread(() -> {
+            CovEventHandler handler = (event, endOfBatch) -> {
+                counts.incrementAndGet(event.getDeviceInstance() * perProducer
+                        + (int) event.getSubscriberProcessId());
+                consumed[0]++;
+            };
+            while (!stop.get() || ring.depth() > 0) {
+                ring.drain(handler, 16);
+            }
+        });
+        consumer.start();
+
+        for (Thread t : startProducers(ring, producers, perProducer)) {
+            t.join();
+        }
+        stop.set(true);
+        consumer.join(TimeUnit.SECONDS.toMillis(30));
+
+        for (int i = 0; i < counts.length(); i++) {
+            assertTrue("event " + i + " delivered twice", counts.get(i) <= 1);
+        }
+        assertEquals((long) producers * perProducer, ring.getPublished());
+        assertEquals(ring.getPublished(), consumed[0] + ring.getDropped());
+    }
+
+    private static List<Thread> startProducers(CovRingBuffer ring, int producers, int perProducer) {
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            Thread t = new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    publish(ring, producer, i);
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        return threads;
+    }
+}
@@ -0,0 +1,123 @@
+package org.example;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HashedTimerWheelTest {
+
+    @Test
+    public void neverRunsATaskBeforeItsDeadline() throws Exception {
+        int count = 300;
+        AtomicReference<String> early = new AtomicReference<>();
+        CountDownLatch ran = new CountDownLatch(count);
+        try (HashedTimerWheel wheel = new HashedTimerWheel(1, TimeUnit.MILLISECONDS, 8, "test-wheel")) {
+            for (int i = 0; i < count; i++) {
+                // Up to 80 ticks on an 8-slot wheel: most timeouts go round several times
+                long delayMicros = ThreadLocalRandom.current().nextLong(80_000);
+                long due = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(delayMicros);
+                wheel.schedule(() -> {
+                    long now = System.nanoTime();
+                    if (now < due) {
+                        early.compareAndSet(null, "ran " + (due - now) + " ns early, delay " + delayMicros + " us");
+                    }
+                    ran.countDown();
+                }, delayMicros, TimeUnit.MICROSECONDS);
+            }
+            assertTrue("every task must run", ran.await(10, TimeUnit.SECONDS));
+        }
+        assertNull(early.get());
+    }
+
+    @Test
+    public void waitsExtraRoundsForDeadlinesBeyondTheWheel() throws Exception {
+        // 4 slots of 5 ms: one round is 20 ms, so 90 ms is four rounds and a half
+        try (HashedTimerWheel wheel = new HashedTimerWheel(5, TimeUnit.MILLISECONDS, 4, "test-wheel")) {
+            AtomicLong ranAt = new AtomicLong();
+            CountDownLatch ran = new CountDownLatch(1);
+            long start = System.nanoTime();
+            wheel.schedule(() -> {
+                ranAt.set(System.nanoTime());
+                ran.countDown();
+            }, 90, TimeUnit.MILLISECONDS);
+
+            assertTrue(ran.await(5, TimeUnit.SECONDS));
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(ranAt.get() - start);
+            assertTrue("ran after " + elapsedMillis + " ms", elapsedMillis >= 90);
+            assertEquals(0, wheel.getPendingCount());
+        }
+    }
+
+    @Test
+    public void deadlinesAreRoundedUpToTheNextTick() throws Exception {
+        try (HashedTimerWheel wheel = new HashedTimerWheel(50, TimeUnit.MILLISECONDS, 16, "test-wheel")) {
+            AtomicLong ranAt = new AtomicLong();
+            CountDownLatch ran = new CountDownLatch(1);
+            long start = System.nanoTime();
+            // Part way into a tick: must not run at the end of the tick it falls in
+            wheel.schedule(() -> {
+                ranAt.set(System.nanoTime());
+                ran.countDown();
+            }, 60, TimeUnit.MILLISECONDS);
+
+            assertTrue(ran.await(5, TimeUnit.SECONDS));
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(ranAt.get() - start) >= 60);
+        }
+    }
+
+    @Test
+    public void cancelledTasksNeverRunAndAreDiscarded() throws Exception {
+        try (HashedTimerWheel wheel = new HashedTimerWheel(1, TimeUnit.MILLISECONDS, 8, "test-wheel")) {
+            AtomicBoolean cancelledRan = new AtomicBoolean();
+            CountDownLatch ran = new CountDownLatch(1);
+            HashedTimerWheel.Timeout cancelled = wheel.schedule(() -> cancelledRan.set(true), 20, TimeUnit.MILLISECONDS);
+            wheel.schedule(ran::countDown, 40, TimeUnit.MILLISECONDS);
+            cancelled.cancel();
+
+            assertTrue(cancelled.isCancelled());
+            assertTrue(ran.await(5, TimeUnit.SECONDS));
+            assertFalse(cancelledRan.get());
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (wheel.getPendingCount() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(0, wheel.getPendingCount());
+        }
+    }
+
+    @Test
+    public void aFailingTaskDoesNotStopTheWheel() throws Exception {
+        try (HashedTimerWheel wheel = new HashedTimerWheel(1, TimeUnit.MILLISECONDS, 8, "test-wheel")) {
+            CountDownLatch ran = new CountDownLatch(1);
+            wheel.schedule(() -> {
+                throw new IllegalStateException("timer task failure expected by test");
+            }, 5, TimeUnit.MILLISECONDS);
+            wheel.schedule(ran::countDown, 10, TimeUnit.MILLISECONDS);
+            assertTrue(ran.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void scheduleAfterCloseFails() {
+        HashedTimerWheel wheel = new HashedTimerWheel(1, TimeUnit.MILLISECONDS, 8, "test-wheel");
+        wheel.close();
+        try {
+            wheel.schedule(() -> { }, 1, TimeUnit.MILLISECONDS);
+            fail("schedule after close must throw");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package org.example;
+
+import com.serotonin.bacnet4j.type.enumerated.PropertyIdentifier;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PointValueStoreTest {
+
+    private static final int PRESENT_VALUE = PropertyIdentifier.presentValue.intValue();
+    private static final int STATUS_FLAGS_MASK = 0xF;
+
+    /** Analog input with the given instance, in {@link ObjectMetadata#pack} form. */
+    private static int analogInput(int instance) {
+        return instance;
+    }
+
+    @Test
+    public void slotForIsStableAndSlotOfFindsOnlyKnownPoints() {
+        PointValueStore store = new PointValueStore(16);
+        int slot = store.slotFor(1001, analogInput(1), PRESENT_VALUE);
+
+        assertEquals(slot, store.slotFor(1001, analogInput(1), PRESENT_VALUE));
+        assertEquals(slot, store.slotOf(1001, analogInput(1), PRESENT_VALUE));
+        assertEquals(-1, store.slotOf(1001, analogInput(2), PRESENT_VALUE));
+        assertEquals(-1, store.slotOf(1002, analogInput(1), PRESENT_VALUE));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void readReportsUnwrittenPoints() {
+        PointValueStore store = new PointValueStore(16);
+        int slot = store.slotFor(1001, analogInput(1), PRESENT_VALUE);
+
+        assertFalse(store.read(slot, new PointValueStore.Snapshot()));
+        assertTrue(Double.isNaN(store.getDouble(1001, analogInput(1), PRESENT_VALUE)));
+    }
+
+    @Test
+    public void olderUpdatesAreIgnored() {
+        PointValueStore store = new PointValueStore(16);
+        int slot = store.slotFor(1001, analogInput(1), PRESENT_VALUE);
+
+        assertTrue(store.write(slot, 21.5, 0, PointValueStore.FLAG_FAULT, 2000));
+        assertFalse(store.write(slot, 19.0, 0, 0, 1000));
+        store.writeFlags(slot, 0, 1500);
+
+        PointValueStore.Snapshot snapshot = new PointValueStore.Snapshot();
+        assertTrue(store.read(slot, snapshot));
+        assertEquals(21.5, snapshot.doubleValue, 0);
+        assertEquals(PointValueStore.FLAG_FAULT, snapshot.statusFlags);
+        assertEquals(2000, snapshot.timestamp);
+    }
+
+    @Test
+    public void keepFlagsLeavesTheStoredFlags() {
+        PointValueStore store = new PointValueStore(16);
+        int slot = store.slotFor(1001, analogInput(1), PRESENT_VALUE);
+
+        store.write(slot, 1, 0, PointValueStore.FLAG_OVERRIDDEN, 1000);
+        store.write(slot, 2, 0, PointValueStore.KEEP_FLAGS, 2000);
+
+        PointValueStore.Snapshot snapshot = new PointValueStore.Snapshot();
+        store.read(slot, snapshot);
+        assertEquals(2, snapshot.doubleValue, 0);
+        assertEquals(PointValueStore.FLAG_OVERRIDDEN, snapshot.statusFlags);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void refusesMorePointsThanSized() {
+        PointValueStore store = new PointValueStore(2);
+        store.slotFor(1001, analogInput(1), PRESENT_VALUE);
+        store.slotFor(1001, analogInput(2), PRESENT_VALUE);
+        store.slotFor(1001, analogInput(3), PRESENT_VALUE);
+    }
+
+    /**
+     * Every write stores a (value, flags, timestamp) triple derived from one
+     * counter, so a reader that sees fields from two different writes finds
+     * them disagreeing.
+     */
+    @Test
+    public void readersNeverSeeATornWrite() throws Exception {
+        PointValueStore store = new PointValueStore(16);
+        int slot = store.slotFor(1001, analogInput(1), PRESENT_VALUE);
+        AtomicLong clock = new AtomicLong();
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicReference<String> failure = new AtomicReference<>();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < 2; w++) {
+            threads.add(new Thread(() -> {
+                while (!stop.get()) {
+                    long t = clock.incrementAndGet();
+                    store.write(slot, t, -t, (int) (t & STATUS_FLAGS_MASK), t);
+                }
+            }));
+        }
+        for (int r = 0; r < 4; r++) {
+            threads.add(new Thread(() -> {
+                PointValueStore.Snapshot snapshot = new PointValueStore.Snapshot();
+                long lastSeen = 0;
+                while (!stop.get() && failure.get() == null) {
+                    if (!store.read(slot, snapshot)) {
+                        continue;
+                    }
+                    long t = snapshot.timestamp;
+                    if (snapshot.doubleValue != t || snapshot.longValue != -t
+                            || snapshot.statusFlags != (t & STATUS_FLAGS_MASK)) {
+                        failure.compareAndSet(null, "torn read: value=" + snapshot.doubleValue
+                                + " long=" + snapshot.longValue + " flags=" + snapshot.statusFlags
+                                + " timestamp=" + t);
+                    }
+                    if (t < lastSeen) {
+                        failure.compareAndSet(null, "went back from " + lastSeen + " to " + t);
+                    }
+                    lastSeen = t;
+
+                    double value = store.getDouble(1001, analogInput(1), PRESENT_VALUE);
+                    if (value != Math.rint(value) || value < t) {
+                        failure.compareAndSet(null, "getDouble returned " + value + " after " + t);
+                    }
+                }
+            }));
+        }
+
+        threads.forEach(Thread::start);
+        Thread.sleep(TimeUnit.SECONDS.toMillis(2));
+        stop.set(true);
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        assertNull(failure.get());
+        assertTrue("writers made progress", clock.get() > 1000);
+    }
+}